@@ -1,11 +1,7 @@
-import java.util.Collections;
 import java.util.Collection;
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.BitSet;
 
 
 //=============================================================================
@@ -19,58 +15,76 @@ public class ArticulationPoints{
     // Use the algorithm from the lectures, but you will need a loop to check through
     // all the Stops in the graph to find any Stops which were not connected to the
     // previous Stops, and apply the lecture slide algorithm starting at each such stop.
-    static Set<Stop> visited = new HashSet<Stop>();
+    // The search runs on the undirected neighbours of the CompactGraph view, with
+    // int arrays for the depth first numbers, the "reach back" values and the parents.
+    // The recursion of the lecture algorithm is replaced by an explicit stack, holding the
+    // position reached in the neighbours of each node, so that long lines cannot
+    // overflow the call stack.
 
 
     public static Collection<Stop> findArticulationPoints(Graph graph) {
         System.out.println("calling findArticulationPoints");
-        graph.computeNeighbours();   // To ensure that all stops have a set of (undirected) neighbour stops
+        CompactGraph g = graph.getCompactGraph();
+        int n = g.size();
 
         // Declare vars
         Set<Stop> articulationPoints = new HashSet<Stop>();
-        visited = new HashSet<>();
-        Map<Stop, Integer> dfsNum = new HashMap<>();
+        BitSet visited = new BitSet(n);
+        BitSet isArticulation = new BitSet(n);
+        int[] dfsNum = new int[n];
+        int[] reachBack = new int[n];
+        int[] parent = new int[n];
+        int[] nextNeighbour = new int[n];
+        int[] stack = new int[n];
+        int count = 0;
 
         // Loop through all stops
-        for (Stop stop : graph.getStops()) {
-            if (!visited.contains(stop)) {
-                dfs(stop, stop, dfsNum, articulationPoints);
-            }
-        }
-
-        return articulationPoints;
-    }
-
-    private static int dfs(Stop stop, Stop parent, Map<Stop, Integer> dfsNum, Set<Stop> articulationPoints) {
-        visited.add(stop);
-        int dfsNumStop = dfsNum.size();
-        dfsNum.put(stop, dfsNumStop);
-        int min = dfsNumStop;
-        int children = 0;
-
-        for (Stop neighbour : stop.getNeighbours()) {
-            if (!visited.contains(neighbour)) {
-                children++;
-                int dfsNumNeighbour = dfs(neighbour, stop, dfsNum, articulationPoints);
-                min = Math.min(min, dfsNumNeighbour);
-                if (dfsNumNeighbour >= dfsNumStop && parent != stop) {
-                    articulationPoints.add(stop);
+        for (int root = 0; root < n; root++) {
+            if (visited.get(root)) {continue;}
+            visited.set(root);
+            dfsNum[root] = reachBack[root] = count++;
+            parent[root] = -1;
+            nextNeighbour[root] = g.firstNeighbour(root);
+            int rootChildren = 0;
+            int top = 0;
+            stack[top++] = root;
+
+            while (top > 0) {
+                int node = stack[top - 1];
+                if (nextNeighbour[node] < g.endNeighbour(node)) {
+                    int neighbour = g.neighbour(nextNeighbour[node]++);
+                    if (!visited.get(neighbour)) {
+                        visited.set(neighbour);
+                        dfsNum[neighbour] = reachBack[neighbour] = count++;
+                        parent[neighbour] = node;
+                        nextNeighbour[neighbour] = g.firstNeighbour(neighbour);
+                        stack[top++] = neighbour;
+                        if (node == root) {rootChildren++;}
+                    } else if (neighbour != parent[node]) {
+                        reachBack[node] = Math.min(reachBack[node], dfsNum[neighbour]);
+                    }
+                } else {
+                    // finished node: pass its reach back to its parent
+                    top--;
+                    int p = parent[node];
+                    if (p >= 0) {
+                        reachBack[p] = Math.min(reachBack[p], reachBack[node]);
+                        if (p != root && reachBack[node] >= dfsNum[p]) {
+                            isArticulation.set(p);
+                        }
+                    }
                 }
-            } else if (neighbour != parent) {
-                min = Math.min(min, dfsNum.get(neighbour));
+            }
+            if (rootChildren > 1) {
+                isArticulation.set(root);
             }
         }
 
-        if (parent == stop && children > 1) {
-            articulationPoints.add(stop);
+        for (int v = isArticulation.nextSetBit(0); v >= 0; v = isArticulation.nextSetBit(v + 1)) {
+            articulationPoints.add(g.stop(v));
         }
-
-        return min;
+        return articulationPoints;
     }
 
 
-
-
-
-
 }
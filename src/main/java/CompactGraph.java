@@ -0,0 +1,442 @@
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An int-indexed view of the Graph in compressed-sparse-row (CSR) form.
+ *
+ * Every Stop has a dense id (0..size()-1, see Stop.getIndex()) assigned by the Graph.
+ * The out edges of stop v are the entries firstOut(v) .. endOut(v)-1 of the forward arrays,
+ * the in edges are firstIn(v) .. endIn(v)-1 of the backward arrays, and the
+ * (undirected) neighbours are firstNeighbour(v) .. endNeighbour(v)-1 of the neighbour array.
+ * The time and distance of each edge are stored in primitive arrays next to its target,
+ * so the search algorithms never have to follow pointers into the Edge and Stop objects;
+ * the Edge objects are only kept so that a path can be reported as a List of Edges.
+ *
+ * Walking edges:
+ * The row of each stop holds its line edges, followed by walking edges to every stop
+ * within maxWalkingDistance, sorted by distance. These are computed (and their Edge
+ * objects created) once, when the view is built.
+ * Changing the walking distance just moves the end of each row (endOut/endIn) to cut off
+ * the walking edges that are too long, so it allocates nothing and never rebuilds the arrays.
+ * The undirected neighbours never include walking edges.
+ *
+ * Threads:
+ * The stops, the edges and their costs never change once the view is built, but the ends of
+ * the rows do: setWalkingDistance(..) and removeWalkingEdges() rewrite them in place, with no
+ * synchronisation. So any number of threads can search the view at once, but the walking
+ * distance must only be changed when no search is running on another thread (as the Controller
+ * does, changing it and searching on the FX thread); a search that overlaps a change may see
+ * some rows cut at the old distance and some at the new one, or may not see the change at all.
+ */
+
+public class CompactGraph {
+
+    private final Stop[] stops;         // stop of each id
+
+    // forward (out) edges
+    private final int[] outOffsets;     // size n+1: start of the row of each stop
+    private final int[] outWalkStarts;  // start of the walking edges in each row
+    private final int[] outEnds;        // current end of each row (depends on the walking distance)
+    private final int[] outTargets;
+    private final double[] outTimes;
+    private final double[] outDistances;
+    private final Edge[] outEdges;
+
+    // backward (in) edges
+    private final int[] inOffsets;      // size n+1
+    private final int[] inWalkStarts;
+    private final int[] inEnds;
+    private final int[] inSources;
+    private final double[] inTimes;
+    private final double[] inDistances;
+    private final Edge[] inEdges;
+
+    // undirected neighbours along the lines (no duplicates, no walking)
+    private final int[] neighbourOffsets;   // size n+1
+    private final int[] neighbours;
+
+    private final double maxWalkingDistance;    // walking edges are precomputed up to this distance
+    private double walkingDistance = -1;        // current walking distance (-1 if no walking edges)
+    private int walkingEdgeCount = 0;           // current number of (directed) walking edges
+
+    /**
+     * Build the view from the stops, which must already be numbered 0..n-1 in this order.
+     * The forward and backward edges of the stops must not include any walking edges;
+     * the walking edges up to maxWalkingDistance are computed here.
+     * Initially, none of the walking edges are in use.
+     */
+    public CompactGraph(Collection<Stop> stopCollection, double maxWalkingDistance) {
+        this(stopCollection, maxWalkingDistance, findWalkingPairs(stopCollection, maxWalkingDistance));
+    }
+
+    /**
+     * Build the view using walking pairs that have already been found
+     * (eg, read from a GraphSnapshot); each pair must be at most maxWalkingDistance apart.
+     */
+    public CompactGraph(Collection<Stop> stopCollection, double maxWalkingDistance, WalkingPairs pairs) {
+        int n = stopCollection.size();
+        this.maxWalkingDistance = maxWalkingDistance;
+        stops = stopCollection.toArray(new Stop[n]);
+        for (int v = 0; v < n; v++) {
+            if (stops[v].getIndex() != v) {
+                throw new IllegalArgumentException("Stop " + stops[v].getId() + " has index " + stops[v].getIndex() + ", expected " + v);
+            }
+        }
+
+        int[] walkingDegree = new int[n];
+        for (int p = 0; p < pairs.count; p++) {
+            walkingDegree[pairs.first[p]]++;
+            walkingDegree[pairs.second[p]]++;
+        }
+
+        // lay out the rows: line edges, then room for all the walking edges
+        outOffsets = new int[n + 1];
+        inOffsets = new int[n + 1];
+        outWalkStarts = new int[n];
+        inWalkStarts = new int[n];
+        outEnds = new int[n];
+        inEnds = new int[n];
+        for (int v = 0; v < n; v++) {
+            outWalkStarts[v] = outOffsets[v] + stops[v].getForwardEdges().size();
+            outOffsets[v + 1] = outWalkStarts[v] + walkingDegree[v];
+            inWalkStarts[v] = inOffsets[v] + stops[v].getBackwardEdges().size();
+            inOffsets[v + 1] = inWalkStarts[v] + walkingDegree[v];
+        }
+        int m = outOffsets[n];
+        outTargets = new int[m];
+        outTimes = new double[m];
+        outDistances = new double[m];
+        outEdges = new Edge[m];
+        int mIn = inOffsets[n];
+        inSources = new int[mIn];
+        inTimes = new double[mIn];
+        inDistances = new double[mIn];
+        inEdges = new Edge[mIn];
+
+        // line edges
+        for (int v = 0; v < n; v++) {
+            int e = outOffsets[v];
+            for (Edge edge : stops[v].getForwardEdges()) {
+                outTargets[e] = edge.toStop().getIndex();
+                outTimes[e] = edge.time();
+                outDistances[e] = edge.distance();
+                outEdges[e] = edge;
+                e++;
+            }
+            e = inOffsets[v];
+            for (Edge edge : stops[v].getBackwardEdges()) {
+                inSources[e] = edge.fromStop().getIndex();
+                inTimes[e] = edge.time();
+                inDistances[e] = edge.distance();
+                inEdges[e] = edge;
+                e++;
+            }
+        }
+
+        // walking edges: an edge each way for every pair, then sort each row by distance
+        int[] outFill = outWalkStarts.clone();
+        int[] inFill = inWalkStarts.clone();
+        for (int p = 0; p < pairs.count; p++) {
+            int a = pairs.first[p];
+            int b = pairs.second[p];
+            double distance = pairs.distance[p];
+            double time = distance / Transport.WALKING_SPEED_MPS;
+            Edge ab = new Edge(stops[a], stops[b], Transport.WALKING, null, time, distance);
+            Edge ba = new Edge(stops[b], stops[a], Transport.WALKING, null, time, distance);
+            addWalk(outTargets, outTimes, outDistances, outEdges, outFill[a]++, b, time, distance, ab);
+            addWalk(outTargets, outTimes, outDistances, outEdges, outFill[b]++, a, time, distance, ba);
+            addWalk(inSources, inTimes, inDistances, inEdges, inFill[a]++, b, time, distance, ba);
+            addWalk(inSources, inTimes, inDistances, inEdges, inFill[b]++, a, time, distance, ab);
+        }
+        for (int v = 0; v < n; v++) {
+            sortByDistance(outTargets, outTimes, outDistances, outEdges, outWalkStarts[v], outOffsets[v + 1]);
+            sortByDistance(inSources, inTimes, inDistances, inEdges, inWalkStarts[v], inOffsets[v + 1]);
+        }
+        removeWalkingEdges();
+
+        // undirected neighbours: union of the forward targets and backward sources along lines,
+        // using a stamp per stop to drop duplicates (two passes: count, then fill)
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        neighbourOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            int count = 0;
+            for (int e = outOffsets[v]; e < outWalkStarts[v]; e++) {
+                if (mark[outTargets[e]] != v) { mark[outTargets[e]] = v; count++; }
+            }
+            for (int e = inOffsets[v]; e < inWalkStarts[v]; e++) {
+                if (mark[inSources[e]] != v) { mark[inSources[e]] = v; count++; }
+            }
+            neighbourOffsets[v + 1] = neighbourOffsets[v] + count;
+        }
+        Arrays.fill(mark, -1);
+        neighbours = new int[neighbourOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            int i = neighbourOffsets[v];
+            for (int e = outOffsets[v]; e < outWalkStarts[v]; e++) {
+                if (mark[outTargets[e]] != v) { mark[outTargets[e]] = v; neighbours[i++] = outTargets[e]; }
+            }
+            for (int e = inOffsets[v]; e < inWalkStarts[v]; e++) {
+                if (mark[inSources[e]] != v) { mark[inSources[e]] = v; neighbours[i++] = inSources[e]; }
+            }
+        }
+    }
+
+    /**
+     * Build the view from rows that were laid out before (read back from a GraphSnapshot),
+     * without finding, placing or sorting any edges. The arrays are used as they are.
+     * outEdges must hold the Edge of each line edge; the Edges of the walking edges are made here.
+     * inPartners gives, for each entry of the in rows, the entry of the out rows for the same edge
+     * (so an edge has one Edge object, as when the view is built from the stops).
+     * Initially, none of the walking edges are in use.
+     */
+    CompactGraph(Stop[] stops, double maxWalkingDistance,
+                 int[] outOffsets, int[] outWalkStarts, int[] outTargets, double[] outTimes, double[] outDistances, Edge[] outEdges,
+                 int[] inOffsets, int[] inWalkStarts, int[] inSources, double[] inTimes, double[] inDistances, int[] inPartners,
+                 int[] neighbourOffsets, int[] neighbours) {
+        int n = stops.length;
+        for (int v = 0; v < n; v++) {
+            if (stops[v].getIndex() != v) {
+                throw new IllegalArgumentException("Stop " + stops[v].getId() + " has index " + stops[v].getIndex() + ", expected " + v);
+            }
+        }
+        this.stops = stops;
+        this.maxWalkingDistance = maxWalkingDistance;
+        this.outOffsets = outOffsets;
+        this.outWalkStarts = outWalkStarts;
+        this.outTargets = outTargets;
+        this.outTimes = outTimes;
+        this.outDistances = outDistances;
+        this.outEdges = outEdges;
+        this.inOffsets = inOffsets;
+        this.inWalkStarts = inWalkStarts;
+        this.inSources = inSources;
+        this.inTimes = inTimes;
+        this.inDistances = inDistances;
+        this.inEdges = new Edge[inSources.length];
+        this.neighbourOffsets = neighbourOffsets;
+        this.neighbours = neighbours;
+        outEnds = new int[n];
+        inEnds = new int[n];
+
+        for (int v = 0; v < n; v++) {
+            for (int e = outWalkStarts[v]; e < outOffsets[v + 1]; e++) {
+                outEdges[e] = new Edge(stops[v], stops[outTargets[e]], Transport.WALKING, null, outTimes[e], outDistances[e]);
+            }
+        }
+        for (int e = 0; e < inEdges.length; e++) {
+            inEdges[e] = outEdges[inPartners[e]];
+        }
+        removeWalkingEdges();
+    }
+
+    private static void addWalk(int[] ends, double[] times, double[] distances, Edge[] edges,
+                                int e, int end, double time, double distance, Edge edge) {
+        ends[e] = end;
+        times[e] = time;
+        distances[e] = distance;
+        edges[e] = edge;
+    }
+
+    /** Insertion sort of entries from..to-1 of the parallel arrays by distance (the rows are short) */
+    private static void sortByDistance(int[] ends, double[] times, double[] distances, Edge[] edges, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int end = ends[i];
+            double time = times[i];
+            double distance = distances[i];
+            Edge edge = edges[i];
+            int j = i - 1;
+            while (j >= from && distances[j] > distance) {
+                ends[j + 1] = ends[j];
+                times[j + 1] = times[j];
+                distances[j + 1] = distances[j];
+                edges[j + 1] = edges[j];
+                j--;
+            }
+            ends[j + 1] = end;
+            times[j + 1] = time;
+            distances[j + 1] = distance;
+            edges[j + 1] = edge;
+        }
+    }
+
+    /** Find all the pairs of stops within walking distance (each pair once) */
+    private static WalkingPairs findWalkingPairs(Collection<Stop> stopCollection, double maxWalkingDistance) {
+        WalkingPairs pairs = new WalkingPairs();
+        if (maxWalkingDistance >= 0) {
+            new StopGrid(stopCollection, maxWalkingDistance).forEachPairWithin(maxWalkingDistance, pairs);
+        }
+        return pairs;
+    }
+
+    /**
+     * The pairs of stops (by index) within walking distance of each other, with their distances,
+     * in growable primitive arrays. Collects the pairs found by a StopGrid.
+     */
+    static class WalkingPairs implements StopGrid.PairVisitor {
+        int count = 0;
+        int[] first = new int[1024];
+        int[] second = new int[1024];
+        double[] distance = new double[1024];
+
+        public void visit(Stop stop1, Stop stop2, double dist) {
+            add(stop1.getIndex(), stop2.getIndex(), dist);
+        }
+
+        void add(int stop1, int stop2, double dist) {
+            if (count == first.length) {
+                first = Arrays.copyOf(first, count * 2);
+                second = Arrays.copyOf(second, count * 2);
+                distance = Arrays.copyOf(distance, count * 2);
+            }
+            first[count] = stop1;
+            second[count] = stop2;
+            distance[count] = dist;
+            count++;
+        }
+    }
+
+    //--------------------------------------------
+    //  Walking distance
+    //--------------------------------------------
+
+    /** The largest walking distance that this view has walking edges for */
+    public double getMaxWalkingDistance() {return maxWalkingDistance;}
+
+    /** The current walking distance, or -1 if there are no walking edges */
+    public double getWalkingDistance() {return walkingDistance;}
+
+    /** The current number of (directed) walking edges */
+    public int getWalkingEdgeCount() {return walkingEdgeCount;}
+
+    /**
+     * Use the walking edges that are at most walkingDistance long
+     * (which must not be more than getMaxWalkingDistance()).
+     * Only moves the end of each row: no edges are created or discarded.
+     */
+    public void setWalkingDistance(double walkingDistance) {
+        if (walkingDistance > maxWalkingDistance) {
+            throw new IllegalArgumentException("Walking distance " + walkingDistance + " is more than the precomputed " + maxWalkingDistance);
+        }
+        if (walkingDistance < 0) {
+            removeWalkingEdges();
+            return;
+        }
+        this.walkingDistance = walkingDistance;
+        int count = 0;
+        for (int v = 0; v < stops.length; v++) {
+            outEnds[v] = cutOff(outDistances, outWalkStarts[v], outOffsets[v + 1], walkingDistance);
+            inEnds[v] = cutOff(inDistances, inWalkStarts[v], inOffsets[v + 1], walkingDistance);
+            count += outEnds[v] - outWalkStarts[v];
+        }
+        walkingEdgeCount = count;
+    }
+
+    /** Stop using all the walking edges */
+    public void removeWalkingEdges() {
+        walkingDistance = -1;
+        walkingEdgeCount = 0;
+        System.arraycopy(outWalkStarts, 0, outEnds, 0, stops.length);
+        System.arraycopy(inWalkStarts, 0, inEnds, 0, stops.length);
+    }
+
+    /** Return the first index in from..to-1 whose distance is more than limit (binary search) */
+    private static int cutOff(double[] distances, int from, int to, double limit) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (distances[mid] <= limit) {low = mid + 1;}
+            else {high = mid;}
+        }
+        return low;
+    }
+
+    //--------------------------------------------
+    //  Stops
+    //--------------------------------------------
+
+    /** Number of stops in the view */
+    public int size() {return stops.length;}
+
+    /** The stop with the given id */
+    public Stop stop(int id) {return stops[id];}
+
+    //--------------------------------------------
+    //  Forward edges out of a stop (line edges, then the current walking edges)
+    //--------------------------------------------
+
+    public int firstOut(int v) {return outOffsets[v];}
+    public int firstWalkOut(int v) {return outWalkStarts[v];}
+    public int endOut(int v) {return outEnds[v];}
+    public int endAllOut(int v) {return outOffsets[v + 1];}      // end of the row, including walking edges beyond the current distance
+    public int outTarget(int e) {return outTargets[e];}
+    public double outTime(int e) {return outTimes[e];}
+    public double outDistance(int e) {return outDistances[e];}
+    public Edge outEdge(int e) {return outEdges[e];}
+
+    //--------------------------------------------
+    //  Backward edges into a stop (line edges, then the current walking edges)
+    //--------------------------------------------
+
+    public int firstIn(int v) {return inOffsets[v];}
+    public int firstWalkIn(int v) {return inWalkStarts[v];}
+    public int endIn(int v) {return inEnds[v];}
+    public int endAllIn(int v) {return inOffsets[v + 1];}
+    public int inSource(int e) {return inSources[e];}
+    public double inTime(int e) {return inTimes[e];}
+    public double inDistance(int e) {return inDistances[e];}
+    public Edge inEdge(int e) {return inEdges[e];}
+
+    //--------------------------------------------
+    //  Undirected neighbours of a stop (along lines only)
+    //--------------------------------------------
+
+    public int firstNeighbour(int v) {return neighbourOffsets[v];}
+    public int endNeighbour(int v) {return neighbourOffsets[v + 1];}
+    public int neighbour(int i) {return neighbours[i];}
+
+    //--------------------------------------------
+    //  Walking edges as Edge collections (for drawing and reporting)
+    //--------------------------------------------
+
+    /** The current walking edges out of stop v, nearest first */
+    public List<Edge> getWalkingEdgesOut(int v) {
+        return Collections.unmodifiableList(Arrays.asList(outEdges).subList(outWalkStarts[v], outEnds[v]));
+    }
+
+    /** The current walking edges into stop v, nearest first */
+    public List<Edge> getWalkingEdgesIn(int v) {
+        return Collections.unmodifiableList(Arrays.asList(inEdges).subList(inWalkStarts[v], inEnds[v]));
+    }
+
+    /** A (live) view of all the current walking edges */
+    public Collection<Edge> getWalkingEdges() {
+        return new AbstractCollection<Edge>() {
+            public int size() {return walkingEdgeCount;}
+            public Iterator<Edge> iterator() {
+                return new Iterator<Edge>() {
+                    int v = 0;
+                    int e = (stops.length > 0) ? outWalkStarts[0] : 0;
+                    public boolean hasNext() {
+                        while (v < stops.length && e >= outEnds[v]) {
+                            v++;
+                            if (v < stops.length) {e = outWalkStarts[v];}
+                        }
+                        return v < stops.length;
+                    }
+                    public Edge next() {
+                        if (!hasNext()) {throw new NoSuchElementException();}
+                        return outEdges[e++];
+                    }
+                };
+            }
+        };
+    }
+
+}
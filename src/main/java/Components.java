@@ -1,9 +1,5 @@
-import java.util.List;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
 
 //=============================================================================
 //   TODO   Finding Components
@@ -17,65 +13,88 @@ import java.util.HashSet;
 public class Components{
 
     // Use Kosaraju's algorithm.
-    // In the forward search, record which nodes are visited with a visited set.
-    // In the backward search, use the setSubGraphId and getSubGraphID methods
-    // on the stop to record the component (and whether the node has been visited
-    // during the backward search).
-    // Alternatively, during the backward pass, you could use a Map<Stop,Stop>
-    // to record the "root" node of each component, following the original version
-    // of Kosaraju's algorithm, but this is unnecessarily complex.
+    // Both searches run on the CompactGraph view of the graph.
+    // In the forward search, record which nodes are visited with a visited bitset,
+    // and record the nodes in the order they are finished.
+    // In the backward search, record the component of each node in an int array
+    // (-1 if the node has not been visited yet), and copy the components
+    // to the stops with setSubGraphId at the end.
+    // The depth first searches use an explicit stack (and the position reached in the
+    // edges of each node on the stack) so that long lines cannot overflow the call stack.
 
 
     public static void findComponents(Graph graph) {
         System.out.println("calling findComponents");
         graph.resetSubGraphIds();
-        graph.computeNeighbours();   // To ensure that all stops have a set of (undirected) neighbour stops
+        CompactGraph g = graph.getCompactGraph();
+        int n = g.size();
 
-        Set<Stop> visited = new HashSet<Stop>();
-        List<Stop> stack = new ArrayList<Stop>();
+        BitSet visited = new BitSet(n);
+        int[] finished = new int[n];        // nodes in order of finishing the forward search
+        int finishedCount = 0;
+        int[] stack = new int[n];
+        int[] nextEdge = new int[n];
 
-        for (Stop stop : graph.getStops()) {
-            if (!visited.contains(stop)) {
-                dfsForward(stop, visited, stack);
+        for (int root = 0; root < n; root++) {
+            if (!visited.get(root)) {
+                finishedCount = dfsForward(g, root, visited, stack, nextEdge, finished, finishedCount);
             }
         }
 
-        visited.clear();
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
         int subGraphId = 0;
-        for (int i = stack.size() - 1; i >= 0; i--) {
-            Stop stop = stack.get(i);
-            if (!visited.contains(stop)) {
-                dfsBackward(stop, visited, subGraphId);
+        for (int i = finishedCount - 1; i >= 0; i--) {
+            int root = finished[i];
+            if (component[root] < 0) {
+                dfsBackward(g, root, component, subGraphId, stack);
                 subGraphId++;
             }
         }
 
+        for (int v = 0; v < n; v++) {
+            g.stop(v).setSubGraphId(component[v]);
+        }
         graph.setSubGraphCount(subGraphId);
-
-
-        // finish and recheck!!!
     }
 
-    private static void dfsBackward(Stop stop, Set<Stop> visited, int subGraphId) {
-        visited.add(stop);
-        stop.setSubGraphId(subGraphId);
-        for (Edge edge : stop.getBackwardEdges()) {
-            Stop neighbour = edge.fromStop();
-            if (!visited.contains(neighbour)) {
-                dfsBackward(neighbour, visited, subGraphId);
+    private static void dfsBackward(CompactGraph g, int root, int[] component, int subGraphId, int[] stack) {
+        int top = 0;
+        stack[top++] = root;
+        component[root] = subGraphId;
+        while (top > 0) {
+            int node = stack[--top];
+            for (int e = g.firstIn(node); e < g.endIn(node); e++) {
+                int neighbour = g.inSource(e);
+                if (component[neighbour] < 0) {
+                    component[neighbour] = subGraphId;
+                    stack[top++] = neighbour;
+                }
             }
         }
     }
 
-    private static void dfsForward(Stop stop, Set<Stop> visited, List<Stop> stack) {
-        visited.add(stop);
-        for (Edge edge : stop.getForwardEdges()) {
-            Stop neighbour = edge.toStop();
-            if (!visited.contains(neighbour)) {
-                dfsForward(neighbour, visited, stack);
+    private static int dfsForward(CompactGraph g, int root, BitSet visited, int[] stack, int[] nextEdge,
+                                  int[] finished, int finishedCount) {
+        int top = 0;
+        stack[top++] = root;
+        visited.set(root);
+        nextEdge[root] = g.firstOut(root);
+        while (top > 0) {
+            int node = stack[top - 1];
+            if (nextEdge[node] < g.endOut(node)) {
+                int neighbour = g.outTarget(nextEdge[node]++);
+                if (!visited.get(neighbour)) {
+                    visited.set(neighbour);
+                    nextEdge[neighbour] = g.firstOut(neighbour);
+                    stack[top++] = neighbour;
+                }
+            } else {
+                top--;
+                finished[finishedCount++] = node;
             }
         }
-        stack.add(stop);
+        return finishedCount;
     }
 
 
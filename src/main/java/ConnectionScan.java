@@ -0,0 +1,426 @@
+import java.util.*;
+
+/**
+ * Timetable searches by the Connection Scan Algorithm (CSA): the trips of a Timetable are cut
+ * into connections (a trip going from one stop to the next), and all the connections are kept
+ * in one array sorted by departure time, in primitive columns. A search is a single scan
+ * along the array, with no priority queue.
+ *
+ * Earliest arrival (earliestArrivals(..), findJourney(..)):
+ *  scans forward from the first connection that leaves at or after the departure time; a
+ *  connection can be used if its trip has already been boarded, or the search has reached its
+ *  stop by the time it leaves, and then it may improve the arrival at its next stop. With a
+ *  target, the scan stops at the first connection that leaves after the best arrival at the target.
+ *
+ * Profile (findProfile(..)): all the best journeys from a source to a target leaving in a
+ *  range of times, as the Pareto set of (departure, arrival) pairs (no journey leaves later
+ *  and arrives earlier), in a single backward scan: for each connection, latest first, the
+ *  earliest arrival at the target if on it (stay on the trip, get off at the target, or get
+ *  off and take a later journey from there) is worked out from the best arrival of its trip
+ *  so far and the profiles of the stops after it; and that (departure, arrival) pair is added
+ *  to the profile of its stop if no pair there leaves later and arrives as early. Since the
+ *  pairs are added latest first, the profile of each stop is a stack with the departures and
+ *  arrivals both going down, and the best arrival for leaving a stop at a time is found by
+ *  binary search. The scan goes from the last connection of the day back to the first that
+ *  leaves in the range. The profiles of the stops cover all later departures (a journey may
+ *  wait past the end of the range once it has left), but the answer only compares the
+ *  journeys that leave in the range: each connection from the source, or from a stop a
+ *  footpath away, gives a (departure, arrival) pair if it leaves in the range, and the
+ *  Pareto set is taken of those.
+ *
+ * Footpaths are the current walking edges of the CompactGraph and the transfers of the
+ * timetable, and are used as in Raptor: a journey walks along at most one footpath between
+ * two trips (and at the start and end), and a change between trips at the same stop takes
+ * no time. The footpaths are not closed, so the earliest arrival at a stop by a trip is kept
+ * apart from the earliest arrival by any means. So the arrivals are the same as Raptor's with
+ * no limit on the number of trips.
+ *
+ * The connections do not change once built, and each thread has its own Scratch for the
+ * searches, so one ConnectionScan can be used by many threads at once (but not while the
+ * walking distance is being changed, see CompactGraph).
+ */
+
+public class ConnectionScan {
+
+    private static final int NONE = Integer.MAX_VALUE;      // arrival at a stop not reached
+
+    private final Timetable timetable;
+
+    // the connections, sorted by departure (then arrival, then trip and position)
+    private final int[] fromStops;
+    private final int[] toStops;
+    private final int[] departures;
+    private final int[] arrivals;
+    private final int[] trips;
+
+    private final int[] profileStarts;  // size stops+1: room for the profile of each stop (one pair per connection from it)
+
+    private final ThreadLocal<Scratch> scratch;
+
+    public ConnectionScan(Timetable timetable) {
+        long start = System.nanoTime();
+        this.timetable = timetable;
+        int count = 0;
+        for (int t = 0; t < timetable.tripCount(); t++) {count += timetable.routeLength(timetable.tripRoute(t)) - 1;}
+        Integer[] order = new Integer[count];
+        int[] tripOf = new int[count];
+        int[] positionOf = new int[count];
+        int c = 0;
+        for (int t = 0; t < timetable.tripCount(); t++) {
+            for (int p = 0; p + 1 < timetable.routeLength(timetable.tripRoute(t)); p++) {
+                order[c] = c;
+                tripOf[c] = t;
+                positionOf[c] = p;
+                c++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> {
+            int ta = tripOf[a], pa = positionOf[a], tb = tripOf[b], pb = positionOf[b];
+            int byDeparture = Integer.compare(timetable.departure(ta, pa), timetable.departure(tb, pb));
+            if (byDeparture != 0) {return byDeparture;}
+            int byArrival = Integer.compare(timetable.arrival(ta, pa + 1), timetable.arrival(tb, pb + 1));
+            if (byArrival != 0) {return byArrival;}
+            return (ta != tb) ? Integer.compare(ta, tb) : Integer.compare(pa, pb);
+        });
+        fromStops = new int[count];
+        toStops = new int[count];
+        departures = new int[count];
+        arrivals = new int[count];
+        trips = new int[count];
+        int n = timetable.getGraph().getCompactGraph().size();
+        profileStarts = new int[n + 1];
+        for (int i = 0; i < count; i++) {
+            int t = tripOf[order[i]];
+            int p = positionOf[order[i]];
+            int route = timetable.tripRoute(t);
+            fromStops[i] = timetable.routeStop(route, p);
+            toStops[i] = timetable.routeStop(route, p + 1);
+            departures[i] = timetable.departure(t, p);
+            arrivals[i] = timetable.arrival(t, p + 1);
+            trips[i] = t;
+            profileStarts[fromStops[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {profileStarts[v + 1] += profileStarts[v];}
+        scratch = ThreadLocal.withInitial(Scratch::new);
+        System.out.printf("Connections: %d, %.1f ms%n", count, (System.nanoTime() - start) / 1e6);
+    }
+
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    /** Number of connections */
+    public int size() {
+        return departures.length;
+    }
+
+    /** The arrays of a search (for one thread) */
+    private static class Scratch {
+        // earliest arrival
+        int[] arrivals = new int[0];            // earliest arrival at each stop
+        int[] tripArrivals = new int[0];        // earliest arrival at each stop on a trip
+        int[] alightings = new int[0];          // the connection of that arrival (-1 for the source)
+        int[] walkFrom = new int[0];            // the stop walked from, if the earliest arrival is on foot (-1 if not)
+        int[] boardings = new int[0];           // the connection each trip was boarded at (-1 if not boarded)
+        // profile
+        int[] tripBest = new int[0];            // earliest arrival at the target from each trip (after the connections scanned)
+        int[] walkFromSource = new int[0];      // time to walk from the source to each stop (NONE if not a footpath away)
+        int[] profileSizes = new int[0];        // number of pairs in the profile of each stop
+        int[] profileDepartures = new int[0];   // pairs of the profile of stop v from profileStarts[v], latest first
+        int[] profileArrivals = new int[0];
+
+        void ensureCapacity(int n, int tripCount, int connectionCount) {
+            if (arrivals.length < n) {
+                arrivals = new int[n];
+                tripArrivals = new int[n];
+                alightings = new int[n];
+                walkFrom = new int[n];
+                walkFromSource = new int[n];
+                profileSizes = new int[n];
+                Arrays.fill(walkFromSource, NONE);
+            }
+            if (boardings.length < tripCount) {
+                boardings = new int[tripCount];
+                tripBest = new int[tripCount];
+            }
+            if (profileDepartures.length < connectionCount) {
+                profileDepartures = new int[connectionCount];
+                profileArrivals = new int[connectionCount];
+            }
+        }
+    }
+
+    //-------------------------------------------------------
+    //  Earliest arrival
+    //-------------------------------------------------------
+
+    /**
+     * The earliest arrival at every stop (by its dense id) from source, leaving at or after
+     * departureTime (Integer.MAX_VALUE for stops not reached)
+     */
+    public int[] earliestArrivals(Stop source, int departureTime) {
+        Scratch s = scratch.get();
+        CompactGraph graph = timetable.getGraph().getCompactGraph();
+        scan(s, graph, source.getIndex(), -1, departureTime);
+        return Arrays.copyOf(s.arrivals, graph.size());
+    }
+
+    /**
+     * The journey from source to target, leaving at or after departureTime, that arrives
+     * earliest (null if the target cannot be reached)
+     */
+    public Journey findJourney(Stop source, Stop target, int departureTime) {
+        if (source == null || target == null) {return null;}
+        Scratch s = scratch.get();
+        CompactGraph graph = timetable.getGraph().getCompactGraph();
+        int goal = target.getIndex();
+        scan(s, graph, source.getIndex(), goal, departureTime);
+        if (s.arrivals[goal] == NONE) {return null;}
+        return journey(s, graph, source.getIndex(), goal, departureTime);
+    }
+
+    /** The earliest arrival at goal (-1 for all stops) from source leaving at departureTime, by a forward scan */
+    private void scan(Scratch s, CompactGraph graph, int source, int goal, int departureTime) {
+        int n = graph.size();
+        s.ensureCapacity(n, timetable.tripCount(), departures.length);
+        Arrays.fill(s.arrivals, 0, n, NONE);
+        Arrays.fill(s.tripArrivals, 0, n, NONE);
+        Arrays.fill(s.walkFrom, 0, n, -1);
+        Arrays.fill(s.boardings, 0, timetable.tripCount(), -1);
+        s.arrivals[source] = departureTime;
+        s.tripArrivals[source] = departureTime;
+        s.alightings[source] = -1;
+        walk(s, graph, source, departureTime);
+
+        for (int c = firstDeparture(departureTime); c < departures.length; c++) {
+            int departure = departures[c];
+            if (goal >= 0 && departure >= s.arrivals[goal]) {break;}
+            int trip = trips[c];
+            if (s.boardings[trip] < 0) {
+                if (s.arrivals[fromStops[c]] > departure) {continue;}
+                s.boardings[trip] = c;
+            }
+            int to = toStops[c];
+            int arrival = arrivals[c];
+            if (arrival < s.tripArrivals[to]) {
+                s.tripArrivals[to] = arrival;
+                s.alightings[to] = c;
+                if (arrival < s.arrivals[to]) {
+                    s.arrivals[to] = arrival;
+                    s.walkFrom[to] = -1;
+                }
+                walk(s, graph, to, arrival);
+            }
+        }
+    }
+
+    /** Follow the footpaths from stop v, reached on a trip (or the source) at time */
+    private void walk(Scratch s, CompactGraph graph, int v, int time) {
+        for (int e = graph.firstWalkOut(v); e < graph.endOut(v); e++) {
+            relaxWalk(s, v, graph.outTarget(e), time + (int) Math.ceil(graph.outTime(e)));
+        }
+        for (int j = timetable.firstTransfer(v); j < timetable.endTransfer(v); j++) {
+            relaxWalk(s, v, timetable.transferTarget(j), time + timetable.transferTime(j));
+        }
+    }
+
+    private static void relaxWalk(Scratch s, int from, int to, int arrival) {
+        if (arrival < s.arrivals[to]) {
+            s.arrivals[to] = arrival;
+            s.walkFrom[to] = from;
+        }
+    }
+
+    /** The first connection that leaves at or after time */
+    private int firstDeparture(int time) {
+        int low = 0;
+        int high = departures.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departures[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** The journey to stop v from the labels of the last scan */
+    private Journey journey(Scratch s, CompactGraph graph, int source, int v, int departureTime) {
+        LinkedList<Journey.Leg> legs = new LinkedList<Journey.Leg>();
+        while (v != source) {
+            int walkedFrom = s.walkFrom[v];
+            if (walkedFrom >= 0) {
+                legs.addFirst(new Journey.Leg(graph.stop(walkedFrom), graph.stop(v), s.tripArrivals[walkedFrom], s.arrivals[v], null, null));
+                v = walkedFrom;
+                if (v == source) {break;}
+            }
+            int alight = s.alightings[v];
+            int trip = trips[alight];
+            int board = s.boardings[trip];
+            int route = timetable.tripRoute(trip);
+            legs.addFirst(new Journey.Leg(graph.stop(fromStops[board]), graph.stop(v), departures[board], arrivals[alight],
+                                          timetable.tripId(trip), timetable.routeId(route)));
+            v = fromStops[board];
+        }
+        // leave the source as late as possible: end a first walk when the first trip leaves
+        if (legs.size() > 1 && legs.getFirst().isWalk()) {
+            Journey.Leg walk = legs.removeFirst();
+            int leave = legs.getFirst().getDeparture();
+            legs.addFirst(new Journey.Leg(walk.getFrom(), walk.getTo(), leave - (walk.getArrival() - walk.getDeparture()), leave, null, null));
+        }
+        return new Journey(legs);
+    }
+
+    //-------------------------------------------------------
+    //  Profile
+    //-------------------------------------------------------
+
+    /**
+     * The best journeys from source to target leaving between earliestDeparture and
+     * latestDeparture, as the Pareto set of (departure, arrival) pairs, earliest first:
+     * each pair is the latest time to leave the source for its arrival at the target
+     * (journeys that only walk are left out).
+     * The journey for a pair is findJourney(source, target, departure).
+     */
+    public Profile findProfile(Stop source, Stop target, int earliestDeparture, int latestDeparture) {
+        if (source == null || target == null || source == target) {return new Profile(new int[0], new int[0]);}
+        Scratch s = scratch.get();
+        CompactGraph graph = timetable.getGraph().getCompactGraph();
+        int n = graph.size();
+        int goal = target.getIndex();
+        s.ensureCapacity(n, timetable.tripCount(), departures.length);
+        Arrays.fill(s.profileSizes, 0, n, 0);
+        Arrays.fill(s.tripBest, 0, timetable.tripCount(), NONE);
+        int first = firstDeparture(earliestDeparture);
+        int start = source.getIndex();
+        s.walkFromSource[start] = 0;
+        for (int e = graph.firstWalkOut(start); e < graph.endOut(start); e++) {
+            int v = graph.outTarget(e);
+            s.walkFromSource[v] = Math.min(s.walkFromSource[v], (int) Math.ceil(graph.outTime(e)));
+        }
+        for (int j = timetable.firstTransfer(start); j < timetable.endTransfer(start); j++) {
+            int v = timetable.transferTarget(j);
+            s.walkFromSource[v] = Math.min(s.walkFromSource[v], timetable.transferTime(j));
+        }
+
+        List<int[]> pairs = new ArrayList<int[]>();      // (departure, arrival) of the journeys leaving in the range
+        for (int c = departures.length - 1; c >= first; c--) {
+            int to = toStops[c];
+            int arrival = arrivals[c];
+            int best = s.tripBest[trips[c]];                                    // stay on the trip
+            best = Math.min(best, (to == goal) ? arrival : profileAt(s, to, arrival));   // get off here
+            for (int e = graph.firstWalkOut(to); e < graph.endOut(to); e++) {   // get off and walk
+                best = Math.min(best, afterWalk(s, graph.outTarget(e), goal, arrival + (int) Math.ceil(graph.outTime(e))));
+            }
+            for (int j = timetable.firstTransfer(to); j < timetable.endTransfer(to); j++) {
+                best = Math.min(best, afterWalk(s, timetable.transferTarget(j), goal, arrival + timetable.transferTime(j)));
+            }
+            if (best == NONE) {continue;}
+            s.tripBest[trips[c]] = best;
+            addToProfile(s, fromStops[c], departures[c], best);
+            int walk = s.walkFromSource[fromStops[c]];
+            if (walk != NONE && departures[c] - walk >= earliestDeparture && departures[c] - walk <= latestDeparture) {
+                pairs.add(new int[] {departures[c] - walk, best});
+            }
+        }
+        s.walkFromSource[start] = NONE;
+        for (int e = graph.firstWalkOut(start); e < graph.endOut(start); e++) {s.walkFromSource[graph.outTarget(e)] = NONE;}
+        for (int j = timetable.firstTransfer(start); j < timetable.endTransfer(start); j++) {s.walkFromSource[timetable.transferTarget(j)] = NONE;}
+
+        // keep the Pareto set: going from the latest departure back, each pair must arrive earlier than all later ones
+        pairs.sort((a, b) -> (a[0] != b[0]) ? Integer.compare(a[0], b[0]) : Integer.compare(b[1], a[1]));
+        int count = 0;
+        int bestArrival = NONE;
+        for (int i = pairs.size() - 1; i >= 0; i--) {
+            if (pairs.get(i)[1] < bestArrival) {bestArrival = pairs.get(i)[1]; count++;}
+        }
+        int[] ansDepartures = new int[count];
+        int[] ansArrivals = new int[count];
+        bestArrival = NONE;
+        for (int i = pairs.size() - 1; i >= 0; i--) {
+            int[] pair = pairs.get(i);
+            if (pair[1] >= bestArrival) {continue;}
+            bestArrival = pair[1];
+            count--;
+            ansDepartures[count] = pair[0];
+            ansArrivals[count] = pair[1];
+        }
+        return new Profile(ansDepartures, ansArrivals);
+    }
+
+    /** The earliest arrival at the goal after walking to stop v, arriving at time */
+    private int afterWalk(Scratch s, int v, int goal, int time) {
+        return (v == goal) ? time : profileAt(s, v, time);
+    }
+
+    /** The earliest arrival at the target for being at stop v at time (boarding a trip there) */
+    private int profileAt(Scratch s, int v, int time) {
+        // the pairs of v are latest first, so the best one that leaves at or after time is the last such pair
+        int start = profileStarts[v];
+        int low = 0;
+        int high = s.profileSizes[v];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (s.profileDepartures[start + mid] >= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low == 0) ? NONE : s.profileArrivals[start + low - 1];
+    }
+
+    /** Add (departure, arrival) to the profile of stop v, unless a later pair arrives as early */
+    private void addToProfile(Scratch s, int v, int departure, int arrival) {
+        int start = profileStarts[v];
+        int size = s.profileSizes[v];
+        if (size > 0) {
+            int last = start + size - 1;
+            if (s.profileArrivals[last] <= arrival) {return;}
+            if (s.profileDepartures[last] == departure) {       // same departure, earlier arrival
+                s.profileArrivals[last] = arrival;
+                return;
+            }
+        }
+        s.profileDepartures[start + size] = departure;
+        s.profileArrivals[start + size] = arrival;
+        s.profileSizes[v] = size + 1;
+    }
+
+    /**
+     * The Pareto set of (departure, arrival) pairs of a profile, in order of departure
+     * (and so of arrival)
+     */
+    public static class Profile {
+        private final int[] departures;
+        private final int[] arrivals;
+
+        Profile(int[] departures, int[] arrivals) {
+            this.departures = departures;
+            this.arrivals = arrivals;
+        }
+
+        public int size() {return departures.length;}
+        public int getDeparture(int i) {return departures[i];}
+        public int getArrival(int i) {return arrivals[i];}
+
+        /** The earliest arrival for leaving at or after time (Integer.MAX_VALUE if none in the profile) */
+        public int arrivalFor(int time) {
+            int i = Arrays.binarySearch(departures, time);
+            if (i < 0) {i = -i - 1;}
+            while (i > 0 && departures[i - 1] == time) {i--;}
+            return (i < departures.length) ? arrivals[i] : NONE;
+        }
+
+        public String toString() {
+            StringBuilder ans = new StringBuilder("Profile:");
+            for (int i = 0; i < departures.length; i++) {
+                ans.append("\n  ").append(Timetable.formatTime(departures[i])).append(" -> ").append(Timetable.formatTime(arrivals[i]));
+            }
+            return ans.toString();
+        }
+    }
+
+}
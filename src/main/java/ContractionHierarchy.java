@@ -0,0 +1,712 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Contraction hierarchy over the edges of a CompactGraph (with the walking edges that are in
+ * use when it is built), for answering many shortest path queries on a graph that does not change.
+ *
+ * Building: the stops are contracted one at a time, least important first. Contracting a stop v
+ * removes it from the graph, adding a shortcut u -> w (with the cost of u -> v -> w) for each
+ * pair of its neighbours unless a witness search (a Dijkstra search from u that avoids v, cut off
+ * after WITNESS_SETTLE_LIMIT stops) finds another path from u to w that is no more expensive.
+ * A stop's importance is its edge difference (the shortcuts contracting it would add, less the
+ * edges it would remove) plus the number of its neighbours that have already been contracted
+ * (to spread the contraction over the graph).
+ * The build is done in rounds: each round contracts (in parallel) all the stops that are less
+ * important than all their neighbours, so no two of them are neighbours; the witness searches
+ * of a round avoid all the stops being contracted in that round, so they only use paths that
+ * are still there when the round is done. The importance of the neighbours of the contracted
+ * stops is then worked out again (also in parallel).
+ * The rank of a stop is the order in which it was contracted.
+ *
+ * Querying: every shortest path goes up the ranks and then down again, so the query is a
+ * Dijkstra search forward from the start along the upward edges and backward from the goal
+ * along the downward edges, each side stopping when its smallest key is at least the best path
+ * found through a stop reached by both. The shortcuts on the path are then unpacked (each one
+ * is stored as the two edges it replaces) into the edges of the graph.
+ *
+ * Each edge (of the graph or a shortcut) has an arc id: the ids of the edges of the graph are
+ * their indexes in the CompactGraph, and the shortcuts are numbered after them.
+ * The hierarchy does not change once built, so it can be used from any thread (each thread
+ * has its own search arrays, as for the Router).
+ *
+ * It can be written to a file and read back (see write(..) and read(..)); the file records a
+ * fingerprint of the edges of the compact graph and the cost, and is only used for a graph
+ * with the same edges.
+ */
+
+public class ContractionHierarchy {
+
+    private static final int MAGIC = 0x57544e43;      // "WTNC"
+    private static final int VERSION = 1;
+    private static final int END = 0x454e4421;        // "END!"
+
+    private static final int WITNESS_SETTLE_LIMIT = 500;   // stops settled by a witness search before giving up
+
+    private final CompactGraph graph;
+    private final Router.Cost cost;
+    private final long fingerprint;        // of the edges and the cost it was built for
+    private final int[] rank;              // order in which each stop was contracted
+
+    // upward arcs v -> w (rank[w] > rank[v]), in a row for each v
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upCosts;
+    private final int[] upArcs;
+
+    // downward arcs w -> v (rank[w] > rank[v]), in a row for each v (searched backward from the goal)
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downCosts;
+    private final int[] downArcs;
+
+    private final int originalArcs;        // arc ids below this are edges of the compact graph
+    private final int[] shortcutFirst;     // arc id of the first half of each shortcut
+    private final int[] shortcutSecond;    // arc id of the second half of each shortcut
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private ContractionHierarchy(CompactGraph graph, Router.Cost cost, long fingerprint, int[] rank,
+                                 int[] upOffsets, int[] upTargets, double[] upCosts, int[] upArcs,
+                                 int[] downOffsets, int[] downSources, double[] downCosts, int[] downArcs,
+                                 int originalArcs, int[] shortcutFirst, int[] shortcutSecond) {
+        this.graph = graph;
+        this.cost = cost;
+        this.fingerprint = fingerprint;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upCosts = upCosts;
+        this.upArcs = upArcs;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downCosts = downCosts;
+        this.downArcs = downArcs;
+        this.originalArcs = originalArcs;
+        this.shortcutFirst = shortcutFirst;
+        this.shortcutSecond = shortcutSecond;
+    }
+
+    public CompactGraph getCompactGraph() {
+        return graph;
+    }
+
+    public Router.Cost getCost() {
+        return cost;
+    }
+
+    /** Number of shortcuts added by the contraction */
+    public int getShortcutCount() {
+        return shortcutFirst.length;
+    }
+
+    /** The rank (order of contraction) of a stop */
+    public int getRank(Stop stop) {
+        return rank[stop.getIndex()];
+    }
+
+    //-------------------------------------------------------
+    //  Building
+    //-------------------------------------------------------
+
+    /**
+     * Build the contraction hierarchy for the edges of the compact graph that are in use
+     * (including the current walking edges), with the given cost.
+     */
+    public static ContractionHierarchy build(CompactGraph graph, Router.Cost cost) {
+        return new Builder(graph, cost).build();
+    }
+
+    /** The edges out of or into a stop during the contraction (parallel arrays, in no order) */
+    private static class Arcs {
+        int size = 0;
+        int[] nodes = new int[4];
+        double[] costs = new double[4];
+        int[] ids = new int[4];
+
+        int indexOf(int node) {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {return i;}
+            }
+            return -1;
+        }
+
+        void add(int node, double arcCost, int id) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            nodes[size] = node;
+            costs[size] = arcCost;
+            ids[size] = id;
+            size++;
+        }
+
+        void remove(int node) {
+            int i = indexOf(node);
+            if (i < 0) {return;}
+            size--;
+            nodes[i] = nodes[size];
+            costs[i] = costs[size];
+            ids[i] = ids[size];
+        }
+    }
+
+    /** The shortcuts that contracting a stop needs */
+    private static class Shortcuts {
+        int count = 0;
+        int[] from = new int[4];
+        int[] to = new int[4];
+        double[] costs = new double[4];
+        int[] first = new int[4];
+        int[] second = new int[4];
+
+        void add(int u, int w, double arcCost, int firstArc, int secondArc) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+                costs = Arrays.copyOf(costs, count * 2);
+                first = Arrays.copyOf(first, count * 2);
+                second = Arrays.copyOf(second, count * 2);
+            }
+            from[count] = u;
+            to[count] = w;
+            costs[count] = arcCost;
+            first[count] = firstArc;
+            second[count] = secondArc;
+            count++;
+        }
+    }
+
+    /** The arrays of a witness search, for one thread (the entries only count if stamped with the current search) */
+    private static class Witness {
+        int search = 0;
+        int[] stamps;
+        double[] costs;
+        final IndexedHeap heap = new IndexedHeap();
+
+        Witness(int n) {
+            stamps = new int[n];
+            costs = new double[n];
+            heap.ensureCapacity(n);
+        }
+
+        double cost(int node) {
+            return (stamps[node] == search) ? costs[node] : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    private static class Builder {
+        final CompactGraph graph;
+        final Router.Cost cost;
+        final int n;
+        final int originalArcs;
+        final Arcs[] outs;
+        final Arcs[] ins;
+        final int[] priority;
+        final int[] contractedNeighbours;
+        final int[] round;                 // round in which each stop is contracted (0 if not yet)
+        final int[] rank;
+        int shortcutCount = 0;
+        int[] shortcutFirst = new int[16];
+        int[] shortcutSecond = new int[16];
+        final ThreadLocal<Witness> witness;
+
+        Builder(CompactGraph graph, Router.Cost cost) {
+            this.graph = graph;
+            this.cost = cost;
+            n = graph.size();
+            originalArcs = (n == 0) ? 0 : graph.endAllOut(n - 1);
+            outs = new Arcs[n];
+            ins = new Arcs[n];
+            for (int v = 0; v < n; v++) {
+                outs[v] = new Arcs();
+                ins[v] = new Arcs();
+            }
+            priority = new int[n];
+            contractedNeighbours = new int[n];
+            round = new int[n];
+            rank = new int[n];
+            witness = ThreadLocal.withInitial(() -> new Witness(n));
+
+            // the edges in use, keeping only the cheapest edge from one stop to another
+            boolean byTime = (cost == Router.Cost.TIME);
+            for (int v = 0; v < n; v++) {
+                for (int e = graph.firstOut(v); e < graph.endOut(v); e++) {
+                    int w = graph.outTarget(e);
+                    if (w != v) {setArc(v, w, byTime ? graph.outTime(e) : graph.outDistance(e), e);}
+                }
+            }
+        }
+
+        /** Add an arc from u to w, or make the arc cheaper if there is already a more expensive one */
+        void setArc(int u, int w, double arcCost, int id) {
+            int i = outs[u].indexOf(w);
+            if (i < 0) {
+                outs[u].add(w, arcCost, id);
+                ins[w].add(u, arcCost, id);
+            } else if (arcCost < outs[u].costs[i]) {
+                outs[u].costs[i] = arcCost;
+                outs[u].ids[i] = id;
+                int j = ins[w].indexOf(u);
+                ins[w].costs[j] = arcCost;
+                ins[w].ids[j] = id;
+            }
+        }
+
+        ContractionHierarchy build() {
+            long start = System.nanoTime();
+            IntStream.range(0, n).parallel().forEach(v -> priority[v] = priorityOf(v));
+            int[] remaining = IntStream.range(0, n).toArray();
+            int nextRank = 0;
+            int rounds = 0;
+            while (remaining.length > 0) {
+                rounds++;
+                int thisRound = rounds;
+                // the stops less important than all their neighbours (no two of them are neighbours)
+                int[] selected = Arrays.stream(remaining).parallel().filter(this::isLocalMinimum).toArray();
+                for (int v : selected) {round[v] = thisRound;}
+                Shortcuts[] shortcuts = new Shortcuts[selected.length];
+                IntStream.range(0, selected.length).parallel().forEach(i -> shortcuts[i] = contractionShortcuts(selected[i], thisRound, true));
+
+                // contract them, collecting the neighbours whose importance will change
+                BitSet touched = new BitSet(n);
+                for (int i = 0; i < selected.length; i++) {
+                    int v = selected[i];
+                    rank[v] = nextRank++;
+                    for (int k = 0; k < outs[v].size; k++) {
+                        int w = outs[v].nodes[k];
+                        ins[w].remove(v);
+                        contractedNeighbours[w]++;
+                        touched.set(w);
+                    }
+                    for (int k = 0; k < ins[v].size; k++) {
+                        int u = ins[v].nodes[k];
+                        outs[u].remove(v);
+                        contractedNeighbours[u]++;
+                        touched.set(u);
+                    }
+                    Shortcuts s = shortcuts[i];
+                    for (int k = 0; k < s.count; k++) {
+                        setArc(s.from[k], s.to[k], s.costs[k], addShortcut(s.first[k], s.second[k]));
+                    }
+                }
+                touched.stream().parallel().filter(v -> round[v] == 0).forEach(v -> priority[v] = priorityOf(v));
+                remaining = Arrays.stream(remaining).filter(v -> round[v] == 0).toArray();
+            }
+            System.out.printf("Contraction hierarchy (%s): %d stops, %d shortcuts, %d rounds, %.1f ms%n",
+                              cost, n, shortcutCount, rounds, (System.nanoTime() - start) / 1e6);
+            return finish();
+        }
+
+        int addShortcut(int first, int second) {
+            if (shortcutCount == shortcutFirst.length) {
+                shortcutFirst = Arrays.copyOf(shortcutFirst, shortcutCount * 2);
+                shortcutSecond = Arrays.copyOf(shortcutSecond, shortcutCount * 2);
+            }
+            shortcutFirst[shortcutCount] = first;
+            shortcutSecond[shortcutCount] = second;
+            return originalArcs + shortcutCount++;
+        }
+
+        /** Is the stop less important than all its (uncontracted) neighbours? (ties broken by id) */
+        boolean isLocalMinimum(int v) {
+            for (int k = 0; k < outs[v].size; k++) {
+                if (moreImportant(v, outs[v].nodes[k])) {return false;}
+            }
+            for (int k = 0; k < ins[v].size; k++) {
+                if (moreImportant(v, ins[v].nodes[k])) {return false;}
+            }
+            return true;
+        }
+
+        boolean moreImportant(int v, int x) {
+            return priority[v] > priority[x] || (priority[v] == priority[x] && v > x);
+        }
+
+        /** Importance of a stop: edge difference plus the number of contracted neighbours */
+        int priorityOf(int v) {
+            int shortcuts = contractionShortcuts(v, -1, false).count;
+            return shortcuts - outs[v].size - ins[v].size + contractedNeighbours[v];
+        }
+
+        /**
+         * The shortcuts needed to contract stop v (only counted, not recorded, if collect is false).
+         * The witness searches avoid v and every stop contracted in the given round.
+         */
+        Shortcuts contractionShortcuts(int v, int avoidRound, boolean collect) {
+            Shortcuts ans = new Shortcuts();
+            Arcs in = ins[v];
+            Arcs out = outs[v];
+            if (in.size == 0 || out.size == 0) {return ans;}
+            double maxOut = 0;
+            for (int j = 0; j < out.size; j++) {maxOut = Math.max(maxOut, out.costs[j]);}
+            Witness wt = witness.get();
+            for (int i = 0; i < in.size; i++) {
+                int u = in.nodes[i];
+                double toV = in.costs[i];
+                witnessSearch(wt, u, v, avoidRound, toV + maxOut);
+                for (int j = 0; j < out.size; j++) {
+                    int w = out.nodes[j];
+                    if (w == u) {continue;}
+                    double via = toV + out.costs[j];
+                    if (wt.cost(w) > via) {
+                        if (collect) {ans.add(u, w, via, in.ids[i], out.ids[j]);}
+                        else {ans.count++;}
+                    }
+                }
+            }
+            return ans;
+        }
+
+        /** Dijkstra search from u, avoiding v and the stops of the round, up to maxCost or the settle limit */
+        void witnessSearch(Witness wt, int u, int v, int avoidRound, double maxCost) {
+            wt.search++;
+            wt.heap.clear();
+            wt.stamps[u] = wt.search;
+            wt.costs[u] = 0;
+            wt.heap.add(u, 0);
+            int settled = 0;
+            while (!wt.heap.isEmpty() && wt.heap.minKey() <= maxCost && settled < WITNESS_SETTLE_LIMIT) {
+                int x = wt.heap.poll();
+                settled++;
+                double costToX = wt.costs[x];
+                Arcs out = outs[x];
+                for (int k = 0; k < out.size; k++) {
+                    int y = out.nodes[k];
+                    if (y == v || (avoidRound > 0 && round[y] == avoidRound)) {continue;}
+                    double c = costToX + out.costs[k];
+                    if (wt.stamps[y] != wt.search) {
+                        wt.stamps[y] = wt.search;
+                        wt.costs[y] = c;
+                        wt.heap.add(y, c);
+                    } else if (c < wt.costs[y]) {
+                        // only stops still in the heap can get cheaper (the costs are not negative)
+                        wt.costs[y] = c;
+                        wt.heap.decreaseKey(y, c);
+                    }
+                }
+            }
+        }
+
+        /** Put the arcs left at each stop when it was contracted into the upward and downward rows */
+        ContractionHierarchy finish() {
+            int[] upOffsets = new int[n + 1];
+            int[] downOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + outs[v].size;
+                downOffsets[v + 1] = downOffsets[v] + ins[v].size;
+            }
+            int[] upTargets = new int[upOffsets[n]];
+            double[] upCosts = new double[upOffsets[n]];
+            int[] upArcs = new int[upOffsets[n]];
+            int[] downSources = new int[downOffsets[n]];
+            double[] downCosts = new double[downOffsets[n]];
+            int[] downArcs = new int[downOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(outs[v].nodes, 0, upTargets, upOffsets[v], outs[v].size);
+                System.arraycopy(outs[v].costs, 0, upCosts, upOffsets[v], outs[v].size);
+                System.arraycopy(outs[v].ids, 0, upArcs, upOffsets[v], outs[v].size);
+                System.arraycopy(ins[v].nodes, 0, downSources, downOffsets[v], ins[v].size);
+                System.arraycopy(ins[v].costs, 0, downCosts, downOffsets[v], ins[v].size);
+                System.arraycopy(ins[v].ids, 0, downArcs, downOffsets[v], ins[v].size);
+            }
+            return new ContractionHierarchy(graph, cost, fingerprint(graph, cost), rank,
+                                            upOffsets, upTargets, upCosts, upArcs,
+                                            downOffsets, downSources, downCosts, downArcs,
+                                            originalArcs, Arrays.copyOf(shortcutFirst, shortcutCount),
+                                            Arrays.copyOf(shortcutSecond, shortcutCount));
+        }
+    }
+
+    //-------------------------------------------------------
+    //  Queries
+    //-------------------------------------------------------
+
+    /** The state of the two searches of a query, for one thread (as in Router) */
+    private static class Scratch {
+        int generation = 0;
+        int[] reachedUp = new int[0], reachedDown = new int[0];
+        double[] costsUp = new double[0], costsDown = new double[0];
+        int[] arcUp = new int[0], arcDown = new int[0];     // arc used to reach each stop (-1 at the ends)
+        int[] fromUp = new int[0], fromDown = new int[0];   // stop it was reached from
+        final IndexedHeap heapUp = new IndexedHeap();
+        final IndexedHeap heapDown = new IndexedHeap();
+
+        void start(int n) {
+            if (reachedUp.length < n) {
+                reachedUp = new int[n];
+                reachedDown = new int[n];
+                costsUp = new double[n];
+                costsDown = new double[n];
+                arcUp = new int[n];
+                arcDown = new int[n];
+                fromUp = new int[n];
+                fromDown = new int[n];
+                heapUp.ensureCapacity(n);
+                heapDown.ensureCapacity(n);
+                generation = 0;
+            }
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(reachedUp, 0);
+                Arrays.fill(reachedDown, 0);
+                generation = 0;
+            }
+            generation++;
+            heapUp.clear();
+            heapDown.clear();
+        }
+    }
+
+    /**
+     * Return the cost of the shortest path from start to goal
+     * (infinite if there is no path)
+     */
+    public double findShortestCost(Stop start, Stop goal) {
+        Scratch s = scratch.get();
+        int meeting = search(s, start.getIndex(), goal.getIndex());
+        return (meeting < 0) ? Double.POSITIVE_INFINITY : s.costsUp[meeting] + s.costsDown[meeting];
+    }
+
+    /**
+     * Find the shortest path from start to goal, as a list of edges of the graph
+     * (empty if start is goal), or null if there is no path.
+     */
+    public List<Edge> findShortestPath(Stop start, Stop goal) {
+        if (start == null || goal == null) {return null;}
+        Scratch s = scratch.get();
+        int meeting = search(s, start.getIndex(), goal.getIndex());
+        if (meeting < 0) {return null;}
+        List<Edge> path = new ArrayList<Edge>();
+        // arcs from the start up to the meeting stop (found backwards), then down to the goal
+        int[] upward = new int[16];
+        int count = 0;
+        for (int v = meeting; s.arcUp[v] >= 0; v = s.fromUp[v]) {
+            if (count == upward.length) {upward = Arrays.copyOf(upward, count * 2);}
+            upward[count++] = s.arcUp[v];
+        }
+        for (int i = count - 1; i >= 0; i--) {unpack(upward[i], path);}
+        for (int v = meeting; s.arcDown[v] >= 0; v = s.fromDown[v]) {unpack(s.arcDown[v], path);}
+        return path;
+    }
+
+    /**
+     * The two upward searches; returns the stop at which the best path goes from the one
+     * to the other (-1 if there is no path)
+     */
+    private int search(Scratch s, int start, int goal) {
+        s.start(rank.length);
+        int gen = s.generation;
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        s.reachedUp[start] = gen;
+        s.costsUp[start] = 0;
+        s.arcUp[start] = -1;
+        s.heapUp.add(start, 0);
+        s.reachedDown[goal] = gen;
+        s.costsDown[goal] = 0;
+        s.arcDown[goal] = -1;
+        s.heapDown.add(goal, 0);
+        if (start == goal) {
+            best = 0;
+            meeting = start;
+        }
+        while (true) {
+            boolean up = !s.heapUp.isEmpty() && s.heapUp.minKey() < best;
+            boolean down = !s.heapDown.isEmpty() && s.heapDown.minKey() < best;
+            if (!up && !down) {break;}
+            if (up && down) {up = s.heapUp.minKey() <= s.heapDown.minKey();}
+            if (up) {
+                int v = s.heapUp.poll();
+                if (s.reachedDown[v] == gen && s.costsUp[v] + s.costsDown[v] < best) {
+                    best = s.costsUp[v] + s.costsDown[v];
+                    meeting = v;
+                }
+                for (int k = upOffsets[v]; k < upOffsets[v + 1]; k++) {
+                    relax(s.heapUp, s.reachedUp, s.costsUp, s.arcUp, s.fromUp, gen, upTargets[k], s.costsUp[v] + upCosts[k], upArcs[k], v);
+                }
+            } else {
+                int v = s.heapDown.poll();
+                if (s.reachedUp[v] == gen && s.costsUp[v] + s.costsDown[v] < best) {
+                    best = s.costsUp[v] + s.costsDown[v];
+                    meeting = v;
+                }
+                for (int k = downOffsets[v]; k < downOffsets[v + 1]; k++) {
+                    relax(s.heapDown, s.reachedDown, s.costsDown, s.arcDown, s.fromDown, gen, downSources[k], s.costsDown[v] + downCosts[k], downArcs[k], v);
+                }
+            }
+        }
+        return meeting;
+    }
+
+    private static void relax(IndexedHeap heap, int[] reached, double[] costs, int[] arcs, int[] from,
+                              int gen, int node, double c, int arc, int previous) {
+        if (reached[node] != gen) {
+            reached[node] = gen;
+            costs[node] = c;
+            arcs[node] = arc;
+            from[node] = previous;
+            heap.add(node, c);
+        } else if (c < costs[node]) {
+            costs[node] = c;
+            arcs[node] = arc;
+            from[node] = previous;
+            heap.decreaseKey(node, c);
+        }
+    }
+
+    /** Add the edges of the graph that an arc stands for to the path, in order */
+    private void unpack(int arc, List<Edge> path) {
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.pop();
+            if (a < originalArcs) {
+                path.add(graph.outEdge(a));
+            } else {
+                stack.push(shortcutSecond[a - originalArcs]);
+                stack.push(shortcutFirst[a - originalArcs]);
+            }
+        }
+    }
+
+    //-------------------------------------------------------
+    //  Reading and writing
+    //-------------------------------------------------------
+
+    /**
+     * A checksum of the edges in use in the compact graph (their indexes, ends and costs)
+     * and the cost, to check that a hierarchy read from a file is for the same graph
+     */
+    public static long fingerprint(CompactGraph graph, Router.Cost cost) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[24];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(graph.size()).putInt(cost.ordinal());
+        crc.update(bytes, 0, 8);
+        boolean byTime = (cost == Router.Cost.TIME);
+        for (int v = 0; v < graph.size(); v++) {
+            for (int e = graph.firstOut(v); e < graph.endOut(v); e++) {
+                buffer.clear();
+                buffer.putInt(e).putInt(graph.outTarget(e)).putDouble(byTime ? graph.outTime(e) : graph.outDistance(e)).putInt(v);
+                crc.update(bytes, 0, 20);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Write the hierarchy to a file.
+     * Format (big-endian): MAGIC, VERSION, fingerprint (long), cost, number of stops,
+     *   rank of each stop, upward rows (offsets, then target, cost, arc of each arc),
+     *   downward rows (the same, with sources), number of original arcs,
+     *   number of shortcuts, then (first, second) of each shortcut, END
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(cost.ordinal());
+            out.writeInt(rank.length);
+            for (int r : rank) {out.writeInt(r);}
+            writeRows(out, upOffsets, upTargets, upCosts, upArcs);
+            writeRows(out, downOffsets, downSources, downCosts, downArcs);
+            out.writeInt(originalArcs);
+            out.writeInt(shortcutFirst.length);
+            for (int i = 0; i < shortcutFirst.length; i++) {
+                out.writeInt(shortcutFirst[i]);
+                out.writeInt(shortcutSecond[i]);
+            }
+            out.writeInt(END);
+        }
+    }
+
+    private static void writeRows(DataOutputStream out, int[] offsets, int[] ends, double[] costs, int[] arcs) throws IOException {
+        for (int offset : offsets) {out.writeInt(offset);}
+        for (int k = 0; k < ends.length; k++) {
+            out.writeInt(ends[k]);
+            out.writeDouble(costs[k]);
+            out.writeInt(arcs[k]);
+        }
+    }
+
+    /**
+     * Read a hierarchy for the compact graph and cost from a file.
+     * Returns null if the file does not exist, has the wrong format or version,
+     * or was built for different edges or a different cost.
+     */
+    public static ContractionHierarchy read(File file, CompactGraph graph, Router.Cost cost) throws IOException {
+        if (!file.exists()) {return null;}
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                System.out.println("Contraction hierarchy " + file + " has the wrong format or version");
+                return null;
+            }
+            long fingerprint = fingerprint(graph, cost);
+            if (in.getLong() != fingerprint || in.getInt() != cost.ordinal() || in.getInt() != graph.size()) {
+                System.out.println("Contraction hierarchy " + file + " is for a different graph");
+                return null;
+            }
+            int n = graph.size();
+            int[] rank = new int[n];
+            for (int v = 0; v < n; v++) {rank[v] = in.getInt();}
+            int[] upOffsets = readOffsets(in, n);
+            int[] upTargets = new int[upOffsets[n]];
+            double[] upCosts = new double[upOffsets[n]];
+            int[] upArcs = new int[upOffsets[n]];
+            readRows(in, upTargets, upCosts, upArcs);
+            int[] downOffsets = readOffsets(in, n);
+            int[] downSources = new int[downOffsets[n]];
+            double[] downCosts = new double[downOffsets[n]];
+            int[] downArcs = new int[downOffsets[n]];
+            readRows(in, downSources, downCosts, downArcs);
+            int originalArcs = in.getInt();
+            int[] shortcutFirst = new int[in.getInt()];
+            int[] shortcutSecond = new int[shortcutFirst.length];
+            for (int i = 0; i < shortcutFirst.length; i++) {
+                shortcutFirst[i] = in.getInt();
+                shortcutSecond[i] = in.getInt();
+            }
+            if (in.getInt() != END) {
+                System.out.println("Contraction hierarchy " + file + " is incomplete");
+                return null;
+            }
+            return new ContractionHierarchy(graph, cost, fingerprint, rank,
+                                            upOffsets, upTargets, upCosts, upArcs,
+                                            downOffsets, downSources, downCosts, downArcs,
+                                            originalArcs, shortcutFirst, shortcutSecond);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            System.out.println("Contraction hierarchy " + file + " is broken: " + e);
+            return null;
+        }
+    }
+
+    private static int[] readOffsets(MappedByteBuffer in, int n) {
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v <= n; v++) {offsets[v] = in.getInt();}
+        return offsets;
+    }
+
+    private static void readRows(MappedByteBuffer in, int[] ends, double[] costs, int[] arcs) {
+        for (int k = 0; k < ends.length; k++) {
+            ends[k] = in.getInt();
+            costs[k] = in.getDouble();
+            arcs[k] = in.getInt();
+        }
+    }
+
+}
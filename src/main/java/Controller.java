@@ -1,5 +1,6 @@
 /** Top level program controlling the interface */
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Point2D;
 import javafx.scene.control.Button;
@@ -16,10 +17,17 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 
 import javafx.beans.value.ObservableValue;
 import javafx.event.*;
@@ -61,6 +69,8 @@ public class Controller {
     @FXML
     private Button articulationPoints_bt;
     @FXML
+    private Button isochrone_bt;
+    @FXML
     private Slider walkingDistance_sl;
     @FXML
     private TextField walkingDistance_tf;
@@ -72,6 +82,7 @@ public class Controller {
 
 
     private static final int STOP_SIZE = 5; // drawing size of stops
+    private static final int MAX_SUGGESTIONS = 100; // most stop names to list while typing a stop name
 
     // used for A*
     private Stop startLocation;
@@ -86,21 +97,79 @@ public class Controller {
     // List of edges forming a path to be displayed 
     private List<Edge> pathEdges = null;
 
+    // stops to draw while the rest of the graph is still loading (null once the graph is in)
+    private Collection<Stop> loadingStops = null;
+
+    // isochrone: stops coloured by the travel time to them from one stop (one search for all of them)
+    private static final double[] ISOCHRONE_BANDS = {20*60, 40*60, 60*60};   // upper ends of the bands (seconds)
+    private static final Color[] ISOCHRONE_COLORS = {Color.LIMEGREEN, Color.GOLD, Color.DARKORANGE};
+    private Stop isochroneStop = null;        // stop the isochrone is from (null if none is shown)
+    private double[] isochroneCosts = null;   // travel time from isochroneStop to each stop (by index)
+    private double isochroneWalking;          // walking distance when isochroneCosts was worked out
+
     // set up connections between the buttons and the methods
     public void initialize() {
 
         // load the input files
-        Map<String, Stop> stopMap = loadStops(new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/stops.txt"));
-        Collection<Line> lines = loadLines(new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/lines.txt"), stopMap);
-        Collection<Transfer> transfers = loadTransfers(new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/transfers.txt"), stopMap);
-
-        this.graph = new Graph(stopMap.values(), lines, transfers);
-        System.out.println("Loaded Graph Data");
-        
-        this.zoneData = new Zoning(new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2/src/data/WellingtonZones.csv"));
-        System.out.println("Loaded Zone Data");
+        File stopsFile = new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/stops.txt");
+        File linesFile = new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/lines.txt");
+        File transfersFile = new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2 Challenge/src/data/transfers.txt");
+        File snapshotFile = new File(stopsFile.getParentFile(), "graph.snapshot");
+        File zonesFile = new File("/Users/hamishburke/Desktop/Uni/Year 2/COMP261/Assignment 2/COMPAssignment2/src/data/WellingtonZones.csv");
+
+        // Load in the background, so the window shows straight away, and draw each part
+        // of the map (zones, then stops, then edges) on the JavaFX thread as it arrives.
+        long startTime = System.nanoTime();
+        Executor executor = startupExecutor();
+
+        CompletableFuture<Zoning> zones = CompletableFuture.supplyAsync(() -> {
+            Zoning zoning = timed("zones", () -> new Zoning(zonesFile));
+            timed("zone index", zoning::getIndex);
+            return zoning;
+        }, executor);
+        zones.thenAccept(zoning -> Platform.runLater(() -> {
+            this.zoneData = zoning;
+            System.out.println("Loaded Zone Data");
+            drawGraph(graph);
+        }));
 
-        drawGraph(graph);
+        CompletableFuture<Graph> graphLoaded = loadGraphAsync(stopsFile, linesFile, transfersFile, snapshotFile, executor,
+            stops -> Platform.runLater(() -> {
+                if (graph == null) {
+                    loadingStops = stops;
+                    drawGraph(graph);
+                }
+            }));
+        graphLoaded.thenAccept(loaded -> Platform.runLater(() -> {
+            this.graph = loaded;
+            loadingStops = null;
+            System.out.println("Loaded Graph Data");
+            drawGraph(graph);
+        }));
+
+        // build the indexes for finding stops by name and by location in the background
+        // (a search that comes first builds the one it needs)
+        CompletableFuture<Graph> indexes = graphLoaded.thenApplyAsync(
+            loaded -> timed("indexes", () -> {loaded.buildIndexes(); return loaded;}), executor);
+
+        // once both are in, work out the fare zone of each stop
+        CompletableFuture<Void> stopZones = zones.thenAcceptBothAsync(graphLoaded,
+            (zoning, loaded) -> timed("stop zones", () -> {
+                zoning.getIndex().assignZones(loaded.getStops());
+                return loaded;
+            }), executor);
+
+        CompletableFuture.allOf(zones, graphLoaded, indexes, stopZones).whenComplete((result, failure) -> {
+            if (failure != null) {
+                Throwable cause = (failure instanceof CompletionException && failure.getCause() != null) ? failure.getCause() : failure;
+                System.out.println("Loading the data failed: " + cause);
+                cause.printStackTrace();
+                // tell the user on the JavaFX thread (without the graph, every handler does nothing)
+                Platform.runLater(() -> lineText.setText("Loading the data failed: " + cause
+                    + ((graph == null) ? "\nThe map cannot be used: check the data files and restart." : "")));
+            }
+            System.out.printf("Startup: %.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+        });
     }
 
     // get scale
@@ -152,21 +221,52 @@ public class Controller {
     
     // Key typing event for the Start bus stop
     public void handleStartKey(KeyEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Look up event " + event.getEventType() + "  " + ((TextField) event.getSource()).getText());
         String searchString = ((TextField) event.getSource()).getText();
         // Display the stops that match in the lineText area to help typing
-        lineText.setText(stopNames(graph.getAllMatchingStops(searchString)));
+        lineText.setText(matchingStopNames(searchString));
         event.consume();
     }
 
     // Key typing event for the Goal bus stop
     public void handleGoalKey(KeyEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Look up event " + event.getEventType() + "  " + ((TextField) event.getSource()).getText());
         String searchString = ((TextField) event.getSource()).getText();
         // Display the stops that match in the lineText area to help typing
-        lineText.setText(stopNames(graph.getAllMatchingStops(searchString)));
+        lineText.setText(matchingStopNames(searchString));
         event.consume();
     }
+    /**
+     * Build a string containing the names of the (first MAX_SUGGESTIONS) stops that match
+     * the search string, saying how many more there are
+     */
+    public String matchingStopNames(String searchString) {
+        int count = graph.countMatchingStops(searchString);
+        if (count == 0) {
+            // no name starts with the search string: it may be mistyped, so list the closest names
+            List<Stop> close = graph.getFuzzyMatchingStops(searchString, MAX_SUGGESTIONS);
+            return close.isEmpty() ? "" : "Did you mean:\n" + stopNames(close);
+        }
+        String names = stopNames(graph.getAllMatchingStops(searchString, MAX_SUGGESTIONS));
+        int more = count - MAX_SUGGESTIONS;
+        return (more > 0) ? names + "... and " + more + " more" : names;
+    }
+
+    /**
+     * Find the stop for a search string: the first stop whose name starts with it,
+     * or else the closest fuzzy match (for mistyped names)
+     */
+    public Stop findStop(String search) {
+        Stop stop = graph.getFirstMatchingStop(search);
+        if (stop == null) {
+            List<Stop> close = graph.getFuzzyMatchingStops(search, 1);
+            if (!close.isEmpty()) {stop = close.get(0);}
+        }
+        return stop;
+    }
+
     /** Build a string containing the names of the stops in the given list */
     public String stopNames(List<Stop> listOfStops) {
         StringBuilder names = new StringBuilder("");
@@ -176,13 +276,15 @@ public class Controller {
 
     // When enter is pressed in text field perform an A* search
     public void handleStartAction(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Look up event " + event.getEventType() + "  " + ((TextField) event.getSource()).getText());
         String search = ((TextField) event.getSource()).getText();
         // set the start search location
-        startLocation = graph.getFirstMatchingStop(search);
+        startLocation = findStop(search);
+        clearStaleIsochrone();
 
         // perform A* search and get the path edges
-        pathEdges = AStar.findShortestPath(startLocation, goalLocation, "distance");
+        pathEdges = AStar.findShortestPath(graph, startLocation, goalLocation, "distance");
 
         drawGraph(graph); //update the graph
         event.consume();
@@ -190,12 +292,14 @@ public class Controller {
 
     // When enter is pressed perform an A* search using the Goal as the destination
     public void handleGoalAction(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Look up event " + event.getEventType() + "  " + ((TextField) event.getSource()).getText());
         String search = ((TextField) event.getSource()).getText();
         // set the goal search location
-        goalLocation = graph.getFirstMatchingStop(search);
+        goalLocation = findStop(search);
+        clearStaleIsochrone();
         // perform A* search and get the path edges
-        pathEdges = AStar.findShortestPath( startLocation, goalLocation, "distance");
+        pathEdges = AStar.findShortestPath(graph, startLocation, goalLocation, "distance");
 
         drawGraph(graph);// update the graph
         event.consume();
@@ -203,10 +307,12 @@ public class Controller {
 
     // handleShowConnectedComponents
     public void handleShowConnectedComponents(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Show connected components event " + event.getEventType());
         //INFO : This is where your find component code is called
         highlightNodes.clear();
         pathEdges = null;
+        clearIsochrone();
         Components.findComponents(graph);
         System.out.println("findComponents -> SubGraphCount: "+graph.getSubGraphCount());
         drawGraph(graph);
@@ -216,9 +322,11 @@ public class Controller {
 
     // handleShowArticulationPoints
     public void handleShowArticulationPoints(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Show articulation points event " + event.getEventType());
         //INFO : This is where your articulation points code is called
         pathEdges = null;
+        clearIsochrone();
         graph.resetSubGraphIds();
         walkingDistance_sl.setValue(0.0);
         walkingDistance_tf.setText("0.0");
@@ -227,18 +335,92 @@ public class Controller {
         drawGraph(graph);
     }
 
+    // handleShowIsochrone colours the stops by travel time from the start stop (or the goal if there is no start)
+    // pressing it again for the same stop turns the isochrone off
+    public void handleShowIsochrone(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
+        System.out.println("Show isochrone event " + event.getEventType());
+        Stop from = isochroneSource();
+        if (from == null || from == isochroneStop) {
+            clearIsochrone();
+            drawGraph(graph);
+            return;
+        }
+        isochroneStop = from;
+        isochroneCosts = null;
+        pathEdges = null;
+        highlightNodes.clear();
+        highlightNodes.add(from);
+        drawGraph(graph);   // works out the travel times
+    }
+
+    private void clearIsochrone() {
+        isochroneStop = null;
+        isochroneCosts = null;
+    }
+
+    // the stop an isochrone is shown from: the start stop, or the goal if there is no start
+    private Stop isochroneSource() {
+        return (startLocation != null) ? startLocation : goalLocation;
+    }
+
+    // turn the isochrone off if the start (or goal) it was shown from has changed
+    private void clearStaleIsochrone() {
+        if (isochroneStop != null && isochroneStop != isochroneSource()) {clearIsochrone();}
+    }
+
+    // (re)compute the travel times from isochroneStop if they are missing or the walking distance has changed
+    private void updateIsochrone() {
+        if (isochroneStop == null) {return;}
+        if (isochroneCosts == null || isochroneWalking != graph.getWalkingDistance()) {
+            long start = System.nanoTime();
+            isochroneWalking = graph.getWalkingDistance();
+            isochroneCosts = AStar.findCostsFrom(graph, isochroneStop, "time", ISOCHRONE_BANDS[ISOCHRONE_BANDS.length-1]);
+            System.out.printf("Isochrone from %s in %.1f ms%n", isochroneStop.getName(), (System.nanoTime() - start) / 1e6);
+            lineText.setText(isochroneReport());
+        }
+    }
+
+    // colour of a stop in the isochrone, by its travel time (light grey if it is beyond the last band)
+    private static Color isochroneColor(double time) {
+        for (int i = 0; i < ISOCHRONE_BANDS.length; i++) {
+            if (time <= ISOCHRONE_BANDS[i]) {return ISOCHRONE_COLORS[i];}
+        }
+        return Color.LIGHTGRAY;
+    }
+
+    // number of stops in each band of the isochrone
+    private String isochroneReport() {
+        int[] counts = new int[ISOCHRONE_BANDS.length];
+        for (double time : isochroneCosts) {
+            for (int i = 0; i < ISOCHRONE_BANDS.length; i++) {
+                if (time <= ISOCHRONE_BANDS[i]) {counts[i]++; break;}
+            }
+        }
+        StringBuilder report = new StringBuilder("ISOCHRONE from ").append(isochroneStop.getName()).append("\n");
+        int within = 0;
+        for (int i = 0; i < ISOCHRONE_BANDS.length; i++) {
+            within += counts[i];
+            report.append(String.format("%d stops within %d min (%d more)\n", within, (int) (ISOCHRONE_BANDS[i] / 60), counts[i]));
+        }
+        return report.toString();
+    }
+
     // handleAddWalking calls the code to add Walking
     public void handleAddWalking(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         System.out.println("Add walking event " + walking_ch.isSelected());
-        graph.removeWalkingEdges();
         if (walking_ch.isSelected()) {
-            graph.recomputeWalkingEdges(Double.parseDouble(walkingDistance_tf.getText()));
+            graph.setWalkingDistance(Double.parseDouble(walkingDistance_tf.getText()));
+        } else {
+            graph.removeWalkingEdges();
         }
         drawGraph(graph);
     }
 
     // This handles entering distance in the walking text field and sets the slider
     public void handleWalkingDistance(ActionEvent event) {
+        if (graph == null) {return;}   // still loading
         // divide the text value by four so the slider is 0 - 400
         String distStr = walkingDistance_tf.getText();
         double dist = 0;        
@@ -246,25 +428,18 @@ public class Controller {
         catch (Exception e){walkingDistance_tf.setText("0");}
         System.out.println("Setting walking distance (in tf) to " + dist);
         walkingDistance_sl.setValue(dist/4.0);
-        graph.resetSubGraphIds();
-        graph.removeWalkingEdges();
-        if (dist>0){
-            graph.recomputeWalkingEdges(dist);
-        } 
+        graph.setWalkingDistance(dist);   // only moves the cut-off of the precomputed walking edges
         drawGraph(graph);
     }
 
     // This handles entering distance on the walking slider and sets the text field
     public void handleWalkingDistanceSlider(ObservableValue<Double> ovn, Double before, Double after) {
+        if (graph == null) {return;}   // still loading
         // multiply the slider value by four so the text field is 0 - 400
         double dist = Math.round(ovn.getValue()*4.0);
         walkingDistance_tf.setText(Double.toString(dist));
         System.out.println("Setting walking distance (on slider) to " + dist);
-        graph.resetSubGraphIds();
-        graph.removeWalkingEdges();
-        if (dist>0){
-            graph.recomputeWalkingEdges(dist);
-        } 
+        graph.setWalkingDistance(dist);   // only moves the cut-off of the precomputed walking edges
         drawGraph(graph);
     }
 
@@ -311,6 +486,7 @@ public class Controller {
      * select the node closest to the click
      */
     public void handleMouseClick(MouseEvent event) {
+        if (graph == null) {return;}   // still loading
         if (dragActive) {
             dragActive = false;
             return;
@@ -337,9 +513,10 @@ public class Controller {
             goalLocation = closestStop;
             // shortest path planning
         }
+        clearStaleIsochrone();
         if (startLocation != null && closestStop != startLocation) {
             // INFO: This is where your find path code is called during clicking
-            pathEdges = AStar.findShortestPath(startLocation, goalLocation,"distance");
+            pathEdges = AStar.findShortestPath(graph, startLocation, goalLocation, "distance");
         }
         drawGraph(graph);
         event.consume();
@@ -347,25 +524,13 @@ public class Controller {
 
     /**
      * Find the closest stop to the given location
+     * (using the KD-tree of the graph, or a scan of all the stops while the tree is being built)
      * @param loc
      * @param graph
      * @return
      */
     public Stop findClosestStop(GisPoint loc, Graph graph) {
-        double minDist = Double.MAX_VALUE;
-        Stop closestStop = null;
-        // This is slow but could be faster if you use a quadtree or KD tree
-        for (Stop stop : graph.getStops()) {
-            double dist = stop.distanceTo(loc);
-            if (dist < minDist) {
-                minDist = dist;
-                closestStop = stop;
-            };
-        }
-        if (closestStop != null) {
-            return closestStop;
-        }
-        return null;
+        return graph.getNearestStop(loc);
     }
 
     // 
@@ -387,7 +552,13 @@ public class Controller {
         gc.clearRect(0, 0, mapCanvas.getWidth(), mapCanvas.getHeight());
         drawFareZones(gc);
 
-        if (graph == null) {return;}
+        if (graph == null) {
+            // still loading: draw the stops that are in so far
+            if (loadingStops != null) {
+                for (Stop stop : loadingStops) {drawStop(stop, STOP_SIZE, Color.BLUE);}
+            }
+            return;
+        }
 
         // draw all the edges
         for (Edge edge : graph.getEdges()){
@@ -413,11 +584,14 @@ public class Controller {
             subGraphColors[i]= Color.hsb((180.0 + (i*360.0/numSubGraphs)) % 360, 1, 1);
         }
 
+        updateIsochrone();
         for(Stop stop : graph.getStops()) {
             int size = STOP_SIZE;
             Color color;
             if (highlightNodes.contains(stop)) {
                 drawStop(stop, STOP_SIZE*2, Color.RED);
+            } else if (isochroneCosts != null) {
+                drawStop(stop, STOP_SIZE, isochroneColor(isochroneCosts[stop.getIndex()]));
             } else {
                 drawStop(stop, STOP_SIZE, (numSubGraphs==0? Color.BLUE : subGraphColors[stop.getSubGraphId()]));
             }
@@ -474,6 +648,7 @@ public class Controller {
      * This show the outline of Wellington.
      */
     public void drawFareZones(GraphicsContext gc) {
+        if (zoneData == null) {return;}   // not loaded yet
         gc.setFill(Color.LIGHTBLUE);
         gc.setStroke(Color.LIGHTBLUE);
         gc.setLineWidth(1);
@@ -518,124 +693,100 @@ public class Controller {
 
 
     //-------------------------------------------------------
-    //  methodes to load Stop and Line data from files
+    //  methodes to load Stop and Line data from files (see FeedLoader)
     //-------------------------------------------------------
 
-    /** Load the stop data from the stop file
-     * file contains:
-     *     stop_id, stop_code, stop_name, stop_desc,
-     *     stop_lat, stop_lon, zone_id, location_type,
-     *     parent_station, stop_url, stop_timezone
+    /**
+     * Load the graph from the snapshot file, if it was made from the current versions of
+     * the stops, lines and transfers files.
+     * Otherwise, build the graph from those files and write a new snapshot for next time.
      */
-    public static Map<String, Stop> loadStops(File stopsFile) {
-        Map<String, Stop> stops = new HashMap<String, Stop>();
+    public static Graph loadGraph(File stopsFile, File linesFile, File transfersFile, File snapshotFile) {
+        return loadGraphAsync(stopsFile, linesFile, transfersFile, snapshotFile, Runnable::run, null).join();
+    }
 
+    /**
+     * Load the graph as a pipeline of stages on the executor, as for loadGraph:
+     * if there is no up to date snapshot, the stops are loaded first, then the lines and
+     * the transfers are loaded in parallel, and the graph is built when both are in.
+     * onStops (if not null) is given the stops as soon as they are loaded (eg, to draw them).
+     * The snapshot is written after the returned future completes, on the executor.
+     * Prints the time of each stage.
+     */
+    public static CompletableFuture<Graph> loadGraphAsync(File stopsFile, File linesFile, File transfersFile, File snapshotFile,
+                                                          Executor executor, Consumer<Collection<Stop>> onStops) {
+        CompletableFuture<Long> checksum = CompletableFuture.supplyAsync(
+            () -> timed("checksum", () -> GraphSnapshot.checksum(stopsFile, linesFile, transfersFile)), executor);
+        return checksum.thenComposeAsync(sum -> {
+            Graph snapshot = timed("snapshot", () -> readSnapshot(snapshotFile, sum));
+            if (snapshot != null) {
+                return CompletableFuture.completedFuture(snapshot);
+            }
+            FeedLoader loader = new FeedLoader();
+            CompletableFuture<Map<String, Stop>> stops = CompletableFuture.supplyAsync(
+                () -> timed("stops", () -> loader.loadStops(stopsFile)), executor);
+            if (onStops != null) {
+                stops.thenAccept(stopMap -> onStops.accept(stopMap.values()));
+            }
+            CompletableFuture<Collection<Line>> lines = stops.thenApplyAsync(
+                stopMap -> timed("lines", () -> loader.loadLines(linesFile)), executor);
+            CompletableFuture<Collection<Transfer>> transfers = stops.thenApplyAsync(
+                stopMap -> timed("transfers", () -> loader.loadTransfers(transfersFile)), executor);
+            CompletableFuture<Graph> graph = lines.thenCombineAsync(transfers,
+                (lineList, transferList) -> timed("graph", () -> new Graph(stops.join().values(), lineList, transferList)), executor);
+            graph.thenAcceptAsync(built -> timed("write snapshot", () -> writeSnapshot(built, snapshotFile, sum)), executor);
+            return graph;
+        }, executor);
+    }
+
+    private static Graph readSnapshot(File snapshotFile, long checksum) {
         try {
-            List<String> dataLines = Files.readAllLines(stopsFile.toPath());
-            dataLines.remove(0);// throw away the top line of the file
-            for (String dataLine : dataLines){
-                // tokenise the dataLine by splitting it on tabs
-                String[] tokens = dataLine.split("\t");
-                if (tokens.length >= 6) {
-                    // process the tokens
-                    String stopId = tokens[0];
-                    String stopName = tokens[2];
-                    double lat = Double.valueOf(tokens[4]);
-                    double lon = Double.valueOf(tokens[5]);
-                    stops.put(stopId, new Stop(lon, lat, stopName, stopId));
-                }
+            Graph graph = GraphSnapshot.read(snapshotFile, checksum);
+            if (graph != null) {
+                System.out.println("Loaded graph from snapshot " + snapshotFile);
             }
-            System.out.println("Loaded "+ stops.size()+" stops");
+            return graph;
         } catch (IOException e) {
-            throw new RuntimeException("Reading the stops file failed.");
+            System.out.println("Reading the snapshot failed: " + e);
+            return null;
         }
-        return stops;
     }
 
-    /** Load the line data from the lines file
-     * File contains: line_id, stop_id, timepoint
-     * Uses the stopMap to turn the stop_id's into Stops
-     */
-    public static Collection<Line> loadLines(File lineFile, Map<String, Stop> stopMap) {
-        if (stopMap.isEmpty()){
-            throw new RuntimeException("loadLines given an empty stopMap.");
-        }
-        Map<String, Line> lineMap = new HashMap<String, Line>();
+    private static boolean writeSnapshot(Graph graph, File snapshotFile, long checksum) {
         try {
-            System.out.println("Reading data from: "+lineFile);
-            List<String> dataLines = Files.readAllLines(lineFile.toPath());
-            dataLines.remove(0); //throw away the top line of the file.
-            for (String dataLine : dataLines){// read in each line of the file
-                // tokenise the line by splitting it on tabs".
-                String[] tokens = dataLine.split("\t");
-                if (tokens.length >= 3) {
-                    // process the tokens
-                    String lineId = tokens[0];
-                    Line line = lineMap.get(lineId);
-                    if (line == null) {
-                        System.out.println("Loading line: "+lineId);
-                        line = new Line(lineId);
-                        lineMap.put(lineId, line);
-                    }
-                    int time = Integer.parseInt(tokens[2]);
-                    String stopId = tokens[1];
-                    Stop stop = stopMap.get(stopId);
-                    if (stop==null){
-                        System.out.println("Line "+lineId+" has unknown stop "+stopId+" at "+time);
-                    }
-                    else {
-                        line.addStop(stop, time);
-                        stop.addLine(line);
-                    }
-                }
-                else {
-                    System.out.println("Line file has broken entry: "+dataLine);
-                }
-                    
-            }
-            System.out.println("Loaded "+ lineMap.size()+" lines");
-        } catch (IOException e) {throw new RuntimeException("Loading the lines file failed.");}
-        return lineMap.values();
+            GraphSnapshot.write(graph, snapshotFile, checksum);
+            System.out.println("Wrote graph snapshot " + snapshotFile);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Writing the snapshot failed: " + e);
+            return false;
+        }
     }
 
-    /** Load the transfers data from the transfers file
-     * File contains: from_stop_id,to_stop_id,transfer_type,min_transfer_time,from_trip_id,to_trip_id
-     * Uses the stopMap to turn the stop_id's into Stops
-     */
-    public static Collection<Transfer> loadTransfers(File transfersFile, Map<String, Stop> stopMap) {
-        if (stopMap.isEmpty()) {throw new RuntimeException("loadTransfers given an empty stopMap.");}
-        // check if the transfers file exists
-        if (!transfersFile.exists()) {
-            System.out.println("No transfers file found.");
-            return new HashSet<Transfer>();
-        }
-        Collection<Transfer> transfers = new HashSet<Transfer>();
-        try {
-            System.out.println("Reading data from: " + transfersFile);
-            List<String> dataLines = Files.readAllLines(transfersFile.toPath());
-            dataLines.remove(0); //throw away the top line of the file.
-            for (String dataLine : dataLines) {// read in each line of the file
-                // tokenise the line by splitting it on tabs".
-                String[] tokens = dataLine.split(",");
-                if (tokens.length >= 4) {
-                    // process the tokens
-                    String fromStopId = tokens[0];
-                    String toStopId = tokens[1];
-                    int time = Integer.parseInt(tokens[3]);
-                    int transferType = Integer.parseInt(tokens[2]);
-                    Stop fromStop = stopMap.get(fromStopId);
-                    Stop toStop = stopMap.get(toStopId);
-                    Transfer transfer = new Transfer(transferType, time, fromStop, toStop);
-                    transfers.add(transfer);
-                } else {
-                    System.out.println("Transfers file has broken entry: " + dataLine);
-                }
+    /** Run one stage of the loading, printing how long it took */
+    private static <T> T timed(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        T result = work.get();
+        System.out.printf("  %s: %.1f ms (%s)%n", stage, (System.nanoTime() - start) / 1e6, Thread.currentThread().getName());
+        return result;
+    }
 
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Loading the transfers file failed.");
-        }
-        return transfers;
+    /**
+     * A small pool for loading the data: at most three stages are independent at once
+     * (zones, lines, transfers). The threads are daemons and stop once they have been idle
+     * for a second, so the pool needs no shutdown (the snapshot may still be being written
+     * after the graph is shown).
+     */
+    private static Executor startupExecutor() {
+        int threads = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), task -> {
+                Thread thread = new Thread(task, "loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
 }
@@ -7,6 +7,8 @@
  * distance is the distance along the edge.
  * This could almost be a record class, but making the toString() efficient requires
  *  caching the string in a field that is not a parameter of the constructor.
+ * The string is only made the first time it is asked for: most edges (eg, the walking edges,
+ *  or all of them when the graph is read from a snapshot) are never printed.
  */
 
 public class Edge {
@@ -20,7 +22,7 @@ public class Edge {
     private final double time; // in seconds between the two stops of the edge
     private final double distance; // distance between the two stops of the edge
 
-    private final String toString;   // compute the string representation just once.
+    private String toString = null;   // compute the string representation just once (when first needed).
 
     // Challenge
     private Transfer transfer = null;
@@ -32,11 +34,6 @@ public class Edge {
         this.line = line;
         this.time = time;
         this.distance = distance;
-        this.toString = "FROM " +
-            fromStop.getName() + "(" + fromStop.getId()+")  TO "+
-            toStop.getName() + "(" + toStop.getId()+")  BY "+transpType+
-            ((line!=null)?("(" + line.getId()+")"):"")+
-            "  " + ((int)time) + "s/" + ((int)distance)+"m";
     }
 
     // todo add getters and setters
@@ -48,7 +45,17 @@ public class Edge {
     public double time() {return time;}
     public double distance() {return distance;}
 
-    public String toString() {return this.toString;}
+    // Strings are immutable, so if two threads make the string at once, either copy will do
+    public String toString() {
+        if (toString == null) {
+            toString = "FROM " +
+                fromStop.getName() + "(" + fromStop.getId()+")  TO "+
+                toStop.getName() + "(" + toStop.getId()+")  BY "+transpType+
+                ((line!=null)?("(" + line.getId()+")"):"")+
+                "  " + ((int)time) + "s/" + ((int)distance)+"m";
+        }
+        return toString;
+    }
 
     public void addTransfer(Transfer transfer) {this.transfer = transfer;}
 
@@ -0,0 +1,299 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Loads the data files of the network (stops, lines, transfers, trips, stop_times and
+ * stop_pattern_trips) with a streaming FeedReader, so that the fields are parsed in place
+ * instead of splitting every line of the file into Strings.
+ *
+ * The ids in the files are interned into IdDictionarys that are shared between the files:
+ *   stop ids (stops.txt, lines.txt, transfers.txt, stop_times.txt),
+ *   line / stop pattern ids (lines.txt, stop_pattern_trips.txt),
+ *   trip ids (trips.txt, stop_times.txt, stop_pattern_trips.txt),
+ *   route and service ids (trips.txt).
+ * The stops file must be loaded first, since the other files refer to the stops.
+ * After that, loadLines and loadTransfers only read the stop ids and Stops (and each
+ * writes only its own dictionary), so the two can run in parallel on different threads.
+ * The timetable files are returned as tables of primitive columns, indexed by row,
+ * with the ids as dictionary ids.
+ */
+
+public class FeedLoader {
+
+    private final IdDictionary stopIds = new IdDictionary();
+    private final IdDictionary lineIds = new IdDictionary();
+    private final IdDictionary tripIds = new IdDictionary();
+    private final IdDictionary routeIds = new IdDictionary();
+    private final IdDictionary serviceIds = new IdDictionary();
+
+    private Stop[] stopsById = new Stop[0];     // Stop of each stop dictionary id
+
+    public IdDictionary getStopIds() {return stopIds;}
+    public IdDictionary getLineIds() {return lineIds;}
+    public IdDictionary getTripIds() {return tripIds;}
+    public IdDictionary getRouteIds() {return routeIds;}
+    public IdDictionary getServiceIds() {return serviceIds;}
+
+    /** The Stop with the given stop dictionary id (null if the id was not in the stops file) */
+    public Stop getStop(int stopId) {
+        return (stopId >= 0 && stopId < stopsById.length) ? stopsById[stopId] : null;
+    }
+
+    //-------------------------------------------------------
+    //  Stops, lines and transfers
+    //-------------------------------------------------------
+
+    /** Load the stop data from the stop file
+     * file contains (tab separated):
+     *     stop_id, stop_code, stop_name, stop_desc,
+     *     stop_lat, stop_lon, zone_id, location_type,
+     *     parent_station, stop_url, stop_timezone
+     */
+    public Map<String, Stop> loadStops(File stopsFile) {
+        Map<String, Stop> stops = new HashMap<String, Stop>();
+        FeedReader reader = new FeedReader(stopsFile, '\t');
+        int idCol = reader.requiredColumn("stop_id");
+        int nameCol = reader.requiredColumn("stop_name");
+        int latCol = reader.requiredColumn("stop_lat");
+        int lonCol = reader.requiredColumn("stop_lon");
+        int descCol = reader.column("stop_desc");      // optional
+        int minFields = Math.max(Math.max(idCol, nameCol), Math.max(latCol, lonCol)) + 1;
+        List<Stop> byId = new ArrayList<Stop>();
+        while (reader.next()) {
+            if (reader.fieldCount() < minFields) {continue;}
+            int id = reader.intern(idCol, stopIds);
+            Stop stop = new Stop(reader.getDouble(lonCol), reader.getDouble(latCol), reader.getString(nameCol), stopIds.get(id));
+            if (!reader.isEmpty(descCol)) {stop.setDesc(reader.getString(descCol));}
+            while (byId.size() <= id) {byId.add(null);}
+            byId.set(id, stop);
+            stops.put(stop.getId(), stop);
+        }
+        stopsById = byId.toArray(new Stop[0]);
+        System.out.println("Loaded "+ stops.size()+" stops");
+        return stops;
+    }
+
+    /**
+     * Use stops that have already been loaded (eg, the stops of a Graph read from a snapshot)
+     * instead of loading the stops file, so that the other files refer to those Stops.
+     */
+    public void useStops(Collection<Stop> stops) {
+        List<Stop> byId = new ArrayList<Stop>(Arrays.asList(stopsById));
+        for (Stop stop : stops) {
+            int id = stopIds.intern(stop.getId());
+            while (byId.size() <= id) {byId.add(null);}
+            byId.set(id, stop);
+        }
+        stopsById = byId.toArray(new Stop[0]);
+    }
+
+    /** Load the line data from the lines file
+     * File contains (tab separated): line_id, stop_id, time_from_start
+     * The stop_ids are looked up in the stops that have been loaded.
+     */
+    public Collection<Line> loadLines(File lineFile) {
+        if (stopsById.length == 0){
+            throw new RuntimeException("loadLines called before the stops were loaded.");
+        }
+        List<Line> lines = new ArrayList<Line>();
+        List<Line> linesById = new ArrayList<Line>();     // Line of each line dictionary id
+        System.out.println("Reading data from: "+lineFile);
+        FeedReader reader = new FeedReader(lineFile, '\t');
+        int lineCol = reader.requiredColumn("line_id");
+        int stopCol = reader.requiredColumn("stop_id");
+        int timeCol = reader.requiredColumn("time_from_start");
+        int minFields = Math.max(lineCol, Math.max(stopCol, timeCol)) + 1;
+        while (reader.next()) {
+            if (reader.fieldCount() < minFields) {
+                System.out.println("Line file has broken entry at line " + reader.lineNumber());
+                continue;
+            }
+            int lineId = reader.intern(lineCol, lineIds);
+            while (linesById.size() <= lineId) {linesById.add(null);}
+            Line line = linesById.get(lineId);
+            if (line == null) {
+                line = new Line(lineIds.get(lineId));
+                linesById.set(lineId, line);
+                lines.add(line);
+            }
+            int time = reader.getInt(timeCol);
+            Stop stop = getStop(reader.lookup(stopCol, stopIds));
+            if (stop == null) {
+                System.out.println("Line "+line.getId()+" has unknown stop "+reader.getString(stopCol)+" at "+time);
+            }
+            else {
+                line.addStop(stop, time);
+                stop.addLine(line);
+            }
+        }
+        System.out.println("Loaded "+ lines.size()+" lines");
+        return lines;
+    }
+
+    /** Load the transfers data from the transfers file
+     * File contains (comma separated): from_stop_id,to_stop_id,transfer_type,min_transfer_time,from_trip_id,to_trip_id
+     * The stop_ids are looked up in the stops that have been loaded
+     *  (the stops of the transfer are null if they are not known).
+     */
+    public Collection<Transfer> loadTransfers(File transfersFile) {
+        if (stopsById.length == 0) {throw new RuntimeException("loadTransfers called before the stops were loaded.");}
+        // check if the transfers file exists
+        if (!transfersFile.exists()) {
+            System.out.println("No transfers file found.");
+            return new HashSet<Transfer>();
+        }
+        Collection<Transfer> transfers = new HashSet<Transfer>();
+        System.out.println("Reading data from: " + transfersFile);
+        FeedReader reader = new FeedReader(transfersFile, ',');
+        int fromCol = reader.requiredColumn("from_stop_id");
+        int toCol = reader.requiredColumn("to_stop_id");
+        int typeCol = reader.requiredColumn("transfer_type");
+        int timeCol = reader.requiredColumn("min_transfer_time");
+        int minFields = Math.max(Math.max(fromCol, toCol), Math.max(typeCol, timeCol)) + 1;
+        while (reader.next()) {
+            if (reader.fieldCount() < minFields) {
+                System.out.println("Transfers file has broken entry at line " + reader.lineNumber());
+                continue;
+            }
+            Stop fromStop = getStop(reader.lookup(fromCol, stopIds));
+            Stop toStop = getStop(reader.lookup(toCol, stopIds));
+            int time = reader.isEmpty(timeCol) ? 0 : reader.getInt(timeCol);
+            transfers.add(new Transfer(reader.getInt(typeCol), time, fromStop, toStop));
+        }
+        return transfers;
+    }
+
+    //-------------------------------------------------------
+    //  Timetable files
+    //-------------------------------------------------------
+
+    /** The rows of trips.txt: the trip of each row is its trip dictionary id */
+    public static class Trips {
+        public int size;
+        public int[] trip;          // trip dictionary id
+        public int[] route;         // route dictionary id
+        public int[] service;       // service dictionary id
+        public int[] direction;     // direction_id (0 or 1; -1 if missing)
+    }
+
+    /** The rows of stop_times.txt */
+    public static class StopTimes {
+        public int size;
+        public int[] trip;          // trip dictionary id
+        public int[] stop;          // stop dictionary id (the rows with unknown stops are left out)
+        public int[] arrival;       // seconds after midnight
+        public int[] departure;     // seconds after midnight
+        public int[] sequence;      // stop_sequence
+    }
+
+    /** The rows of stop_pattern_trips.txt */
+    public static class PatternTrips {
+        public int size;
+        public int[] pattern;       // line / stop pattern dictionary id
+        public int[] trip;          // trip dictionary id
+        public int[] sequence;      // trip_sequence
+    }
+
+    /** Load trips.txt (comma separated): route_id,service_id,trip_id,trip_headsign,direction_id,... */
+    public Trips loadTrips(File tripsFile) {
+        FeedReader reader = new FeedReader(tripsFile, ',');
+        int routeCol = reader.requiredColumn("route_id");
+        int serviceCol = reader.requiredColumn("service_id");
+        int tripCol = reader.requiredColumn("trip_id");
+        int directionCol = reader.column("direction_id");
+        Trips trips = new Trips();
+        int capacity = 1024;
+        trips.trip = new int[capacity];
+        trips.route = new int[capacity];
+        trips.service = new int[capacity];
+        trips.direction = new int[capacity];
+        while (reader.next()) {
+            if (reader.isEmpty(tripCol)) {continue;}
+            if (trips.size == capacity) {
+                capacity *= 2;
+                trips.trip = Arrays.copyOf(trips.trip, capacity);
+                trips.route = Arrays.copyOf(trips.route, capacity);
+                trips.service = Arrays.copyOf(trips.service, capacity);
+                trips.direction = Arrays.copyOf(trips.direction, capacity);
+            }
+            int row = trips.size++;
+            trips.trip[row] = reader.intern(tripCol, tripIds);
+            trips.route[row] = reader.intern(routeCol, routeIds);
+            trips.service[row] = reader.intern(serviceCol, serviceIds);
+            trips.direction[row] = reader.isEmpty(directionCol) ? -1 : reader.getInt(directionCol);
+        }
+        System.out.println("Loaded " + trips.size + " trips");
+        return trips;
+    }
+
+    /** Load stop_times.txt (comma separated): trip_id,arrival_time,departure_time,stop_id,stop_sequence,... */
+    public StopTimes loadStopTimes(File stopTimesFile) {
+        if (stopsById.length == 0) {throw new RuntimeException("loadStopTimes called before the stops were loaded.");}
+        FeedReader reader = new FeedReader(stopTimesFile, ',');
+        int tripCol = reader.requiredColumn("trip_id");
+        int arrivalCol = reader.requiredColumn("arrival_time");
+        int departureCol = reader.requiredColumn("departure_time");
+        int stopCol = reader.requiredColumn("stop_id");
+        int sequenceCol = reader.requiredColumn("stop_sequence");
+        StopTimes times = new StopTimes();
+        int capacity = 4096;
+        times.trip = new int[capacity];
+        times.stop = new int[capacity];
+        times.arrival = new int[capacity];
+        times.departure = new int[capacity];
+        times.sequence = new int[capacity];
+        int unknownStops = 0;
+        while (reader.next()) {
+            int stop = reader.lookup(stopCol, stopIds);
+            if (getStop(stop) == null) {unknownStops++; continue;}
+            if (times.size == capacity) {
+                capacity *= 2;
+                times.trip = Arrays.copyOf(times.trip, capacity);
+                times.stop = Arrays.copyOf(times.stop, capacity);
+                times.arrival = Arrays.copyOf(times.arrival, capacity);
+                times.departure = Arrays.copyOf(times.departure, capacity);
+                times.sequence = Arrays.copyOf(times.sequence, capacity);
+            }
+            int row = times.size++;
+            times.trip[row] = reader.intern(tripCol, tripIds);
+            times.stop[row] = stop;
+            // a missing time (between timepoints) takes the other time of the row, if there is one
+            boolean noArrival = reader.isEmpty(arrivalCol);
+            boolean noDeparture = reader.isEmpty(departureCol);
+            times.arrival[row] = noArrival ? (noDeparture ? -1 : reader.getTime(departureCol)) : reader.getTime(arrivalCol);
+            times.departure[row] = noDeparture ? times.arrival[row] : reader.getTime(departureCol);
+            times.sequence[row] = reader.getInt(sequenceCol);
+        }
+        System.out.println("Loaded " + times.size + " stop times" + ((unknownStops > 0) ? " (" + unknownStops + " with unknown stops)" : ""));
+        return times;
+    }
+
+    /** Load stop_pattern_trips.txt (comma separated): stop_pattern_id,trip_id,trip_sequence */
+    public PatternTrips loadStopPatternTrips(File patternTripsFile) {
+        FeedReader reader = new FeedReader(patternTripsFile, ',');
+        int patternCol = reader.requiredColumn("stop_pattern_id");
+        int tripCol = reader.requiredColumn("trip_id");
+        int sequenceCol = reader.column("trip_sequence");
+        PatternTrips patternTrips = new PatternTrips();
+        int capacity = 1024;
+        patternTrips.pattern = new int[capacity];
+        patternTrips.trip = new int[capacity];
+        patternTrips.sequence = new int[capacity];
+        while (reader.next()) {
+            if (reader.isEmpty(patternCol) || reader.isEmpty(tripCol)) {continue;}
+            if (patternTrips.size == capacity) {
+                capacity *= 2;
+                patternTrips.pattern = Arrays.copyOf(patternTrips.pattern, capacity);
+                patternTrips.trip = Arrays.copyOf(patternTrips.trip, capacity);
+                patternTrips.sequence = Arrays.copyOf(patternTrips.sequence, capacity);
+            }
+            int row = patternTrips.size++;
+            patternTrips.pattern[row] = reader.intern(patternCol, lineIds);
+            patternTrips.trip[row] = reader.intern(tripCol, tripIds);
+            patternTrips.sequence[row] = reader.isEmpty(sequenceCol) ? 0 : reader.getInt(sequenceCol);
+        }
+        System.out.println("Loaded " + patternTrips.size + " stop pattern trips");
+        return patternTrips;
+    }
+
+}
@@ -0,0 +1,293 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for the tab or comma separated data files (stops.txt, lines.txt,
+ * transfers.txt, trips.txt, stop_times.txt, stop_pattern_trips.txt, ...).
+ *
+ * The file is memory mapped, and each call of next() finds the boundaries of the fields
+ * of the next record in place, without copying the record or creating any Strings.
+ * The fields of the current record are then read straight from the mapped bytes:
+ * numbers are parsed from the bytes (getInt, getDouble, getTime), ids are interned into
+ * an IdDictionary (intern, lookup), and only getString creates a String.
+ * Fields may be quoted ("..." with "" for a quote inside the field).
+ *
+ * The first record of the file is the header, which gives the names of the columns (see column(..)).
+ * The file must be smaller than 2GB.
+ */
+
+public class FeedReader {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private final byte separator;
+
+    private int position = 0;               // start of the next record
+    private int lineNumber = 0;             // line number of the current record
+
+    private int fieldCount = 0;             // fields of the current record
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private boolean[] fieldQuoted = new boolean[16];
+
+    private final String[] columnNames;
+
+    /**
+     * Open the file (with fields separated by the separator character) and read its header
+     */
+    public FeedReader(File file, char separator) {
+        this.file = file;
+        this.separator = (byte) separator;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new RuntimeException("Reading " + file + " failed: the file is too large.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Reading " + file + " failed.");
+        }
+        limit = buffer.limit();
+        // skip a UTF-8 byte order mark
+        if (limit >= 3 && (buffer.get(0) & 0xff) == 0xef && (buffer.get(1) & 0xff) == 0xbb && (buffer.get(2) & 0xff) == 0xbf) {
+            position = 3;
+        }
+        if (next()) {
+            columnNames = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                columnNames[i] = getString(i).trim();
+            }
+        } else {
+            columnNames = new String[0];
+        }
+    }
+
+    /**
+     * Return the number of the column with the given name in the header, or -1 if there is none
+     */
+    public int column(String name) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(name)) {return i;}
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of the column with the given name in the header;
+     * throws an exception if the file has no such column.
+     */
+    public int requiredColumn(String name) {
+        int col = column(name);
+        if (col < 0) {
+            throw new RuntimeException("Reading " + file + " failed: no " + name + " column.");
+        }
+        return col;
+    }
+
+    /**
+     * Move to the next (non blank) record of the file.
+     * Returns false at the end of the file.
+     */
+    public boolean next() {
+        while (position < limit) {
+            lineNumber++;
+            fieldCount = 0;
+            int pos = position;
+            boolean endOfRecord = false;
+            while (!endOfRecord) {
+                if (fieldCount == fieldStarts.length) {
+                    fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                    fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+                    fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+                }
+                int start = pos;
+                int end;
+                boolean quoted = pos < limit && buffer.get(pos) == '"';
+                if (quoted) {
+                    // the field runs to the closing quote; "" is a quote inside the field
+                    start = ++pos;
+                    while (pos < limit && !(buffer.get(pos) == '"' && (pos + 1 >= limit || buffer.get(pos + 1) != '"'))) {
+                        pos += (buffer.get(pos) == '"') ? 2 : 1;
+                    }
+                    end = pos;
+                    if (pos < limit) {pos++;}  // the closing quote
+                    while (pos < limit && buffer.get(pos) != separator && buffer.get(pos) != '\n') {pos++;}
+                } else {
+                    while (pos < limit && buffer.get(pos) != separator && buffer.get(pos) != '\n') {pos++;}
+                    end = pos;
+                }
+                if (pos >= limit || buffer.get(pos) == '\n') {
+                    endOfRecord = true;
+                    if (end > start && buffer.get(end - 1) == '\r' && !quoted) {end--;}
+                }
+                fieldStarts[fieldCount] = start;
+                fieldEnds[fieldCount] = end;
+                fieldQuoted[fieldCount] = quoted;
+                fieldCount++;
+                pos++;  // past the separator or newline
+            }
+            position = pos;
+            if (fieldCount > 1 || fieldEnds[0] > fieldStarts[0]) {
+                return true;
+            }
+        }
+        fieldCount = 0;
+        return false;
+    }
+
+    /** Number of fields in the current record */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /** Line number (in the file) of the current record */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /** Is the field missing or empty in the current record? */
+    public boolean isEmpty(int field) {
+        return field < 0 || field >= fieldCount || fieldEnds[field] == fieldStarts[field];
+    }
+
+    /** The field as a String (the only method that creates a String) */
+    public String getString(int field) {
+        if (isEmpty(field)) {return "";}
+        int start = fieldStarts[field];
+        byte[] bytes = new byte[fieldEnds[field] - start];
+        buffer.get(start, bytes);
+        String str = new String(bytes, StandardCharsets.UTF_8);
+        return fieldQuoted[field] ? str.replace("\"\"", "\"") : str;
+    }
+
+    /** Intern the field in the dictionary, returning its int id */
+    public int intern(int field, IdDictionary dictionary) {
+        checkField(field);
+        return dictionary.intern(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /** Look up the field in the dictionary, returning its int id, or -1 if it is not there */
+    public int lookup(int field, IdDictionary dictionary) {
+        if (field < 0 || field >= fieldCount) {return -1;}
+        return dictionary.lookup(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parse the field as an int, straight from the bytes.
+     * Throws a NumberFormatException (with the line number) if it is not a whole number,
+     * or does not fit in an int.
+     */
+    public int getInt(int field) {
+        checkField(field);
+        int pos = skipSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = fieldEnds[field];
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        if (pos >= end) {throw numberError(field);}
+        long max = negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE;
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                if (buffer.get(pos) == ' ') {break;}
+                throw numberError(field);
+            }
+            value = value * 10 + digit;     // at most 10 * 2^31 + 9, so the long cannot overflow
+            if (value > max) {throw numberError(field);}
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parse the field as a double, straight from the bytes.
+     * Plain decimals with up to 15 significant digits are computed exactly (one correctly
+     * rounded division, so the result is the same as Double.parseDouble); anything else
+     * (exponents, longer mantissas) is handed to Double.parseDouble.
+     */
+    public double getDouble(int field) {
+        checkField(field);
+        int pos = skipSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = fieldEnds[field];
+        while (end > pos && buffer.get(end - 1) == ' ') {end--;}
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (int i = pos; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && !point) {point = true;}
+            else if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {digits++;}
+                if (digits > 15) {return Double.parseDouble(getString(field).trim());}
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) {fractionDigits++;}
+            }
+            else {return Double.parseDouble(getString(field).trim());}
+        }
+        if (end == pos || fractionDigits > 22) {return Double.parseDouble(getString(field).trim());}
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;}
+    }
+
+    /**
+     * Parse the field as a time of day "H:MM:SS" (hours may be 24 or more, for trips
+     * that run past midnight), returning the number of seconds after midnight.
+     */
+    public int getTime(int field) {
+        checkField(field);
+        int pos = skipSpaces(fieldStarts[field], fieldEnds[field]);
+        int end = fieldEnds[field];
+        int seconds = 0;
+        int part = 0;
+        int parts = 1;
+        for (; pos < end; pos++) {
+            byte b = buffer.get(pos);
+            if (b == ':') {
+                seconds = seconds * 60 + part;
+                part = 0;
+                parts++;
+            } else if (b >= '0' && b <= '9') {
+                part = part * 10 + (b - '0');
+            } else if (b != ' ') {
+                throw numberError(field);
+            }
+        }
+        if (parts != 3) {throw numberError(field);}
+        return seconds * 60 + part;
+    }
+
+    private int skipSpaces(int pos, int end) {
+        while (pos < end && buffer.get(pos) == ' ') {pos++;}
+        return pos;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new RuntimeException(file.getName() + " line " + lineNumber + ": missing field " + field);
+        }
+    }
+
+    private RuntimeException numberError(int field) {
+        return new NumberFormatException(file.getName() + " line " + lineNumber + ": bad number \"" + getString(field) + "\"");
+    }
+
+}
@@ -0,0 +1,322 @@
+import java.util.*;
+
+/**
+ * Fuzzy search over the names and descriptions (stop_desc) of the stops, for stop names
+ * that are mistyped (eg, "Lambton Qauy") and so have no exact prefix match.
+ *
+ * The text of each stop is split into trigrams (three letter sequences, with a space in
+ * front of each word, so " la", "lam", "amb", ...), and an inverted index gives the stops
+ * that contain each trigram. It is stored as a sorted array of trigram keys, with the
+ * stops of each trigram in one postings array (like the rows of the CompactGraph).
+ *
+ * A query counts the trigrams it shares with each stop, and takes the stops as candidates
+ * in order of the most shared trigrams (until the rest cannot be close enough to be in the
+ * result), and ranks only the candidates by edit distance: the
+ * number of single letter insertions, deletions, substitutions or swaps of adjacent
+ * letters needed to turn the query into some part of the name or description.
+ * Matches need an edit distance of at most a quarter of the length of the query (and at least 1).
+ *
+ * The index does not change once built; each thread has its own scratch arrays
+ * for queries, so it can be searched from several threads at once.
+ */
+
+public class FuzzyStopIndex {
+
+    private static final int MAX_CANDIDATES = 256;     // most candidates to rank by edit distance
+
+    private final Stop[] stops;
+    private final String[][] texts;         // normalised name and description of each stop
+    private final long[] gramKeys;          // distinct trigrams, sorted
+    private final int[] postingStart;       // postings of gramKeys[g] are postings[postingStart[g]..postingStart[g+1]-1]
+    private final int[] postings;           // stop numbers
+
+    /** Scratch arrays for one thread's queries */
+    private class Scratch {
+        final int[] shared = new int[stops.length];     // number of shared trigrams, for each stop
+        final int[] touched = new int[stops.length];    // stops with shared[stop] > 0
+        final int[] order = new int[stops.length];      // touched stops, most shared trigrams first
+        int[] previous = new int[64];                   // rows of the edit distance table
+        int[] current = new int[64];
+        int[] next = new int[64];
+        final long[] asciiMasks = new long[128];        // bits of the query positions of each character
+        char[] otherChars = new char[0];                // characters of the query beyond ASCII
+        long[] otherMasks = new long[0];
+
+        /** Set the masks for the query (of at most 63 characters) */
+        void setQuery(String query) {
+            Arrays.fill(asciiMasks, 0);
+            StringBuilder others = new StringBuilder();
+            for (int i = 0; i < query.length(); i++) {
+                char c = query.charAt(i);
+                if (c < 128) {asciiMasks[c] |= 1L << i;}
+                else if (others.indexOf(String.valueOf(c)) < 0) {others.append(c);}
+            }
+            otherChars = others.toString().toCharArray();
+            otherMasks = new long[otherChars.length];
+            for (int k = 0; k < otherChars.length; k++) {
+                for (int i = 0; i < query.length(); i++) {
+                    if (query.charAt(i) == otherChars[k]) {otherMasks[k] |= 1L << i;}
+                }
+            }
+        }
+
+        long mask(char c) {
+            if (c < 128) {return asciiMasks[c];}
+            for (int k = 0; k < otherChars.length; k++) {
+                if (otherChars[k] == c) {return otherMasks[k];}
+            }
+            return 0;
+        }
+    }
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public FuzzyStopIndex(Collection<Stop> stopCollection) {
+        stops = stopCollection.toArray(new Stop[0]);
+        Arrays.sort(stops);
+        texts = new String[stops.length][];
+
+        // the distinct trigrams of each stop
+        long[][] stopGrams = new long[stops.length][];
+        int total = 0;
+        for (int s = 0; s < stops.length; s++) {
+            String name = normalise(stops[s].getName());
+            String desc = normalise(stops[s].getDesc());
+            texts[s] = desc.isEmpty() ? new String[]{name} : new String[]{name, desc};
+            stopGrams[s] = trigrams(texts[s]);
+            total += stopGrams[s].length;
+        }
+
+        // the distinct trigrams of all the stops
+        long[] all = new long[total];
+        int k = 0;
+        for (long[] grams : stopGrams) {
+            System.arraycopy(grams, 0, all, k, grams.length);
+            k += grams.length;
+        }
+        gramKeys = distinct(all);
+
+        // postings: the stops of each trigram, in stop order
+        postingStart = new int[gramKeys.length + 1];
+        for (long[] grams : stopGrams) {
+            for (long gram : grams) {postingStart[Arrays.binarySearch(gramKeys, gram) + 1]++;}
+        }
+        for (int g = 0; g < gramKeys.length; g++) {postingStart[g + 1] += postingStart[g];}
+        postings = new int[total];
+        int[] fill = Arrays.copyOf(postingStart, gramKeys.length);
+        for (int s = 0; s < stops.length; s++) {
+            for (long gram : stopGrams[s]) {postings[fill[Arrays.binarySearch(gramKeys, gram)]++] = s;}
+        }
+    }
+
+    /** The distinct values of the array, sorted (the array is sorted in place) */
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {values[count++] = values[i];}
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Normalise text for matching: split words written together ("AroSt" -> "Aro St"),
+     * then lower case without accents or macrons (see StopNameIndex.normalise), with
+     * anything other than letters and digits turned into single spaces.
+     */
+    public static String normalise(String text) {
+        StringBuilder split = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (i > 0 && Character.isUpperCase(c) && Character.isLowerCase(text.charAt(i - 1))) {split.append(' ');}
+            split.append(c);
+        }
+        String lower = StopNameIndex.normalise(split.toString());
+        StringBuilder ans = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {ans.append(c);}
+            else if (ans.length() > 0 && ans.charAt(ans.length() - 1) != ' ') {ans.append(' ');}
+        }
+        int end = ans.length();
+        if (end > 0 && ans.charAt(end - 1) == ' ') {ans.setLength(end - 1);}
+        return ans.toString();
+    }
+
+    /** The distinct trigrams of the normalised texts (with a space in front of each word), sorted */
+    private static long[] trigrams(String... texts) {
+        int length = 0;
+        for (String text : texts) {length += text.length() + 1;}
+        long[] grams = new long[length];
+        int count = 0;
+        for (String text : texts) {
+            String padded = " " + text;
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                if (padded.charAt(i + 1) == ' ' || padded.charAt(i + 2) == ' ') {continue;}   // not across words
+                grams[count++] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+            }
+        }
+        return distinct(Arrays.copyOf(grams, count));
+    }
+
+    /** Number of stops in the index */
+    public int size() {
+        return stops.length;
+    }
+
+    /**
+     * Return at most limit of the stops whose name or description fuzzily matches the query,
+     * best match first (ranked by edit distance, then by the number of shared trigrams,
+     * then by the length of the name).
+     */
+    public List<Stop> search(String query, int limit) {
+        String text = normalise(query);
+        if (text.isEmpty() || limit <= 0) {return new ArrayList<Stop>();}
+        Scratch work = scratch.get();
+
+        // count the trigrams that each stop shares with the query
+        long[] grams = trigrams(text);
+        int touchedCount = 0;
+        int mostShared = 0;
+        for (long gram : grams) {
+            int g = Arrays.binarySearch(gramKeys, gram);
+            if (g < 0) {continue;}
+            for (int i = postingStart[g]; i < postingStart[g + 1]; i++) {
+                int s = postings[i];
+                if (work.shared[s]++ == 0) {work.touched[touchedCount++] = s;}
+                mostShared = Math.max(mostShared, work.shared[s]);
+            }
+        }
+
+        // order the stops by the number of shared trigrams, most first (a counting sort)
+        int[] bucket = new int[mostShared + 2];
+        for (int i = 0; i < touchedCount; i++) {bucket[mostShared - work.shared[work.touched[i]] + 1]++;}
+        for (int c = 1; c < bucket.length; c++) {bucket[c] += bucket[c - 1];}
+        for (int i = 0; i < touchedCount; i++) {
+            int s = work.touched[i];
+            work.order[bucket[mostShared - work.shared[s]]++] = s;
+        }
+
+        // rank the candidates by edit distance, best shared trigrams first.
+        // Each edit changes at most three trigrams, so a stop that is missing m of the query's
+        // trigrams is at least (m - 1) / 3 edits away (the one is for a word start that does
+        // not line up). Once there are limit matches at least that close, the rest cannot do better.
+        // Candidates must also share at least a third of the query's trigrams.
+        int maxDistance = Math.max(1, text.length() / 4);
+        int minShared = Math.max(1, (grams.length + 2) / 3);
+        boolean bitParallel = text.length() < 64;
+        if (bitParallel) {work.setQuery(text);}
+        int[] atDistance = new int[maxDistance + 1];        // number of matches at each distance
+        List<long[]> ranked = new ArrayList<long[]>();      // (rank key, stop)
+        for (int i = 0; i < touchedCount && i < MAX_CANDIDATES; i++) {
+            int s = work.order[i];
+            int shared = work.shared[s];
+            int lowerBound = Math.max(0, (grams.length - shared - 1 + 2) / 3);
+            int cutOff = maxDistance;                       // distance of the limit'th best match so far
+            for (int d = 0, found = 0; d <= maxDistance; d++) {
+                found += atDistance[d];
+                if (found >= limit) {cutOff = d; break;}
+            }
+            if (shared < minShared || lowerBound > cutOff) {break;}
+            if (lowerBound == cutOff && ranked.size() >= limit && shared < work.shared[work.order[i - 1]]) {break;}
+            int distance = Integer.MAX_VALUE;
+            for (String target : texts[s]) {
+                if (distance == 0) {break;}
+                distance = Math.min(distance, bitParallel ? bitParallelDistance(target, text.length(), work)
+                                                          : editDistance(text, target, cutOff, work));
+            }
+            if (distance > cutOff) {continue;}
+            atDistance[distance]++;
+            long key = ((long) distance << 40) | ((long) (0xffff - Math.min(shared, 0xffff)) << 24) | Math.min(texts[s][0].length(), 0xffffff);
+            ranked.add(new long[]{key, s});
+        }
+        for (int i = 0; i < touchedCount; i++) {work.shared[work.touched[i]] = 0;}   // clear the scratch for the next query
+        ranked.sort((a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        List<Stop> ans = new ArrayList<Stop>();
+        for (int i = 0; i < ranked.size() && ans.size() < limit; i++) {
+            ans.add(stops[(int) ranked.get(i)[1]]);
+        }
+        return ans;
+    }
+
+    /** Return the best fuzzy match for the query, or null if nothing matches */
+    public Stop first(String query) {
+        List<Stop> found = search(query, 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * The same edit distance as editDistance(..), for a query of fewer than 64 characters
+     * (set in the scratch by setQuery), working out a whole column of the table at once
+     * with the bits of a long (Myers' bit-parallel algorithm, with Hyyro's extension for
+     * swaps of adjacent letters).
+     */
+    private static int bitParallelDistance(String target, int queryLength, Scratch work) {
+        long vp = -1L;              // column differences (down the table) of +1 ...
+        long vn = 0;                // ... and of -1
+        long d0 = 0;                // diagonal zero differences of the previous column
+        long previousEq = 0;
+        long last = 1L << (queryLength - 1);
+        int score = queryLength;    // bottom value of the current column
+        int best = score;
+        for (int j = 0; j < target.length(); j++) {
+            long eq = work.mask(target.charAt(j));
+            long swap = (((~d0) & eq) << 1) & previousEq;
+            d0 = (((eq & vp) + vp) ^ vp) | eq | vn | swap;
+            long hp = vn | ~(d0 | vp);
+            long hn = vp & d0;
+            if ((hp & last) != 0) {score++;}
+            if ((hn & last) != 0) {score--;}
+            hp <<= 1;               // no carry in: matching can start anywhere in the target
+            hn <<= 1;
+            vp = hn | ~(d0 | hp);
+            vn = hp & d0;
+            previousEq = eq;
+            best = Math.min(best, score);
+        }
+        return best;
+    }
+
+    /**
+     * Edit distance (insertions, deletions, substitutions and swaps of adjacent letters)
+     * from the query to the closest substring of the target: the target may have any
+     * text before and after the part that matches the query, at no cost.
+     * Gives up (returning maxDistance + 1) as soon as the distance must be more than maxDistance.
+     */
+    private static int editDistance(String query, String target, int maxDistance, Scratch work) {
+        int n = target.length();
+        if (work.current.length < n + 1) {
+            work.previous = new int[n + 1];
+            work.current = new int[n + 1];
+            work.next = new int[n + 1];
+        }
+        int[] before = work.previous;   // row i-2
+        int[] prev = work.current;      // row i-1
+        int[] row = work.next;          // row i
+        Arrays.fill(prev, 0, n + 1, 0); // matching can start anywhere in the target
+        for (int i = 1; i <= query.length(); i++) {
+            char q = query.charAt(i - 1);
+            row[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= n; j++) {
+                char t = target.charAt(j - 1);
+                int cost = (q == t) ? 0 : 1;
+                int best = Math.min(prev[j - 1] + cost, Math.min(prev[j] + 1, row[j - 1] + 1));
+                if (i > 1 && j > 1 && q == target.charAt(j - 2) && query.charAt(i - 2) == t) {
+                    best = Math.min(best, before[j - 2] + 1);
+                }
+                row[j] = best;
+                rowMin = Math.min(rowMin, best);
+            }
+            if (rowMin > maxDistance) {return maxDistance + 1;}   // the distance can only grow down the table
+            int[] spare = before;
+            before = prev;
+            prev = row;
+            row = spare;
+        }
+        int ans = Integer.MAX_VALUE;
+        for (int j = 0; j <= n; j++) {ans = Math.min(ans, prev[j]);}   // matching can end anywhere
+        return ans;
+    }
+
+}
@@ -5,6 +5,12 @@ public class GisPoint {
     private double lon; // longitude in degrees is X
     private double lat; // latitude in degrees is Y
 
+    // the point as a unit vector from the centre of the earth (for fastDistance);
+    // recomputed whenever the point moves
+    private double ux, uy, uz;
+
+    private static final double RADIUS = 6371000; // radius of the earth in meters (as in distance(..))
+
     /**
      * Calculate distance between two points in latitude and longitude taking
      * into account height difference. If you are not interested in height
@@ -38,6 +44,16 @@ public class GisPoint {
     public GisPoint(double lon, double lat) {
         this.lat = lat;
         this.lon = lon;
+        updateVector();
+    }
+
+    private void updateVector() {
+        double latRad = Math.toRadians(lat);
+        double lonRad = Math.toRadians(lon);
+        double cosLat = Math.cos(latRad);
+        ux = cosLat * Math.cos(lonRad);
+        uy = cosLat * Math.sin(lonRad);
+        uz = Math.sin(latRad);
     }
 
     // add and return a new Gis Point
@@ -53,11 +69,13 @@ public class GisPoint {
     public void move(GisPoint point) {
         this.lat += point.lat;
         this.lon += point.lon;
+        updateVector();
     }
 
     public void move(double lon, double lat) {
         this.lat += lat;
         this.lon += lon;
+        updateVector();
     }
 
     // return a new Gis Point with the subtracted values    
@@ -92,6 +110,49 @@ public class GisPoint {
         return GisPoint.distance(this.lat, loc.lat, this.lon, loc.lon, 0.0, 0.0);
     }
 
+    /**
+     * Fast distance in meters to another point, with no trigonometry: it uses the
+     * straight line (chord) between the unit vectors of the two points, cached in the
+     * points, instead of the haversine formula.
+     * The great circle distance is R * 2 asin(c/2) for a chord of length c; this uses the
+     * first two terms of its series, R * (c + c^3/24). The terms left out are all positive,
+     * so the result is never more than distance(..) (up to rounding), and the relative error
+     * is less than c^4/200: under 1e-13 for points 10km apart, under 1e-9 for 100km, and
+     * under 1e-5 for 1000km (so it is only meant for city or regional scale).
+     * Rounding adds an error of about 1e-9 meters, which matters only for points
+     * a few millimeters apart.
+     * Use distance(..) for distances that are reported.
+     */
+    public double fastDistance(GisPoint other) {
+        double dx = ux - other.ux;
+        double dy = uy - other.uy;
+        double dz = uz - other.uz;
+        return chordToDistance(Math.sqrt(dx * dx + dy * dy + dz * dz));
+    }
+
+    /** Fast distance in meters for a chord of length c between unit vectors (see fastDistance) */
+    public static double chordToDistance(double c) {
+        return RADIUS * (c + c * c * c / 24);
+    }
+
+    /** The (exact) length of the chord between unit vectors for a great circle distance in meters */
+    public static double distanceToChord(double meters) {
+        return 2 * Math.sin(Math.min(meters / RADIUS, Math.PI) / 2);
+    }
+
+    // get the unit vector of the point (from the centre of the earth)
+    public double getUnitX() {
+        return ux;
+    }
+
+    public double getUnitY() {
+        return uy;
+    }
+
+    public double getUnitZ() {
+        return uz;
+    }
+
     // get lat
     public double getLat() {
         return lat;
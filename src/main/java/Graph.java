@@ -13,15 +13,29 @@ import java.util.*;
  * Each pair of adjacent stops in a Line is an edge.
  * We also need to create walking edges between every pair of stops in the whole
  *  network that are closer than walkingDistance.
+ * The walking edges up to maxWalkingDistance are precomputed once, in the CompactGraph,
+ *  so changing the walking distance only moves a cut-off in the list of each stop.
  */
 public class Graph {
 
     private Collection<Stop> stops;
     private Collection<Line> lines;
-    private Collection<Edge> edges = new HashSet<Edge>();      // edges between Stops
+    private Collection<Edge> edges = new HashSet<Edge>();      // edges between Stops along lines (not walking)
+    private Map<Long, List<Edge>> edgeIndex = new HashMap<Long, List<Edge>>();  // line edges, by edgeKey(from, to)
 
     private Collection<Transfer> transfers;
 
+    private CompactGraph compact = null;   // int-indexed view of the edges, including the walking edges
+    private StopNameIndex nameIndex = null;     // prefix index over the names of the stops (built when first needed)
+    private FuzzyStopIndex fuzzyIndex = null;   // trigram index over the names and descriptions of the stops (ditto)
+    private volatile StopTree stopTree = null;  // KD-tree over the locations of the stops (ditto; volatile, see getNearestStop)
+    private StopCoordinates coordinates = null; // locations of the stops as arrays, in index order (built when first needed)
+    private final Object coordinatesLock = new Object();   // not the graph's lock, which is held while the KD-tree is built
+    private final Map<Router.Cost, Router> routers = new EnumMap<Router.Cost, Router>(Router.Cost.class);
+    private LineChangeRouter lineChangeRouter = null;   // built when first needed
+    private ParetoRouter paretoRouter = null;           // built when first needed
+    private double maxWalkingDistance = Transport.PRECOMPUTED_WALKING_DISTANCE_M;
+
     private int numComponents = 0;     // number of connected subgraphs (graph components)
 
     /**
@@ -31,42 +45,72 @@ public class Graph {
         this.stops = new TreeSet<Stop>(stops);
         this.lines = lines;
         this.transfers = transfers;
+        numberStops();
 
         // These are two of the key methods you must complete:
         createAndConnectEdges();
-        addTransfersToEdges();
         computeNeighbours();
+        buildCompactGraph();
+        addTransfersToEdges();
 
         // printGraphData();   // you could uncomment this to help in debugging your code
     }
 
+    /**
+     * Construct a graph from data read back from a GraphSnapshot:
+     * the compact graph (with the edges along the lines and the walking edges up to its
+     * maximum walking distance) has already been laid out, so the edges are taken from it
+     * instead of being recomputed. The stops must be in their index order.
+     */
+    Graph(Collection<Stop> stops, Collection<Line> lines, Collection<Transfer> transfers, CompactGraph compact) {
+        this.stops = new TreeSet<Stop>(stops);
+        this.lines = lines;
+        this.transfers = transfers;
+        this.maxWalkingDistance = compact.getMaxWalkingDistance();
+        this.compact = compact;
+        numberStops();
+
+        for (int v = 0; v < compact.size(); v++) {
+            Stop stop = compact.stop(v);
+            for (int e = compact.firstOut(v); e < compact.firstWalkOut(v); e++) {
+                connectEdge(compact.outEdge(e));
+            }
+            for (int i = compact.firstNeighbour(v); i < compact.endNeighbour(v); i++) {
+                stop.addNeighbour(compact.stop(compact.neighbour(i)));
+            }
+            stop.setCompactGraph(compact);
+        }
+        addTransfersToEdges();
+    }
+
     public Graph(Collection<Stop> stops, Collection<Line> lines) {
         System.out.println("Creating non challenge graph");
         this.stops = new TreeSet<Stop>(stops);
         this.lines = lines;
+        numberStops();
 
         // These are two of the key methods you must complete:
         createAndConnectEdges();
         computeNeighbours();
+        buildCompactGraph();
     }
 
+    /**
+     * Attach each transfer to the edges from its fromStop to its toStop,
+     * looking the edges up in the edge index (so this is linear in the number of transfers).
+     */
     private void addTransfersToEdges() {
+        int added = 0;
+        int notFound = 0;
         for (Transfer transfer : transfers) {
-            // Find edge between fromStop and toStop
-            Edge edge = null;
-            for (Edge e : edges) {
-                if (e.fromStop().equals(transfer.getFromStop()) && e.toStop().equals(transfer.getToStop())) {
-                    edge = e;
-                    break;
-                }
-            }
-            if (edge == null) {System.out.println("Edge not found for transfer: " + transfer);}
-            else{
-                edge.addTransfer(transfer);
-                System.out.println("Added " + transfer.toString() + " to edge");
+            List<Edge> found = findEdges(transfer.getFromStop(), transfer.getToStop());
+            if (found.isEmpty()) {notFound++;}
+            else {
+                for (Edge edge : found) {edge.addTransfer(transfer);}
+                added++;
             }
         }
-        System.out.println("Added transfers to edges");
+        System.out.println("Added " + added + " transfers to edges (no edge for " + notFound + " transfers)");
     }
 
 
@@ -91,6 +135,17 @@ public class Graph {
     // Methods to build the graph structure. 
     //============================================
 
+    /**
+     * Give every stop a dense index (0..n-1), in alphabetic order,
+     * which is its id in the CompactGraph view.
+     */
+    private void numberStops() {
+        int index = 0;
+        for (Stop stop : stops) {
+            stop.setIndex(index++);
+        }
+    }
+
     /** 
      * From the loaded Line and Stop information,
      *  identify all the edges that connect stops along a Line.
@@ -107,13 +162,27 @@ public class Graph {
                 double time = times.get(i+1) - times.get(i);
                 double distance = from.distanceTo(to);
                 Edge edge = new Edge(from, to,line.getType(),line, time,distance);
-                edges.add(edge);
-                from.addForwardEdge(edge);
-                to.addBackwardEdge(edge);
+                connectEdge(edge);
             }
         }
     }
 
+    /**
+     * Add an edge along a line to the graph, the edge index,
+     * and the forward and backward edges of its stops.
+     */
+    private void connectEdge(Edge edge) {
+        edges.add(edge);
+        edgeIndex.computeIfAbsent(edgeKey(edge.fromStop(), edge.toStop()), (Long k) -> new ArrayList<Edge>(1)).add(edge);
+        edge.fromStop().addForwardEdge(edge);
+        edge.toStop().addBackwardEdge(edge);
+    }
+
+    /** The key of the edges from one stop to another in the edge index */
+    private static long edgeKey(Stop from, Stop to) {
+        return ((long) from.getIndex() << 32) | (to.getIndex() & 0xffffffffL);
+    }
+
     /** 
      * Construct the undirected graph of neighbours for each Stop:
      * For each Stop, construct a set of the stops that are its neighbours
@@ -135,6 +204,22 @@ public class Graph {
 
     }
 
+    /**
+     * Build the compact view of the graph, with walking edges up to maxWalkingDistance,
+     * and give each stop a reference to it (for its walking edges).
+     * The stops are detached from any previous view first, so that only their
+     * edges along lines go into the new view.
+     */
+    private void buildCompactGraph() {
+        for (Stop stop : stops) {
+            stop.setCompactGraph(null);
+        }
+        compact = new CompactGraph(stops, maxWalkingDistance);
+        for (Stop stop : stops) {
+            stop.setCompactGraph(compact);
+        }
+    }
+
     //=============================================================================
     //    Recompute Walking edges and add to the graph
     //=============================================================================
@@ -142,52 +227,67 @@ public class Graph {
     /** 
      * Reconstruct all the current walking edges in the graph,
      * based on the specified walkingDistance:
-     * identify all pairs of stops * that are at most walkingDistance apart,
-     * and construct edges (both ways) between the stops
-     * add the edges to the forward and backward neighbours of the Stops
-     * add the edges to the walking edges of the graph.
-     * Assume that all the previous walking edges have been removed
+     * use the edges (both ways) between all pairs of stops that are at most walkingDistance apart.
+     * The edges come from the precomputed walking edges of the compact graph; it is only
+     * rebuilt (with the new maximum) if walkingDistance is more than the maximum precomputed distance.
      */
     public void recomputeWalkingEdges(double walkingDistance) {
-        int count = 0;
-        for(Stop stop1: stops){
-            for(Stop stop2: stops){
-                if(stop1.distanceTo(stop2) <= walkingDistance && !stop1.equals(stop2)){
-                    double distance = stop1.distanceTo(stop2);
-                    double time = distance/Transport.WALKING_SPEED_MPS;
-                    Edge edge1 = new Edge(stop1, stop2, Transport.WALKING, null, time, distance);
-                    Edge edge2 = new Edge(stop2, stop1, Transport.WALKING, null, time, distance);
-                    stop1.addForwardEdge(edge1);
-                    stop1.addBackwardEdge(edge2);
-
-                    stop2.addForwardEdge(edge2);
-                    stop2.addBackwardEdge(edge1);
-
-                    count++;
-
-                    edges.add(edge1);
-                    edges.add(edge2);
-                }
-            }
+        if (walkingDistance > maxWalkingDistance) {
+            setMaxWalkingDistance(walkingDistance);
         }
-
-        System.out.println("Number of walking edges added: " + count);
+        compact.setWalkingDistance(walkingDistance);
+        System.out.println("Number of walking edges added: " + compact.getWalkingEdgeCount());
     }
 
     /** 
      * Remove all the current walking edges in the graph
-     * - from the edges field (the collection of all the edges in the graph)
-     * - from the forward and backward neighbours of each Stop.
      * - Resets the number of components back to 0 by
      *   calling  resetSubGraphIds()
      */
     public void removeWalkingEdges() {
         resetSubGraphIds();
-        for (Stop stop : stops) {
-            stop.deleteEdgesOfType(Transport.WALKING);// remove all edges of type walking
+        compact.removeWalkingEdges();
+    }
+
+    /**
+     * Change the walking distance to walkingDistance (no walking edges if it is not positive)
+     * and reset the components.
+     * Unless walkingDistance is more than the maximum precomputed distance, this only moves the
+     * cut-off of the walking edges of each stop, so it is fast enough to call on every move of a slider.
+     * It must not be called while searches are running on other threads (see CompactGraph).
+     */
+    public void setWalkingDistance(double walkingDistance) {
+        resetSubGraphIds();
+        if (walkingDistance <= 0) {
+            compact.removeWalkingEdges();
+            return;
+        }
+        if (walkingDistance > maxWalkingDistance) {
+            setMaxWalkingDistance(walkingDistance);
+        }
+        compact.setWalkingDistance(walkingDistance);
+    }
+
+    /** The current walking distance (-1 if there are no walking edges) */
+    public double getWalkingDistance() {
+        return compact.getWalkingDistance();
+    }
+
+    /**
+     * Set the distance up to which the walking edges are precomputed,
+     * rebuilding the compact graph (and keeping the current walking distance, if it still fits).
+     */
+    public void setMaxWalkingDistance(double maxWalkingDistance) {
+        double walkingDistance = compact.getWalkingDistance();
+        this.maxWalkingDistance = maxWalkingDistance;
+        buildCompactGraph();
+        if (walkingDistance >= 0 && walkingDistance <= maxWalkingDistance) {
+            compact.setWalkingDistance(walkingDistance);
         }
-        edges.removeIf((Edge e)-> Transport.WALKING.equals(e.transpType()));
-        
+    }
+
+    public double getMaxWalkingDistance() {
+        return maxWalkingDistance;
     }
 
     //=============================================================================
@@ -200,37 +300,197 @@ public class Graph {
         return Collections.unmodifiableCollection(stops);
     }
     /**
-     * Return a collection of all the edges in the network
+     * Return a collection of all the lines in the network
+     */
+    public Collection<Line> getLines() {
+        return Collections.unmodifiableCollection(lines);
+    }
+
+    /**
+     * Return a collection of all the transfers (empty if the graph was built without them)
+     */
+    public Collection<Transfer> getTransfers() {
+        return (transfers == null) ? Collections.emptyList() : Collections.unmodifiableCollection(transfers);
+    }
+
+    /**
+     * Return a collection of all the edges along lines (without the walking edges)
+     */
+    public Collection<Edge> getLineEdges() {
+        return Collections.unmodifiableCollection(edges);
+    }
+
+    /**
+     * Return a collection of all the edges in the network,
+     * including the current walking edges
      */        
     public Collection<Edge> getEdges() {
-        return Collections.unmodifiableCollection(edges);
+        Collection<Edge> walkingEdges = compact.getWalkingEdges();
+        if (walkingEdges.isEmpty()) {
+            return Collections.unmodifiableCollection(edges);
+        }
+        return new AbstractCollection<Edge>() {
+            public int size() {return edges.size() + walkingEdges.size();}
+            public Iterator<Edge> iterator() {
+                Iterator<Edge> lineEdges = edges.iterator();
+                Iterator<Edge> walking = walkingEdges.iterator();
+                return new Iterator<Edge>() {
+                    public boolean hasNext() {return lineEdges.hasNext() || walking.hasNext();}
+                    public Edge next() {return lineEdges.hasNext() ? lineEdges.next() : walking.next();}
+                };
+            }
+        };
     }
 
     /**
-     * Return the first stop that starts with the specified prefix
-     * (first by alphabetic order of name)
+     * Return all the edges from one stop directly to another:
+     * the edges along lines (from the edge index) and the current walking edge, if there is one.
+     * Returns an empty list if there are none, or if either stop is null or not in the graph.
      */
-    public Stop getFirstMatchingStop(String prefix) {
-        for (Stop stop : stops) {
-            if (stop.getName().startsWith(prefix)) {
-                return stop;
+    public List<Edge> findEdges(Stop from, Stop to) {
+        if (from == null || to == null || from.getIndex() < 0 || to.getIndex() < 0) {
+            return Collections.emptyList();
+        }
+        List<Edge> lineEdges = edgeIndex.getOrDefault(edgeKey(from, to), Collections.emptyList());
+        Edge walkingEdge = null;
+        int v = from.getIndex();
+        for (int e = compact.firstWalkOut(v); e < compact.endOut(v); e++) {
+            if (compact.outTarget(e) == to.getIndex()) {
+                walkingEdge = compact.outEdge(e);
+                break;
             }
         }
-        return null;
+        if (walkingEdge == null) {
+            return Collections.unmodifiableList(lineEdges);
+        }
+        List<Edge> ans = new ArrayList<Edge>(lineEdges);
+        ans.add(walkingEdge);
+        return ans;
+    }
+
+    /**
+     * Return the KD-tree over the locations of the stops
+     * (for the nearest stops to a point, or the stops within some distance of it)
+     */
+    public synchronized StopTree getStopTree() {
+        if (stopTree == null) {stopTree = new StopTree(stops);}
+        return stopTree;
+    }
+
+    // the indexes over the names of the stops, built when first needed
+    private synchronized StopNameIndex getNameIndex() {
+        if (nameIndex == null) {nameIndex = new StopNameIndex(stops);}
+        return nameIndex;
+    }
+
+    private synchronized FuzzyStopIndex getFuzzyIndex() {
+        if (fuzzyIndex == null) {fuzzyIndex = new FuzzyStopIndex(stops);}
+        return fuzzyIndex;
+    }
+
+    /**
+     * Build the indexes over the names and locations of the stops now, rather than on the
+     * first search that needs them (eg, in the background once the graph has been shown)
+     */
+    public void buildIndexes() {
+        getNameIndex();
+        getFuzzyIndex();
+        getStopTree();
+    }
+
+    /**
+     * Return the locations of the stops as arrays (numbered by the stops' indexes),
+     * for working out the distances from a point to all the stops at once
+     */
+    public StopCoordinates getStopCoordinates() {
+        synchronized (coordinatesLock) {
+            if (coordinates == null) {coordinates = new StopCoordinates(stops);}
+            return coordinates;
+        }
+    }
+
+    /**
+     * Return the router that finds shortest paths in this graph by the given cost.
+     * There is one router for each cost, shared by all threads.
+     */
+    public synchronized Router getRouter(Router.Cost cost) {
+        return routers.computeIfAbsent(cost, c -> new Router(this, c));
+    }
+
+    /**
+     * Return the router that finds the quickest paths in this graph counting the changes
+     * between lines (see LineChangeRouter), shared by all threads.
+     */
+    public synchronized LineChangeRouter getLineChangeRouter() {
+        if (lineChangeRouter == null) {lineChangeRouter = new LineChangeRouter(this);}
+        return lineChangeRouter;
+    }
+
+    /**
+     * Return the router that finds the Pareto-optimal paths in this graph by time, changes and
+     * walking (see ParetoRouter), shared by all threads.
+     */
+    public synchronized ParetoRouter getParetoRouter() {
+        if (paretoRouter == null) {paretoRouter = new ParetoRouter(this);}
+        return paretoRouter;
+    }
+
+    /**
+     * Return the stop nearest to the location (null if there are no stops): by the KD-tree
+     * once it has been built, and until then by a scan of all the stops (see StopCoordinates),
+     * so that a click while the indexes are still being built does not wait for the tree.
+     */
+    public Stop getNearestStop(GisPoint location) {
+        StopTree tree = stopTree;
+        if (tree != null) {return tree.nearest(location);}
+        StopCoordinates coordinates = getStopCoordinates();
+        int nearest = coordinates.nearest(location);
+        return (nearest < 0) ? null : coordinates.stop(nearest);
+    }
+
+    /**
+     * Return the compressed-sparse-row view of the edges of the graph
+     * (with the current walking edges)
+     */
+    public CompactGraph getCompactGraph() {
+        return compact;
+    }
+
+    /**
+     * Return the first stop that starts with the specified prefix
+     * (first by alphabetic order of name; ignoring case and macrons)
+     */
+    public Stop getFirstMatchingStop(String prefix) {
+        return getNameIndex().first(prefix);
     }
 
     /** 
      * Return all the stops that start with the specified prefix
-     * in alphabetic order.
+     * in alphabetic order (ignoring case and macrons).
      */
     public List<Stop> getAllMatchingStops(String prefix) {
-        List<Stop> ans = new ArrayList<Stop>();
-        for (Stop stop : stops) {
-            if (stop.getName().startsWith(prefix)) {
-                ans.add(stop);
-            }
-        }
-        return ans;
+        return getNameIndex().withPrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Return at most limit of the stops that start with the specified prefix
+     * in alphabetic order (ignoring case and macrons).
+     */
+    public List<Stop> getAllMatchingStops(String prefix, int limit) {
+        return getNameIndex().withPrefix(prefix, limit);
+    }
+
+    /** Return the number of stops that start with the specified prefix (ignoring case and macrons) */
+    public int countMatchingStops(String prefix) {
+        return getNameIndex().count(prefix);
+    }
+
+    /**
+     * Return at most limit of the stops whose name or description is close to the
+     * (possibly mistyped) search string, best match first (see FuzzyStopIndex)
+     */
+    public List<Stop> getFuzzyMatchingStops(String search, int limit) {
+        return getFuzzyIndex().search(search, limit);
     }
 
     public int getSubGraphCount() {
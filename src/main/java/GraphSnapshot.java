@@ -0,0 +1,284 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a built Graph, so that the program can start without
+ * re-reading and re-parsing the text files and rebuilding the graph.
+ *
+ * The snapshot records a checksum of the source feed files (see checksum(..)):
+ * read(..) returns null if the snapshot is missing, is for a different version
+ * of the format, or was made from different source files, and the caller should
+ * then build the graph from the text files and write a new snapshot.
+ *
+ * Format (big-endian, strings are an int length followed by UTF-8 bytes):
+ *   header:    MAGIC, VERSION, source checksum (long), maxWalkingDistance (double)
+ *   stops:     count, then (id, name, desc, lon, lat) for each stop, in index order
+ *   lines:     count, then (id, number of stops, then (stop index, time) for each stop)
+ *   transfers: count, then (from index, to index, transport type, min transfer time); index -1 if unknown
+ *   rows:      the arrays of the CompactGraph, with all the walking edges up to maxWalkingDistance:
+ *              number of out entries m, of in entries, and of neighbour entries, then
+ *              out offsets (n+1), out walk starts (n), targets, times, distances and line numbers (m each,
+ *              line -1 for walking), in offsets (n+1), in walk starts (n), sources, times, distances and
+ *              the out entry of the same edge (for each in entry), neighbour offsets (n+1), neighbours
+ *   END
+ * The file is read through a memory mapped FileChannel, and the arrays of the rows are copied out
+ * of it in bulk, so the CompactGraph is not built again (no walking pairs are placed or sorted),
+ * and only the Edge objects are made. The indexes over the stops (by name and location) are
+ * not stored: the Graph builds them when they are first needed.
+ * Change VERSION whenever the format changes.
+ */
+
+public class GraphSnapshot {
+
+    private static final int MAGIC = 0x57544e47;      // "WTNG"
+    private static final int VERSION = 3;
+    private static final int END = 0x454e4421;        // "END!"
+
+    /**
+     * Compute a checksum (CRC32) of the contents of the source files,
+     * reading each file through a memory mapped FileChannel.
+     * Files that do not exist contribute only their name.
+     */
+    public static long checksum(File... sourceFiles) {
+        CRC32 crc = new CRC32();
+        for (File file : sourceFiles) {
+            crc.update(file.getName().getBytes(StandardCharsets.UTF_8));
+            if (!file.exists()) {continue;}
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                throw new RuntimeException("Reading " + file + " for the checksum failed.");
+            }
+        }
+        return crc.getValue();
+    }
+
+    //-------------------------------------------------------
+    //  Writing
+    //-------------------------------------------------------
+
+    /**
+     * Write a snapshot of the graph (with the checksum of the files it was built from)
+     */
+    public static void write(Graph graph, File snapshotFile, long sourceChecksum) throws IOException {
+        CompactGraph compact = graph.getCompactGraph();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceChecksum);
+            out.writeDouble(compact.getMaxWalkingDistance());
+
+            // stops, in index order
+            out.writeInt(compact.size());
+            for (int v = 0; v < compact.size(); v++) {
+                Stop stop = compact.stop(v);
+                writeString(out, stop.getId());
+                writeString(out, stop.getName());
+                writeString(out, stop.getDesc());
+                out.writeDouble(stop.getPoint().getLon());
+                out.writeDouble(stop.getPoint().getLat());
+            }
+
+            // lines
+            Map<Line, Integer> lineNumbers = new HashMap<Line, Integer>();
+            out.writeInt(graph.getLines().size());
+            for (Line line : graph.getLines()) {
+                lineNumbers.put(line, lineNumbers.size());
+                writeString(out, line.getId());
+                out.writeInt(line.getStops().size());
+                for (int i = 0; i < line.getStops().size(); i++) {
+                    out.writeInt(line.getStops().get(i).getIndex());
+                    out.writeInt(line.getTimes().get(i));
+                }
+            }
+
+            // transfers
+            out.writeInt(graph.getTransfers().size());
+            for (Transfer transfer : graph.getTransfers()) {
+                out.writeInt(indexOf(transfer.getFromStop()));
+                out.writeInt(indexOf(transfer.getToStop()));
+                out.writeInt(transfer.getTranspType());
+                out.writeInt((int) transfer.getMinTransferTime());
+            }
+
+            // rows of the compact graph
+            int n = compact.size();
+            int m = (n == 0) ? 0 : compact.endAllOut(n - 1);
+            int mIn = (n == 0) ? 0 : compact.endAllIn(n - 1);
+            int neighbourCount = (n == 0) ? 0 : compact.endNeighbour(n - 1);
+            out.writeInt(m);
+            out.writeInt(mIn);
+            out.writeInt(neighbourCount);
+            for (int v = 0; v < n; v++) {out.writeInt(compact.firstOut(v));}
+            out.writeInt(m);
+            for (int v = 0; v < n; v++) {out.writeInt(compact.firstWalkOut(v));}
+            for (int e = 0; e < m; e++) {out.writeInt(compact.outTarget(e));}
+            for (int e = 0; e < m; e++) {out.writeDouble(compact.outTime(e));}
+            for (int e = 0; e < m; e++) {out.writeDouble(compact.outDistance(e));}
+            for (int e = 0; e < m; e++) {
+                Line line = compact.outEdge(e).line();
+                out.writeInt((line == null) ? -1 : lineNumbers.get(line));
+            }
+            for (int v = 0; v < n; v++) {out.writeInt(compact.firstIn(v));}
+            out.writeInt(mIn);
+            for (int v = 0; v < n; v++) {out.writeInt(compact.firstWalkIn(v));}
+            for (int e = 0; e < mIn; e++) {out.writeInt(compact.inSource(e));}
+            for (int e = 0; e < mIn; e++) {out.writeDouble(compact.inTime(e));}
+            for (int e = 0; e < mIn; e++) {out.writeDouble(compact.inDistance(e));}
+            for (int e = 0; e < mIn; e++) {out.writeInt(outEntry(compact, compact.inEdge(e)));}
+            for (int v = 0; v < n; v++) {out.writeInt(compact.firstNeighbour(v));}
+            out.writeInt(neighbourCount);
+            for (int i = 0; i < neighbourCount; i++) {out.writeInt(compact.neighbour(i));}
+            out.writeInt(END);
+        }
+    }
+
+    // the entry of the edge in the out row of its stop
+    private static int outEntry(CompactGraph compact, Edge edge) {
+        int v = edge.fromStop().getIndex();
+        for (int e = compact.firstOut(v); e < compact.endAllOut(v); e++) {
+            if (compact.outEdge(e) == edge) {return e;}
+        }
+        throw new IllegalStateException("Edge " + edge + " is not in the out row of its stop");
+    }
+
+    private static int indexOf(Stop stop) {
+        return (stop == null) ? -1 : stop.getIndex();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    //-------------------------------------------------------
+    //  Reading
+    //-------------------------------------------------------
+
+    /**
+     * Read a graph from a snapshot file.
+     * Returns null if the file does not exist, has the wrong format or version,
+     * or was made from source files with a different checksum.
+     */
+    public static Graph read(File snapshotFile, long sourceChecksum) throws IOException {
+        if (!snapshotFile.exists()) {return null;}
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 24 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                System.out.println("Snapshot " + snapshotFile + " has the wrong format or version");
+                return null;
+            }
+            if (in.getLong() != sourceChecksum) {
+                System.out.println("Snapshot " + snapshotFile + " is out of date");
+                return null;
+            }
+            double maxWalkingDistance = in.getDouble();
+
+            // stops
+            Stop[] stops = new Stop[in.getInt()];
+            for (int v = 0; v < stops.length; v++) {
+                String id = readString(in);
+                String name = readString(in);
+                String desc = readString(in);
+                double lon = in.getDouble();
+                double lat = in.getDouble();
+                stops[v] = new Stop(lon, lat, name, id);
+                stops[v].setDesc(desc);
+            }
+
+            // lines
+            Line[] lines = new Line[in.getInt()];
+            for (int l = 0; l < lines.length; l++) {
+                lines[l] = new Line(readString(in));
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    Stop stop = stops[in.getInt()];
+                    lines[l].addStop(stop, in.getInt());
+                    stop.addLine(lines[l]);
+                }
+            }
+
+            // transfers
+            List<Transfer> transfers = new ArrayList<Transfer>();
+            for (int i = in.getInt(); i > 0; i--) {
+                int from = in.getInt();
+                int to = in.getInt();
+                int transpType = in.getInt();
+                int minTime = in.getInt();
+                transfers.add(new Transfer(transpType, minTime, (from < 0) ? null : stops[from], (to < 0) ? null : stops[to]));
+            }
+
+            // rows of the compact graph, and the Edges along the lines
+            int n = stops.length;
+            int m = in.getInt();
+            int mIn = in.getInt();
+            int neighbourCount = in.getInt();
+            int[] outOffsets = readInts(in, n + 1);
+            int[] outWalkStarts = readInts(in, n);
+            int[] outTargets = readInts(in, m);
+            double[] outTimes = readDoubles(in, m);
+            double[] outDistances = readDoubles(in, m);
+            int[] outLines = readInts(in, m);
+            int[] inOffsets = readInts(in, n + 1);
+            int[] inWalkStarts = readInts(in, n);
+            int[] inSources = readInts(in, mIn);
+            double[] inTimes = readDoubles(in, mIn);
+            double[] inDistances = readDoubles(in, mIn);
+            int[] inPartners = readInts(in, mIn);
+            int[] neighbourOffsets = readInts(in, n + 1);
+            int[] neighbours = readInts(in, neighbourCount);
+            Edge[] outEdges = new Edge[m];
+            for (int v = 0; v < n; v++) {
+                for (int e = outOffsets[v]; e < outWalkStarts[v]; e++) {
+                    Line line = lines[outLines[e]];
+                    outEdges[e] = new Edge(stops[v], stops[outTargets[e]], line.getType(), line, outTimes[e], outDistances[e]);
+                }
+            }
+            if (in.getInt() != END) {
+                System.out.println("Snapshot " + snapshotFile + " is incomplete");
+                return null;
+            }
+            for (int v = 0; v < n; v++) {stops[v].setIndex(v);}
+            CompactGraph compact = new CompactGraph(stops, maxWalkingDistance,
+                outOffsets, outWalkStarts, outTargets, outTimes, outDistances, outEdges,
+                inOffsets, inWalkStarts, inSources, inTimes, inDistances, inPartners, neighbourOffsets, neighbours);
+            return new Graph(Arrays.asList(stops), Arrays.asList(lines), transfers, compact);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            System.out.println("Snapshot " + snapshotFile + " is broken: " + e);
+            return null;
+        }
+    }
+
+    // copy count ints (or doubles) out of the mapped file in one go
+    private static int[] readInts(MappedByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * count);
+        return values;
+    }
+
+    private static double[] readDoubles(MappedByteBuffer in, int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + 8 * count);
+        return values;
+    }
+
+    private static String readString(MappedByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,382 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Hub labels over the edges of a CompactGraph (with the walking edges that are in use when
+ * they are built), for working out the cost of the shortest path between two stops without
+ * any search: only the cost, not the path.
+ *
+ * Each stop v has an out label, a list of (hub, d(v, hub)), and an in label, a list of
+ * (hub, d(hub, v)), such that every shortest path from s to t goes through some hub in both
+ * the out label of s and the in label of t; so the cost from s to t is the smallest
+ * d(s, hub) + d(hub, t) over the hubs in both labels. The labels are sorted by hub, so the two
+ * labels are merged in one pass (see distance(..)).
+ *
+ * The labels are built by pruned landmark labeling: the stops are taken in order of importance
+ * (by degree, or by their rank in a ContractionHierarchy, most important first) and a Dijkstra
+ * search is done forward and backward from each, adding it as a hub to the labels of the stops
+ * it reaches, but pruning the search at any stop whose cost is already given by the labels made
+ * so far. Hubs are numbered by their place in the order, so the labels come out sorted.
+ * A better order gives smaller labels (and faster queries); sizeReport() gives the sizes.
+ *
+ * The labels of all the stops are packed into arrays (a row of hubs and a row of costs for
+ * each stop, as in the CompactGraph). They do not change once built, so they can be used
+ * from any thread. They can be written to a file and read back (see write(..) and read(..)),
+ * for the same edges and cost (checked as for the ContractionHierarchy).
+ */
+
+public class HubLabels {
+
+    private static final int MAGIC = 0x5754484c;      // "WTHL"
+    private static final int VERSION = 1;
+    private static final int END = 0x454e4421;        // "END!"
+
+    private final CompactGraph graph;
+    private final Router.Cost cost;
+    private final long fingerprint;
+    private final int[] order;             // stop id of each hub (most important first)
+
+    private final int[] outOffsets;        // size n+1: start of the out label of each stop
+    private final int[] outHubs;           // hub numbers (places in the order), sorted within each label
+    private final double[] outCosts;       // d(v, hub)
+
+    private final int[] inOffsets;         // size n+1: start of the in label of each stop
+    private final int[] inHubs;
+    private final double[] inCosts;        // d(hub, v)
+
+    private HubLabels(CompactGraph graph, Router.Cost cost, long fingerprint, int[] order,
+                      int[] outOffsets, int[] outHubs, double[] outCosts,
+                      int[] inOffsets, int[] inHubs, double[] inCosts) {
+        this.graph = graph;
+        this.cost = cost;
+        this.fingerprint = fingerprint;
+        this.order = order;
+        this.outOffsets = outOffsets;
+        this.outHubs = outHubs;
+        this.outCosts = outCosts;
+        this.inOffsets = inOffsets;
+        this.inHubs = inHubs;
+        this.inCosts = inCosts;
+    }
+
+    public CompactGraph getCompactGraph() {
+        return graph;
+    }
+
+    public Router.Cost getCost() {
+        return cost;
+    }
+
+    //-------------------------------------------------------
+    //  Building
+    //-------------------------------------------------------
+
+    /**
+     * Build the labels for the edges in use in the compact graph, with the stops ordered by
+     * degree (number of edges in and out, most first)
+     */
+    public static HubLabels build(CompactGraph graph, Router.Cost cost) {
+        int n = graph.size();
+        Integer[] byDegree = new Integer[n];
+        int[] degree = new int[n];
+        for (int v = 0; v < n; v++) {
+            byDegree[v] = v;
+            degree[v] = (graph.endOut(v) - graph.firstOut(v)) + (graph.endIn(v) - graph.firstIn(v));
+        }
+        Arrays.sort(byDegree, (a, b) -> (degree[a] != degree[b]) ? Integer.compare(degree[b], degree[a]) : Integer.compare(a, b));
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {order[i] = byDegree[i];}
+        return build(graph, cost, order);
+    }
+
+    /**
+     * Build the labels for the edges of a contraction hierarchy, with the stops ordered by
+     * their rank in it (last contracted first); this usually gives much smaller labels than degree.
+     */
+    public static HubLabels build(ContractionHierarchy hierarchy) {
+        CompactGraph graph = hierarchy.getCompactGraph();
+        int n = graph.size();
+        int[] order = new int[n];
+        for (int v = 0; v < n; v++) {
+            order[n - 1 - hierarchy.getRank(graph.stop(v))] = v;
+        }
+        return build(graph, hierarchy.getCost(), order);
+    }
+
+    /** A label while it is being built (parallel arrays, in hub order) */
+    private static class Label {
+        int size = 0;
+        int[] hubs = new int[4];
+        double[] costs = new double[4];
+
+        void add(int hub, double hubCost) {
+            if (size == hubs.length) {
+                hubs = Arrays.copyOf(hubs, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+            }
+            hubs[size] = hub;
+            costs[size] = hubCost;
+            size++;
+        }
+    }
+
+    private static HubLabels build(CompactGraph graph, Router.Cost cost, int[] order) {
+        long start = System.nanoTime();
+        int n = graph.size();
+        boolean byTime = (cost == Router.Cost.TIME);
+        Label[] outLabels = new Label[n];
+        Label[] inLabels = new Label[n];
+        for (int v = 0; v < n; v++) {
+            outLabels[v] = new Label();
+            inLabels[v] = new Label();
+        }
+        double[] hubCosts = new double[n];      // cost to or from the current hub, by hub number, for its own label
+        Arrays.fill(hubCosts, Double.POSITIVE_INFINITY);
+        int[] stamps = new int[n];
+        double[] costs = new double[n];
+        int search = 0;
+        IndexedHeap heap = new IndexedHeap();
+        heap.ensureCapacity(n);
+
+        for (int hub = 0; hub < n; hub++) {
+            int root = order[hub];
+            for (int forward = 1; forward >= 0; forward--) {
+                // forward: d(root, v) goes into the in label of v, pruned by the out label of root;
+                // backward: d(v, root) goes into the out label of v, pruned by the in label of root
+                Label rootLabel = (forward == 1) ? outLabels[root] : inLabels[root];
+                Label[] labels = (forward == 1) ? inLabels : outLabels;
+                for (int i = 0; i < rootLabel.size; i++) {hubCosts[rootLabel.hubs[i]] = rootLabel.costs[i];}
+
+                search++;
+                heap.clear();
+                stamps[root] = search;
+                costs[root] = 0;
+                heap.add(root, 0);
+                while (!heap.isEmpty()) {
+                    int v = heap.poll();
+                    double c = costs[v];
+                    Label label = labels[v];
+                    boolean covered = false;
+                    for (int i = 0; i < label.size && !covered; i++) {
+                        covered = hubCosts[label.hubs[i]] + label.costs[i] <= c;
+                    }
+                    if (covered) {continue;}      // the labels so far already give this cost: prune
+                    label.add(hub, c);
+                    int first = (forward == 1) ? graph.firstOut(v) : graph.firstIn(v);
+                    int end = (forward == 1) ? graph.endOut(v) : graph.endIn(v);
+                    for (int e = first; e < end; e++) {
+                        int w = (forward == 1) ? graph.outTarget(e) : graph.inSource(e);
+                        double edgeCost = (forward == 1) ? (byTime ? graph.outTime(e) : graph.outDistance(e))
+                                                         : (byTime ? graph.inTime(e) : graph.inDistance(e));
+                        double cw = c + edgeCost;
+                        if (stamps[w] != search) {
+                            stamps[w] = search;
+                            costs[w] = cw;
+                            heap.add(w, cw);
+                        } else if (cw < costs[w]) {      // (never true once w is polled, so w is in the heap)
+                            costs[w] = cw;
+                            heap.decreaseKey(w, cw);
+                        }
+                    }
+                }
+                for (int i = 0; i < rootLabel.size; i++) {hubCosts[rootLabel.hubs[i]] = Double.POSITIVE_INFINITY;}
+            }
+        }
+
+        int[] outOffsets = new int[n + 1];
+        int[] inOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            outOffsets[v + 1] = outOffsets[v] + outLabels[v].size;
+            inOffsets[v + 1] = inOffsets[v] + inLabels[v].size;
+        }
+        int[] outHubs = new int[outOffsets[n]];
+        double[] outCosts = new double[outOffsets[n]];
+        int[] inHubs = new int[inOffsets[n]];
+        double[] inCosts = new double[inOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(outLabels[v].hubs, 0, outHubs, outOffsets[v], outLabels[v].size);
+            System.arraycopy(outLabels[v].costs, 0, outCosts, outOffsets[v], outLabels[v].size);
+            System.arraycopy(inLabels[v].hubs, 0, inHubs, inOffsets[v], inLabels[v].size);
+            System.arraycopy(inLabels[v].costs, 0, inCosts, inOffsets[v], inLabels[v].size);
+        }
+        HubLabels ans = new HubLabels(graph, cost, ContractionHierarchy.fingerprint(graph, cost), order,
+                                      outOffsets, outHubs, outCosts, inOffsets, inHubs, inCosts);
+        System.out.printf("Hub labels (%s): %d stops, %d label entries, %.1f ms%n",
+                          cost, n, outHubs.length + inHubs.length, (System.nanoTime() - start) / 1e6);
+        return ans;
+    }
+
+    //-------------------------------------------------------
+    //  Queries
+    //-------------------------------------------------------
+
+    /**
+     * Return the cost of the shortest path from start to goal (infinite if there is no path),
+     * by merging the out label of start with the in label of goal
+     */
+    public double distance(Stop start, Stop goal) {
+        return distance(start.getIndex(), goal.getIndex());
+    }
+
+    /** The cost of the shortest path from stop id from to stop id to */
+    public double distance(int from, int to) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = outOffsets[from];
+        int iEnd = outOffsets[from + 1];
+        int j = inOffsets[to];
+        int jEnd = inOffsets[to + 1];
+        while (i < iEnd && j < jEnd) {
+            int a = outHubs[i];
+            int b = inHubs[j];
+            if (a == b) {
+                best = Math.min(best, outCosts[i++] + inCosts[j++]);
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /** Is there a path from start to goal that costs at most maxCost? (stops at the first hub that shows it) */
+    public boolean isWithin(Stop start, Stop goal, double maxCost) {
+        int i = outOffsets[start.getIndex()];
+        int iEnd = outOffsets[start.getIndex() + 1];
+        int j = inOffsets[goal.getIndex()];
+        int jEnd = inOffsets[goal.getIndex() + 1];
+        while (i < iEnd && j < jEnd) {
+            int a = outHubs[i];
+            int b = inHubs[j];
+            if (a == b) {
+                if (outCosts[i++] + inCosts[j++] <= maxCost) {return true;}
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    //-------------------------------------------------------
+    //  Size
+    //-------------------------------------------------------
+
+    /** Total number of (hub, cost) entries in all the labels */
+    public long getEntryCount() {
+        return (long) outHubs.length + inHubs.length;
+    }
+
+    /** Number of bytes taken by the label arrays */
+    public long getByteCount() {
+        return 4L * (outOffsets.length + inOffsets.length + order.length) + 12L * getEntryCount();
+    }
+
+    /**
+     * A report of the sizes of the labels: the average and largest out and in labels,
+     * the entries in all of them, and the memory they take
+     */
+    public String sizeReport() {
+        int n = order.length;
+        int maxOut = 0;
+        int maxIn = 0;
+        for (int v = 0; v < n; v++) {
+            maxOut = Math.max(maxOut, outOffsets[v + 1] - outOffsets[v]);
+            maxIn = Math.max(maxIn, inOffsets[v + 1] - inOffsets[v]);
+        }
+        return String.format("Hub labels (%s) for %d stops: out labels %.1f average, %d largest; in labels %.1f average, %d largest; %d entries, %.1f MB",
+                             cost, n, (n == 0) ? 0.0 : outHubs.length / (double) n, maxOut,
+                             (n == 0) ? 0.0 : inHubs.length / (double) n, maxIn, getEntryCount(), getByteCount() / 1e6);
+    }
+
+    //-------------------------------------------------------
+    //  Reading and writing
+    //-------------------------------------------------------
+
+    /**
+     * Write the labels to a file.
+     * Format (big-endian): MAGIC, VERSION, fingerprint (long), cost, number of stops,
+     *   stop of each hub, out labels (offsets, then (hub, cost) of each entry),
+     *   in labels (the same), END
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(cost.ordinal());
+            out.writeInt(order.length);
+            for (int v : order) {out.writeInt(v);}
+            writeLabels(out, outOffsets, outHubs, outCosts);
+            writeLabels(out, inOffsets, inHubs, inCosts);
+            out.writeInt(END);
+        }
+    }
+
+    private static void writeLabels(DataOutputStream out, int[] offsets, int[] hubs, double[] costs) throws IOException {
+        for (int offset : offsets) {out.writeInt(offset);}
+        for (int k = 0; k < hubs.length; k++) {
+            out.writeInt(hubs[k]);
+            out.writeDouble(costs[k]);
+        }
+    }
+
+    /**
+     * Read labels for the compact graph and cost from a file.
+     * Returns null if the file does not exist, has the wrong format or version,
+     * or was built for different edges or a different cost.
+     */
+    public static HubLabels read(File file, CompactGraph graph, Router.Cost cost) throws IOException {
+        if (!file.exists()) {return null;}
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                System.out.println("Hub labels " + file + " have the wrong format or version");
+                return null;
+            }
+            long fingerprint = ContractionHierarchy.fingerprint(graph, cost);
+            if (in.getLong() != fingerprint || in.getInt() != cost.ordinal() || in.getInt() != graph.size()) {
+                System.out.println("Hub labels " + file + " are for a different graph");
+                return null;
+            }
+            int n = graph.size();
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {order[i] = in.getInt();}
+            int[] outOffsets = new int[n + 1];
+            for (int v = 0; v <= n; v++) {outOffsets[v] = in.getInt();}
+            int[] outHubs = new int[outOffsets[n]];
+            double[] outCosts = new double[outOffsets[n]];
+            readEntries(in, outHubs, outCosts);
+            int[] inOffsets = new int[n + 1];
+            for (int v = 0; v <= n; v++) {inOffsets[v] = in.getInt();}
+            int[] inHubs = new int[inOffsets[n]];
+            double[] inCosts = new double[inOffsets[n]];
+            readEntries(in, inHubs, inCosts);
+            if (in.getInt() != END) {
+                System.out.println("Hub labels " + file + " are incomplete");
+                return null;
+            }
+            return new HubLabels(graph, cost, fingerprint, order, outOffsets, outHubs, outCosts, inOffsets, inHubs, inCosts);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            System.out.println("Hub labels " + file + " are broken: " + e);
+            return null;
+        }
+    }
+
+    private static void readEntries(MappedByteBuffer in, int[] hubs, double[] costs) {
+        for (int k = 0; k < hubs.length; k++) {
+            hubs[k] = in.getInt();
+            costs[k] = in.getDouble();
+        }
+    }
+
+}
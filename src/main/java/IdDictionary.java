@@ -0,0 +1,135 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary that gives each distinct id string (eg, a stop_id or trip_id) a dense int id
+ * (0, 1, 2, ... in order of first appearance).
+ *
+ * Ids can be looked up straight from the bytes of a field in a ByteBuffer (see FeedReader),
+ * so looking up an id that is already in the dictionary does not create a String.
+ * The bytes of all the ids are kept in one byte array, with an open addressing hash table
+ * (of int ids) over them.
+ */
+
+public class IdDictionary {
+
+    private byte[] pool = new byte[4096];     // bytes of all the ids, one after the other
+    private int poolSize = 0;
+    private int[] starts = new int[256];      // start of each id in the pool
+    private int[] lengths = new int[256];
+    private int[] hashes = new int[256];
+    private String[] strings = new String[256];
+    private int size = 0;
+
+    private int[] table = new int[512];      // int id + 1 in each slot, 0 for an empty slot
+
+    /** Number of ids in the dictionary */
+    public int size() {
+        return size;
+    }
+
+    /** The id string with the given int id */
+    public String get(int id) {
+        return strings[id];
+    }
+
+    /** Return the int id of the string, adding it if it is new */
+    public int intern(String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        return intern(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /** Return the int id of the string, or -1 if it is not in the dictionary */
+    public int lookup(String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        return lookup(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Return the int id of the bytes buffer[start..end-1], or -1 if they are not in the dictionary.
+     */
+    public int lookup(ByteBuffer buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && matches(id, buffer, start, end)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the int id of the bytes buffer[start..end-1] (as UTF-8), adding them if they are new.
+     * Only creates a String when the id is new.
+     */
+    public int intern(ByteBuffer buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && matches(id, buffer, start, end)) {
+                return id;
+            }
+        }
+
+        // a new id: copy the bytes into the pool
+        int length = end - start;
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        for (int i = 0; i < length; i++) {
+            pool[poolSize + i] = buffer.get(start + i);
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        int id = size++;
+        starts[id] = poolSize;
+        lengths[id] = length;
+        hashes[id] = hash;
+        strings[id] = new String(pool, poolSize, length, StandardCharsets.UTF_8);
+        poolSize += length;
+        table[slot] = id + 1;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private boolean matches(int id, ByteBuffer buffer, int start, int end) {
+        if (lengths[id] != end - start) {return false;}
+        int base = starts[id];
+        for (int i = 0; i < end - start; i++) {
+            if (pool[base + i] != buffer.get(start + i)) {return false;}
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) {slot = (slot + 1) & mask;}
+            table[slot] = id + 1;
+        }
+    }
+
+    /** FNV-1a hash of the bytes, with the bits mixed so the low bits can index the table */
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < end; i++) {
+            h = (h ^ (buffer.get(i) & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+}
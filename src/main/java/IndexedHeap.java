@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min-heap of stop ids with double keys (see NodeQueue).
+ *
+ * The heap is stored in two parallel arrays (the stop and the key in each slot), with the
+ * children of slot i in slots 4i+1 .. 4i+4; a 4-ary heap is shallower than a binary one,
+ * and the four children of a slot are next to each other in memory.
+ * positions[node] is the slot of each stop in the heap, so decreaseKey can find the stop
+ * and move it up, rather than adding it a second time.
+ */
+
+class IndexedHeap implements NodeQueue {
+
+    private int[] nodes = new int[16];        // stop in each slot
+    private double[] keys = new double[16];   // key of each slot
+    private int[] positions = new int[0];     // slot of each stop (only valid while it is in the heap)
+    private int size = 0;
+
+    public void ensureCapacity(int n) {
+        if (positions.length < n) {positions = Arrays.copyOf(positions, n);}
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(int node, double key) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        siftUp(size++, node, key);
+    }
+
+    public void decreaseKey(int node, double key) {
+        siftUp(positions[node], node, key);
+    }
+
+    public double minKey() {
+        return keys[0];
+    }
+
+    public int poll() {
+        int top = nodes[0];
+        size--;
+        if (size > 0) {siftDown(0, nodes[size], keys[size]);}
+        return top;
+    }
+
+    /** Put the node with the key into the slot, or above it if its parents have larger keys */
+    private void siftUp(int slot, int node, double key) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 2;
+            if (keys[parent] <= key) {break;}
+            place(slot, nodes[parent], keys[parent]);
+            slot = parent;
+        }
+        place(slot, node, key);
+    }
+
+    /** Put the node with the key into the slot, or below it if its children have smaller keys */
+    private void siftDown(int slot, int node, double key) {
+        while (true) {
+            int first = 4 * slot + 1;
+            if (first >= size) {break;}
+            int best = first;
+            int last = Math.min(first + 4, size);
+            for (int child = first + 1; child < last; child++) {
+                if (keys[child] < keys[best]) {best = child;}
+            }
+            if (keys[best] >= key) {break;}
+            place(slot, nodes[best], keys[best]);
+            slot = best;
+        }
+        place(slot, node, key);
+    }
+
+    private void place(int slot, int node, double key) {
+        nodes[slot] = node;
+        keys[slot] = key;
+        positions[node] = slot;
+    }
+
+}
@@ -0,0 +1,78 @@
+import java.util.*;
+
+/**
+ * A journey through the timetable found by one of the timetable searches (see Raptor):
+ * a list of legs, each a ride on a trip from one stop to another, or a walk (or transfer)
+ * between two stops. Times are in seconds after midnight (see Timetable.formatTime(..)).
+ */
+
+public class Journey {
+
+    /** One leg of a journey: a ride on a trip, or a walk if tripId is null */
+    public static class Leg {
+        private final Stop from;
+        private final Stop to;
+        private final int departure;
+        private final int arrival;
+        private final String tripId;
+        private final String routeId;
+
+        public Leg(Stop from, Stop to, int departure, int arrival, String tripId, String routeId) {
+            this.from = from;
+            this.to = to;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.tripId = tripId;
+            this.routeId = routeId;
+        }
+
+        public Stop getFrom() {return from;}
+        public Stop getTo() {return to;}
+        public int getDeparture() {return departure;}
+        public int getArrival() {return arrival;}
+        public String getTripId() {return tripId;}
+        public String getRouteId() {return routeId;}
+        public boolean isWalk() {return tripId == null;}
+
+        public String toString() {
+            return Timetable.formatTime(departure) + " " + from.getName() + " -> " + Timetable.formatTime(arrival) + " " + to.getName()
+                + (isWalk() ? " (walk)" : " (" + ((routeId == null) ? "" : routeId + ", ") + "trip " + tripId + ")");
+        }
+    }
+
+    private final List<Leg> legs;
+
+    public Journey(List<Leg> legs) {
+        this.legs = Collections.unmodifiableList(new ArrayList<Leg>(legs));
+    }
+
+    public List<Leg> getLegs() {return legs;}
+
+    /** Time of leaving the first stop (-1 if the journey has no legs) */
+    public int getDeparture() {
+        return legs.isEmpty() ? -1 : legs.get(0).getDeparture();
+    }
+
+    /** Time of reaching the last stop (-1 if the journey has no legs) */
+    public int getArrival() {
+        return legs.isEmpty() ? -1 : legs.get(legs.size() - 1).getArrival();
+    }
+
+    /** Number of trips ridden */
+    public int getTripCount() {
+        int count = 0;
+        for (Leg leg : legs) {
+            if (!leg.isWalk()) {count++;}
+        }
+        return count;
+    }
+
+    public String toString() {
+        StringBuilder ans = new StringBuilder();
+        ans.append("Journey ").append(Timetable.formatTime(getDeparture())).append(" - ").append(Timetable.formatTime(getArrival()))
+           .append(", ").append(getTripCount()).append(" trips");
+        for (Leg leg : legs) {ans.append("\n  ").append(leg);}
+        return ans.toString();
+    }
+
+}
@@ -0,0 +1,150 @@
+import java.util.*;
+
+/**
+ * Landmarks for the ALT (A*, Landmarks and the Triangle inequality) heuristic.
+ *
+ * A few stops are chosen as landmarks, and the cost of the shortest path from each
+ * landmark L to every stop v, d(L, v), and from every stop to each landmark, d(v, L),
+ * are worked out once (by Dijkstra's algorithm, forward and backward from L).
+ * By the triangle inequality, the cost of getting from any stop v to any stop t is at least
+ *     d(L, t) - d(L, v)   and   d(v, L) - d(t, L)
+ * for every landmark, and the largest of these is a lower bound that follows the network
+ * (eg, the real bus times) far more closely than a straight line at the fastest speed.
+ *
+ * Landmarks are chosen by "farthest" selection: the first is the stop farthest from stop 0,
+ * and each next one is the stop whose nearest landmark is farthest from it, so they end up
+ * spread round the edges of the network, behind the stops that queries go between.
+ *
+ * The costs are worked out over all the walking edges the CompactGraph has precomputed (up
+ * to its maximum walking distance), so the bounds are still lower bounds for any shorter
+ * walking distance; the Router builds new landmarks when the compact graph is rebuilt.
+ * The costs are stored in two arrays with the entries for each stop next to each other.
+ * The landmarks do not change once built, so they can be used from any thread.
+ */
+
+public class Landmarks {
+
+    private final CompactGraph graph;
+    private final Router.Cost cost;
+    private final int[] landmarks;          // stop id of each landmark
+    private final int k;                    // number of landmarks
+    private final double[] fromLandmark;    // d(L, v) at v*k + L (infinite if there is no path)
+    private final double[] toLandmark;      // d(v, L) at v*k + L
+
+    /**
+     * Choose count landmarks (fewer if there are not that many stops) and work out
+     * the costs from and to them.
+     */
+    public Landmarks(CompactGraph graph, Router.Cost cost, int count) {
+        this.graph = graph;
+        this.cost = cost;
+        int n = graph.size();
+        k = Math.max(0, Math.min(count, n));
+        landmarks = new int[k];
+        fromLandmark = new double[n * k];
+        toLandmark = new double[n * k];
+        if (k == 0) {return;}
+
+        IndexedHeap heap = new IndexedHeap();
+        heap.ensureCapacity(n);
+        double[] costs = new double[n];
+        double[] nearest = new double[n];     // cost from the nearest landmark chosen so far
+
+        shortestCosts(0, true, heap, costs);
+        int next = farthest(costs);
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        for (int l = 0; l < k; l++) {
+            landmarks[l] = next;
+            shortestCosts(next, true, heap, costs);
+            for (int v = 0; v < n; v++) {
+                fromLandmark[v * k + l] = costs[v];
+                nearest[v] = Math.min(nearest[v], costs[v]);
+            }
+            shortestCosts(next, false, heap, costs);
+            for (int v = 0; v < n; v++) {
+                toLandmark[v * k + l] = costs[v];
+            }
+            next = farthest(nearest);
+        }
+    }
+
+    /** The stop with the largest finite cost (ignoring stops that cannot be reached) */
+    private static int farthest(double[] costs) {
+        int best = 0;
+        for (int v = 1; v < costs.length; v++) {
+            if (costs[v] != Double.POSITIVE_INFINITY && (costs[best] == Double.POSITIVE_INFINITY || costs[v] > costs[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Dijkstra's algorithm from a stop, along the forward edges (costs from the stop)
+     * or the backward edges (costs to the stop), with all the precomputed walking edges.
+     */
+    private void shortestCosts(int source, boolean forward, IndexedHeap heap, double[] costs) {
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[costs.length];
+        boolean byTime = (cost == Router.Cost.TIME);
+        heap.clear();
+        costs[source] = 0;
+        heap.add(source, 0);
+        while (!heap.isEmpty()) {
+            int node = heap.poll();
+            settled[node] = true;
+            int first = forward ? graph.firstOut(node) : graph.firstIn(node);
+            int end = forward ? graph.endAllOut(node) : graph.endAllIn(node);
+            for (int edge = first; edge < end; edge++) {
+                int neighbour = forward ? graph.outTarget(edge) : graph.inSource(edge);
+                if (settled[neighbour]) {continue;}
+                double edgeCost = forward ? (byTime ? graph.outTime(edge) : graph.outDistance(edge))
+                                          : (byTime ? graph.inTime(edge) : graph.inDistance(edge));
+                double c = costs[node] + edgeCost;
+                if (costs[neighbour] == Double.POSITIVE_INFINITY) {
+                    costs[neighbour] = c;
+                    heap.add(neighbour, c);
+                } else if (c < costs[neighbour]) {
+                    costs[neighbour] = c;
+                    heap.decreaseKey(neighbour, c);
+                }
+            }
+        }
+    }
+
+    /** The compact graph the landmarks were built on */
+    public CompactGraph getCompactGraph() {
+        return graph;
+    }
+
+    /** Number of landmarks */
+    public int size() {
+        return k;
+    }
+
+    /** The stop of each landmark */
+    public List<Stop> getLandmarkStops() {
+        List<Stop> ans = new ArrayList<Stop>(k);
+        for (int l : landmarks) {ans.add(graph.stop(l));}
+        return ans;
+    }
+
+    /**
+     * A lower bound on the cost of the shortest path from stop id from to stop id to
+     * (0 if the landmarks give no bound)
+     */
+    public double lowerBound(int from, int to) {
+        double bound = 0;
+        int f = from * k;
+        int t = to * k;
+        for (int l = 0; l < k; l++) {
+            // the differences are only used when both costs are finite
+            double viaFrom = fromLandmark[t + l] - fromLandmark[f + l];    // d(L, to) - d(L, from)
+            double viaTo = toLandmark[f + l] - toLandmark[t + l];          // d(from, L) - d(to, L)
+            if (viaFrom > bound && fromLandmark[f + l] != Double.POSITIVE_INFINITY) {bound = viaFrom;}
+            if (viaTo > bound && toLandmark[t + l] != Double.POSITIVE_INFINITY) {bound = viaTo;}
+        }
+        return bound;
+    }
+
+}
@@ -0,0 +1,422 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the quickest paths (A* search by time) in one Graph, charging for changing lines.
+ *
+ * The Router treats every stop as one node, so a path can hop from one line to another at
+ * any stop for free. Here the state of the search is a stop together with the line the path
+ * arrived on (or "on foot", at the start or after a walk), packed into one long key
+ * (stop << 32 | line + 1), and the states that have been reached are numbered through a
+ * primitive open addressing map from the keys, with their costs and backpointers in arrays.
+ *
+ * Costs (all in seconds):
+ *  - riding an edge of a line costs its time;
+ *  - getting off one line and onto another at a stop also costs the change time for the stop;
+ *  - getting off a line and walking to another stop costs the change time for the two stops
+ *    (which allows for the walk), unless the walk goes straight to the goal;
+ *  - walking at the start or after a walk, and boarding a line after walking, cost nothing more.
+ * The change time between two stops is the minimum transfer time from transfers.txt (the
+ * smallest, if there are several for the pair of stops), or the walk plus
+ * Transport.TRANSFER_TIME if there is none. Transfers that are not possible (transfer_type 3)
+ * are left out, as in Timetable.
+ *
+ * The states of a stop could be as many as the lines through it, but most are not worth
+ * keeping: once the cheapest state of a stop has been visited at cost c, any state of the stop
+ * on a line costing at least c plus the change time at the stop can do nothing that the cheapest
+ * one cannot (it could change onto the same line for that much), so such states are dropped
+ * before they are added to the fringe, and again when they are taken out. The state on foot
+ * is always kept (there is only one per stop), as walking on from it costs less than getting
+ * off a line and walking.
+ * The heuristic is the Router's heuristic for time, which is still a lower bound, as the
+ * changes only add to the cost.
+ *
+ * Like the Router, it keeps no state that changes between queries (each thread has its own
+ * Scratch), so one LineChangeRouter can be used by many threads at once, with the same
+ * proviso about changing the walking distance.
+ */
+
+public class LineChangeRouter {
+
+    private static final int FOOT = -1;      // line of a state reached on foot (or the start)
+
+    private final Graph graph;
+    private final Router router;             // the Router for time, for its heuristic
+    private final Map<Line, Integer> lineIds = new HashMap<Line, Integer>();
+    private final LongIntMap transferTimes = new LongIntMap();   // (from stop, to stop) -> minimum transfer time
+    private final double[] stopChangeTimes;                      // change time at each stop (by index), used on every step
+    private volatile EdgeLines edgeLines = null;                 // for the current compact graph (built when first needed)
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // counts over all the searches (from all threads)
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder states = new LongAdder();       // states added to the fringe
+    private final LongAdder pruned = new LongAdder();       // states dropped as dominated
+
+    public LineChangeRouter(Graph graph) {
+        this.graph = graph;
+        this.router = graph.getRouter(Router.Cost.TIME);
+        for (Line line : graph.getLines()) {lineIds.putIfAbsent(line, lineIds.size());}
+        for (Transfer transfer : graph.getTransfers()) {
+            Stop from = transfer.getFromStop();
+            Stop to = transfer.getToStop();
+            if (from == null || to == null || transfer.getTranspType() == 3) {continue;}
+            long pair = key(from.getIndex(), to.getIndex());
+            int time = (int) Math.ceil(transfer.getMinTransferTime());
+            int known = transferTimes.get(pair, -1);
+            if (known < 0 || time < known) {transferTimes.put(pair, time);}
+        }
+        stopChangeTimes = new double[graph.getStops().size()];
+        for (Stop stop : graph.getStops()) {
+            int known = transferTimes.get(key(stop.getIndex(), stop.getIndex()), -1);
+            stopChangeTimes[stop.getIndex()] = (known >= 0) ? known : Transport.TRANSFER_TIME;
+        }
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    /** Number of searches so far */
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    /** Number of states added to the fringe, over all the searches so far */
+    public long getStateCount() {
+        return states.sum();
+    }
+
+    /** Number of states dropped because a cheaper state of the same stop dominated them */
+    public long getPrunedCount() {
+        return pruned.sum();
+    }
+
+    /** Set all the counts back to 0 */
+    public void resetCounts() {
+        searches.reset();
+        states.reset();
+        pruned.reset();
+    }
+
+    /**
+     * The time to change from a line at stop from to another line at stop to (the same stop
+     * or one walk away, taking walk seconds): the minimum transfer time for the pair, but
+     * never less than the walk, or the walk plus Transport.TRANSFER_TIME if there is none.
+     */
+    public double changeTime(int from, int to, double walk) {
+        if (from == to && walk == 0) {return stopChangeTimes[from];}
+        int known = transferTimes.get(key(from, to), -1);
+        return (known >= 0) ? Math.max(walk, known) : walk + Transport.TRANSFER_TIME;
+    }
+
+    /**
+     * Find the quickest path from start to goal, counting the changes of line, as a list of
+     * edges (empty if start is goal), or null if there is no path.
+     */
+    public List<Edge> findShortestPath(Stop start, Stop goal) {
+        if (start == null || goal == null) {return null;}
+        CompactGraph g = graph.getCompactGraph();
+        int[] lineOf = getEdgeLines(g);
+        Scratch s = scratch.get();
+        s.start(g.size());
+        int gen = s.generation;
+        int goalId = goal.getIndex();
+
+        List<Edge> path = null;
+        relax(s, start.getIndex(), FOOT, 0, -1, -1, estimate(s, start.getIndex(), goal));
+        while (!s.fringe.isEmpty()) {
+            int state = s.fringe.poll();
+            s.settled[state] = true;
+            int v = s.stateStops[state];
+            int line = s.stateLines[state];
+            double costToState = s.costs[state];
+            if (v == goalId) {
+                path = pathTo(g, s, state);
+                break;
+            }
+            if (s.bestStamps[v] != gen) {           // the cheapest state of the stop
+                s.bestStamps[v] = gen;
+                s.bestCosts[v] = costToState;
+            } else if (line != FOOT && dominated(s, v, costToState)) {
+                s.prunedCount++;
+                continue;
+            }
+            for (int edge = g.firstOut(v); edge < g.endOut(v); edge++) {
+                int neighbour = g.outTarget(edge);
+                int next = lineOf[edge];
+                double costSoFar = costToState + g.outTime(edge);
+                if (next != FOOT) {                 // ride (changing if it is another line)
+                    if (line != FOOT && line != next) {costSoFar += stopChangeTimes[v];}
+                } else if (line != FOOT && neighbour != goalId) {   // get off and walk
+                    costSoFar = costToState + changeTime(v, neighbour, g.outTime(edge));
+                }
+                if (next != FOOT && s.bestStamps[neighbour] == gen && dominated(s, neighbour, costSoFar)) {
+                    s.prunedCount++;
+                    continue;
+                }
+                relax(s, neighbour, next, costSoFar, state, edge, estimate(s, neighbour, goal));
+            }
+        }
+        searches.increment();
+        states.add(s.stateCount);
+        pruned.add(s.prunedCount);
+        return path;
+    }
+
+    /**
+     * The time of a path (as found by findShortestPath(..)), including the changes of line
+     * (Double.POSITIVE_INFINITY if the path is null)
+     */
+    public double pathTime(List<Edge> path) {
+        if (path == null) {return Double.POSITIVE_INFINITY;}
+        double time = 0;
+        Line line = null;                           // line the path is on (null on foot)
+        for (int i = 0; i < path.size(); i++) {
+            Edge edge = path.get(i);
+            int from = edge.fromStop().getIndex();
+            if (edge.line() != null) {
+                time += edge.time();
+                if (line != null && line != edge.line()) {time += changeTime(from, from, 0);}
+            } else if (line != null && i < path.size() - 1) {
+                time += changeTime(from, edge.toStop().getIndex(), edge.time());
+            } else {
+                time += edge.time();
+            }
+            line = edge.line();
+        }
+        return time;
+    }
+
+    /** Number of changes from one line to another along a path (walks between lines included) */
+    public static int countChanges(List<Edge> path) {
+        if (path == null) {return 0;}
+        int changes = 0;
+        Line line = null;                           // last line ridden
+        for (Edge edge : path) {
+            if (edge.line() == null) {continue;}
+            if (line != null && line != edge.line()) {changes++;}
+            line = edge.line();
+        }
+        return changes;
+    }
+
+    /** Whether a state of stop v on a line costing costSoFar is no better than the cheapest state of the stop plus a change there */
+    private boolean dominated(Scratch s, int v, double costSoFar) {
+        return s.bestCosts[v] + stopChangeTimes[v] <= costSoFar;
+    }
+
+    /**
+     * Reach the state (stop, line) at the given cost, if that is better than the cost it has
+     * been reached at already, adding it to the fringe or lowering its key
+     */
+    private static void relax(Scratch s, int stop, int line, double costSoFar, int from, int edge, double estimate) {
+        long key = key(stop, line + 1);
+        int state = s.states.get(key, -1);
+        if (state < 0) {
+            state = s.addState(key, stop, line);
+            s.costs[state] = costSoFar;
+            s.estimates[state] = estimate;
+            s.backStates[state] = from;
+            s.backEdges[state] = edge;
+            s.fringe.add(state, costSoFar + estimate);
+        } else if (!s.settled[state] && costSoFar < s.costs[state]) {
+            s.costs[state] = costSoFar;
+            s.backStates[state] = from;
+            s.backEdges[state] = edge;
+            s.fringe.decreaseKey(state, costSoFar + s.estimates[state]);
+        }
+    }
+
+    /** The heuristic estimate of the time from stop v to the goal (worked out once per stop per search) */
+    private double estimate(Scratch s, int v, Stop goal) {
+        if (s.estimateStamps[v] != s.generation) {
+            s.estimateStamps[v] = s.generation;
+            s.stopEstimates[v] = router.heuristic(graph.getCompactGraph().stop(v), goal);
+        }
+        return s.stopEstimates[v];
+    }
+
+    /** The path to a state, following the backpointers back to the start */
+    private static List<Edge> pathTo(CompactGraph g, Scratch s, int state) {
+        List<Edge> path = new ArrayList<Edge>();
+        for (; s.backEdges[state] >= 0; state = s.backStates[state]) {
+            path.add(g.outEdge(s.backEdges[state]));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xffffffffL);
+    }
+
+    /**
+     * The line of each out edge of the compact graph, numbered from 0 in the order of
+     * Graph.getLines() (-1 for walking edges), built once per compact graph
+     */
+    int[] getEdgeLines(CompactGraph g) {
+        EdgeLines current = edgeLines;
+        if (current == null || current.graph != g) {
+            int n = g.size();
+            int[] lineOf = new int[(n == 0) ? 0 : g.endAllOut(n - 1)];
+            Arrays.fill(lineOf, FOOT);
+            for (int v = 0; v < n; v++) {
+                for (int e = g.firstOut(v); e < g.firstWalkOut(v); e++) {
+                    Line line = g.outEdge(e).line();
+                    if (line != null) {lineOf[e] = lineIds.getOrDefault(line, FOOT);}
+                }
+            }
+            current = new EdgeLines(g, lineOf);
+            edgeLines = current;
+        }
+        return current.lines;
+    }
+
+    private static class EdgeLines {
+        final CompactGraph graph;
+        final int[] lines;
+
+        EdgeLines(CompactGraph graph, int[] lines) {
+            this.graph = graph;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * The state of the searches of one thread. The states of a search are numbered from 0 as
+     * they are reached; the entries for stops only count if their stamp is the current generation.
+     */
+    private static class Scratch {
+        int generation = 0;
+        final LongIntMap states = new LongIntMap();     // key of each state reached -> its number
+        final IndexedHeap fringe = new IndexedHeap();   // states reached but not yet visited, by estimated total time
+        int stateCount = 0;
+        int prunedCount = 0;
+
+        // for each state
+        int[] stateStops = new int[0];
+        int[] stateLines = new int[0];
+        double[] costs = new double[0];
+        double[] estimates = new double[0];
+        int[] backStates = new int[0];      // state it was reached from, -1 for the start
+        int[] backEdges = new int[0];       // edge (in the compact graph) it was reached by, -1 for the start
+        boolean[] settled = new boolean[0];
+
+        // for each stop
+        int[] bestStamps = new int[0];      // generation in which the cheapest state of the stop was visited
+        double[] bestCosts = new double[0];
+        int[] estimateStamps = new int[0];
+        double[] stopEstimates = new double[0];
+
+        void start(int n) {
+            if (bestStamps.length < n) {
+                bestStamps = new int[n];
+                bestCosts = new double[n];
+                estimateStamps = new int[n];
+                stopEstimates = new double[n];
+            }
+            if (generation == Integer.MAX_VALUE) {   // wrapped round: the old stamps could match again
+                Arrays.fill(bestStamps, 0);
+                Arrays.fill(estimateStamps, 0);
+                generation = 0;
+            }
+            generation++;
+            states.clear();
+            fringe.clear();
+            stateCount = 0;
+            prunedCount = 0;
+        }
+
+        int addState(long key, int stop, int line) {
+            if (stateCount == stateStops.length) {
+                int capacity = Math.max(1024, stateCount * 2);
+                stateStops = Arrays.copyOf(stateStops, capacity);
+                stateLines = Arrays.copyOf(stateLines, capacity);
+                costs = Arrays.copyOf(costs, capacity);
+                estimates = Arrays.copyOf(estimates, capacity);
+                backStates = Arrays.copyOf(backStates, capacity);
+                backEdges = Arrays.copyOf(backEdges, capacity);
+                settled = Arrays.copyOf(settled, capacity);
+                fringe.ensureCapacity(capacity);
+            }
+            int state = stateCount++;
+            stateStops[state] = stop;
+            stateLines[state] = line;
+            settled[state] = false;
+            states.put(key, state);
+            return state;
+        }
+    }
+
+    /**
+     * Open addressing hash map from long keys (never -1) to int values, with linear probing.
+     * clear() only empties the slots that were used, so a map that is cleared for every search
+     * costs no more than the entries put in it.
+     */
+    static class LongIntMap {
+        private static final long EMPTY = -1;
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private int[] used = new int[32];       // slots in use, in the order they were filled
+        private int size = 0;
+
+        LongIntMap() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** The value for the key, or missing if the key is not in the map */
+        int get(long key, int missing) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {return values[slot];}
+            }
+            return missing;
+        }
+
+        void put(long key, int value) {
+            if (2 * (size + 1) > keys.length) {grow();}
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            used[size++] = slot;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {keys[used[i]] = EMPTY;}
+            size = 0;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            int[] oldUsed = used;
+            int oldSize = size;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new int[oldKeys.length];
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+            for (int i = 0; i < oldSize; i++) {put(oldKeys[oldUsed[i]], oldValues[oldUsed[i]]);}
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+}
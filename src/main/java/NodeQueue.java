@@ -0,0 +1,36 @@
+/**
+ * Priority queue of stops (by their dense ids) for the shortest path searches, keyed by
+ * a double (eg, the estimated total cost), with decrease-key instead of adding a stop again.
+ * A stop can be in the queue at most once; the queues keep a position for every stop id,
+ * so they allocate nothing once they have grown to the size of the graph.
+ *
+ * The queue does not know which stops are in it: the caller must only add a stop that is
+ * not in the queue, and only decrease the key of one that is (the Router knows this from
+ * its generation stamps), so clearing the queue does not have to reset every stop.
+ */
+
+interface NodeQueue {
+
+    /** Make room for stop ids 0..n-1 */
+    void ensureCapacity(int n);
+
+    /** Remove all the stops */
+    void clear();
+
+    boolean isEmpty();
+
+    int size();
+
+    /** Add a stop that is not in the queue */
+    void add(int node, double key);
+
+    /** Lower the key of a stop that is in the queue (key must not be more than its current key) */
+    void decreaseKey(int node, double key);
+
+    /** The smallest key of any stop in the queue (the queue must not be empty) */
+    double minKey();
+
+    /** Remove and return the stop with the smallest key */
+    int poll();
+
+}
@@ -0,0 +1,472 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds all the Pareto-optimal paths between two stops of a Graph by three criteria:
+ * travel time, number of changes between lines, and meters walked. A path is in the answer
+ * unless some other path is at least as good by all three (and the answer keeps one path
+ * for each set of equal criteria).
+ *
+ * The time is counted as by the LineChangeRouter (riding and walking time, plus the change
+ * time for getting off one line and onto another), so the quickest path of the answer is as
+ * quick as the one the LineChangeRouter finds (unless that has more than maxChanges changes).
+ * The changes are the lines boarded, less one; boarding a line after walking counts as a
+ * change, even onto the same line. On the way the labels are compared by their boardings (the
+ * next line boarded is a change for any label that has boarded one already, but not for one
+ * that has only walked), and at the goal by their changes, so a path that only walks and one
+ * that rides a single line (both with no changes) are compared like any others.
+ *
+ * The search is a multi-criteria label-setting search (like A*, with a bag of labels at
+ * each stop instead of one cost). A label is a partial path: its stop, the line it arrived on
+ * (or on foot), its time, boardings and meters walked, and the label and edge it came from.
+ * Labels are taken from the fringe in order of time plus the heuristic estimate of the time to
+ * the goal (the Router's heuristic for time), so each label at the goal is taken out after all
+ * the quicker ones. A new label is dropped if a label in the bag of its stop dominates it, and
+ * removes the labels of the bag that it dominates. A label on a line can be dominated by one on
+ * another line (or on foot) that could change onto that line (another boarding, and the
+ * change time at the stop) and still be no worse, as in the LineChangeRouter; a label on foot
+ * is only dominated by another label on foot.
+ *
+ * Pruning:
+ *  - target pruning: a label is dropped if a path already found to the goal is no slower than
+ *    its time plus the heuristic, and has no more changes and no more walking;
+ *  - bounded bags: a label is dropped if it would need more than maxChanges changes; and a
+ *    bag can be limited to maxBagSize labels, dropping the slowest label still in the fringe
+ *    (or the new label, if that is slower) when it is full. The bags grow with every walking
+ *    edge on dense walking graphs, and limiting them bounds the work, but then some of the
+ *    answer may be missed (the labels dropped from full bags are counted). By default the
+ *    bags are not limited, and the answer is the full Pareto set.
+ *
+ * The labels are kept in parallel primitive arrays (in the Scratch of each thread, reused by
+ * all its searches), and the bags in runs of one arena of primitive arrays, so a search
+ * allocates nothing but the paths it returns once the arrays have grown. One ParetoRouter can
+ * be used by many threads at once, as long as the walking distance is not changed meanwhile
+ * (see CompactGraph).
+ */
+
+public class ParetoRouter {
+
+    /** Number of changes allowed unless a router is given a number */
+    public static final int DEFAULT_MAX_CHANGES = 4;
+
+    /** Bag size for no limit on the labels of a bag (the default) */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final int FOOT = -1;      // line of a label on foot (at the start or after a walk)
+
+    private final Graph graph;
+    private final Router router;             // the Router for time, for its heuristic
+    private final LineChangeRouter lineChangeRouter;   // for the change times
+    private final int maxChanges;
+    private final int maxBagSize;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // counts over all the searches (from all threads)
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder labels = new LongAdder();       // labels added to the fringe
+    private final LongAdder dropped = new LongAdder();      // labels dropped because their bag was full
+
+    public ParetoRouter(Graph graph) {
+        this(graph, DEFAULT_MAX_CHANGES, UNBOUNDED);
+    }
+
+    public ParetoRouter(Graph graph, int maxChanges, int maxBagSize) {
+        this.graph = graph;
+        this.router = graph.getRouter(Router.Cost.TIME);
+        this.lineChangeRouter = graph.getLineChangeRouter();
+        this.maxChanges = maxChanges;
+        this.maxBagSize = maxBagSize;
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public int getMaxChanges() {
+        return maxChanges;
+    }
+
+    public int getMaxBagSize() {
+        return maxBagSize;
+    }
+
+    /** Number of searches so far */
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    /** Number of labels added to the fringe, over all the searches so far */
+    public long getLabelCount() {
+        return labels.sum();
+    }
+
+    /** Number of labels dropped because the bag of their stop was full, over all the searches so far */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /** Set all the counts back to 0 */
+    public void resetCounts() {
+        searches.reset();
+        labels.reset();
+        dropped.reset();
+    }
+
+    /**
+     * Find the Pareto-optimal paths from start to goal, quickest first (each a list of edges;
+     * just an empty path if start is goal), or an empty list if there is no path.
+     */
+    public List<List<Edge>> findParetoPaths(Stop start, Stop goal) {
+        List<List<Edge>> paths = new ArrayList<List<Edge>>();
+        if (start == null || goal == null) {return paths;}
+        CompactGraph g = graph.getCompactGraph();
+        int[] lineOf = lineChangeRouter.getEdgeLines(g);
+        Scratch s = scratch.get();
+        int goalId = goal.getIndex();
+        s.start(g.size(), goalId);
+        int maxBoardings = maxChanges + 1;
+
+        addLabel(s, start.getIndex(), FOOT, 0, 0, 0, -1, -1, estimate(s, start.getIndex(), goal));
+        while (!s.fringe.isEmpty()) {
+            int label = s.fringe.poll();
+            if (s.removed[label]) {continue;}
+            s.settled[label] = true;
+            int v = s.labelStops[label];
+            if (v == goalId) {
+                if (s.resultCount == s.results.length) {s.results = Arrays.copyOf(s.results, s.resultCount * 2);}
+                s.results[s.resultCount++] = label;
+                continue;
+            }
+            int line = s.labelLines[label];
+            double time = s.times[label];
+            int boardings = s.boardings[label];
+            double walked = s.walked[label];
+            if (reachedGoal(s, time + estimate(s, v, goal), boardings, walked)) {continue;}   // found since it was added
+            for (int edge = g.firstOut(v); edge < g.endOut(v); edge++) {
+                int neighbour = g.outTarget(edge);
+                int next = lineOf[edge];
+                double nextTime = time + g.outTime(edge);
+                int nextBoardings = boardings;
+                double nextWalked = walked;
+                if (next != FOOT) {                 // ride (boarding if it is another line)
+                    if (line != next) {
+                        nextBoardings++;
+                        if (line != FOOT) {nextTime += lineChangeRouter.changeTime(v, v, 0);}
+                    }
+                } else {                            // walk (getting off a line, unless straight to the goal)
+                    if (line != FOOT && neighbour != goalId) {nextTime = time + lineChangeRouter.changeTime(v, neighbour, g.outTime(edge));}
+                    nextWalked += g.outDistance(edge);
+                }
+                if (nextBoardings > maxBoardings) {continue;}
+                double estimate = estimate(s, neighbour, goal);
+                if (reachedGoal(s, nextTime + estimate, nextBoardings, nextWalked)) {continue;}
+                addLabel(s, neighbour, next, nextTime, nextBoardings, nextWalked, label, edge, estimate);
+            }
+        }
+
+        // a path found later can only tie on time with one found earlier, but may then be better on the others
+        for (int i = 0; i < s.resultCount; i++) {
+            int r = s.results[i];
+            boolean dominated = false;
+            for (int j = 0; j < s.resultCount && !dominated; j++) {
+                int o = s.results[j];
+                int changesO = changes(s.boardings[o]);
+                int changesR = changes(s.boardings[r]);
+                dominated = j != i && s.times[o] <= s.times[r] && changesO <= changesR && s.walked[o] <= s.walked[r]
+                            && (j < i || changesO < changesR || s.walked[o] < s.walked[r]);
+            }
+            if (!dominated) {paths.add(pathTo(g, s, r));}
+        }
+        searches.increment();
+        labels.add(s.labelCount);
+        dropped.add(s.droppedCount);
+        return paths;
+    }
+
+    /** The meters walked along a path */
+    public static double walkingDistance(List<Edge> path) {
+        double distance = 0;
+        for (Edge edge : path) {
+            if (edge.line() == null) {distance += edge.distance();}
+        }
+        return distance;
+    }
+
+    /** The number of changes along a path, as the search counts them: the lines boarded, less one */
+    public static int countChanges(List<Edge> path) {
+        int boardings = 0;
+        Line line = null;                           // line the path is on (null on foot)
+        for (Edge edge : path) {
+            if (edge.line() != null && edge.line() != line) {boardings++;}
+            line = edge.line();
+        }
+        return changes(boardings);
+    }
+
+    /** The number of changes for a number of boardings */
+    private static int changes(int boardings) {
+        return Math.max(0, boardings - 1);
+    }
+
+    /** The time of a path, including the changes of line (see LineChangeRouter.pathTime(..)) */
+    public double pathTime(List<Edge> path) {
+        return lineChangeRouter.pathTime(path);
+    }
+
+    /**
+     * Whether a path already found to the goal is at least as good as these (lower bounds of the)
+     * criteria, comparing the changes (which can only go up with the boardings)
+     */
+    private static boolean reachedGoal(Scratch s, double time, int boardings, double walked) {
+        int changes = changes(boardings);
+        for (int i = 0; i < s.resultCount; i++) {
+            int r = s.results[i];
+            if (s.times[r] <= time && changes(s.boardings[r]) <= changes && s.walked[r] <= walked) {return true;}
+        }
+        return false;
+    }
+
+    /**
+     * Add a label to the bag of its stop and to the fringe, unless a label of the bag dominates
+     * it (or the bag is full), removing the labels of the bag that it dominates.
+     */
+    private void addLabel(Scratch s, int stop, int line, double time, int boardings, double walked,
+                          int from, int edge, double estimate) {
+        if (s.bagStamps[stop] != s.generation) {
+            s.bagStamps[stop] = s.generation;
+            s.bagStarts[stop] = s.arenaSize;
+            s.bagSizes[stop] = 0;
+            s.bagCapacities[stop] = 0;
+        }
+        int start = s.bagStarts[stop];
+        int size = s.bagSizes[stop];
+        // at the goal the paths end, so the line they arrived on does not matter, and they are compared by changes
+        boolean atGoal = (stop == s.goal);
+        double change = atGoal ? 0 : lineChangeRouter.changeTime(stop, stop, 0);
+        int newLine = atGoal ? FOOT : line;
+        int newCount = atGoal ? changes(boardings) : boardings;
+        int kept = 0;                                   // the labels kept are moved down over the ones removed
+        for (int i = 0; i < size; i++) {
+            int e = start + i;
+            int otherLine = atGoal ? FOOT : s.bagLines[e];
+            int otherCount = atGoal ? changes(s.bagBoardings[e]) : s.bagBoardings[e];
+            if (dominates(otherLine, s.bagTimes[e], otherCount, s.bagWalked[e],
+                          newLine, time, newCount, walked, change)) {
+                s.moveEntries(start + i, start + kept, size - i);
+                s.swapEntries(start, start + kept);     // move it to the front, as it may well dominate the next one too
+                s.bagSizes[stop] = kept + size - i;
+                return;
+            }
+            if (dominates(newLine, time, newCount, walked, otherLine,
+                          s.bagTimes[e], otherCount, s.bagWalked[e], change) && !s.settled[s.bagLabels[e]]) {
+                s.removed[s.bagLabels[e]] = true;       // still in the fringe: skipped when taken out
+                continue;
+            }
+            if (kept < i) {s.copyEntry(e, start + kept);}
+            kept++;
+        }
+        size = kept;
+        if (size >= maxBagSize) {                       // full: make room by dropping the slowest label still in the fringe
+            s.droppedCount++;
+            int slowest = -1;
+            for (int e = start; e < start + size; e++) {
+                if (!s.settled[s.bagLabels[e]] && (slowest < 0 || s.bagTimes[e] > s.bagTimes[slowest])) {slowest = e;}
+            }
+            if (slowest < 0 || s.bagTimes[slowest] <= time) {
+                s.bagSizes[stop] = size;
+                return;
+            }
+            s.removed[s.bagLabels[slowest]] = true;
+            s.copyEntry(start + size - 1, slowest);
+            size--;
+        }
+        if (size == s.bagCapacities[stop]) {start = s.growBag(stop, size);}
+
+        int label = s.newLabel();
+        s.labelStops[label] = stop;
+        s.labelLines[label] = line;
+        s.times[label] = time;
+        s.boardings[label] = boardings;
+        s.walked[label] = walked;
+        s.backLabels[label] = from;
+        s.backEdges[label] = edge;
+        int e = start + size;
+        s.bagLabels[e] = label;
+        s.bagLines[e] = line;
+        s.bagTimes[e] = time;
+        s.bagBoardings[e] = boardings;
+        s.bagWalked[e] = walked;
+        s.bagSizes[stop] = size + 1;
+        s.fringe.add(label, time + estimate);
+    }
+
+    /**
+     * Whether label a (at some stop, with the given line and criteria) is at least as good as
+     * label b at the same stop, for anything that b could go on to do. To carry on along b's
+     * line, a may need another boarding and the change time at the stop.
+     * (At the goal the labels are both on foot, and compared by changes instead of boardings.)
+     */
+    private static boolean dominates(int lineA, double timeA, int boardingsA, double walkedA,
+                                     int lineB, double timeB, int boardingsB, double walkedB, double change) {
+        if (walkedA > walkedB) {return false;}
+        if (lineA == lineB) {return timeA <= timeB && boardingsA <= boardingsB;}
+        if (lineB == FOOT) {return false;}
+        return timeA + ((lineA == FOOT) ? 0 : change) <= timeB && boardingsA + 1 <= boardingsB;
+    }
+
+    /** The heuristic estimate of the time from stop v to the goal (worked out once per stop per search) */
+    private double estimate(Scratch s, int v, Stop goal) {
+        if (s.estimateStamps[v] != s.generation) {
+            s.estimateStamps[v] = s.generation;
+            s.stopEstimates[v] = router.heuristic(graph.getCompactGraph().stop(v), goal);
+        }
+        return s.stopEstimates[v];
+    }
+
+    /** The path to a label, following the backpointers back to the start */
+    private static List<Edge> pathTo(CompactGraph g, Scratch s, int label) {
+        List<Edge> path = new ArrayList<Edge>();
+        for (; s.backEdges[label] >= 0; label = s.backLabels[label]) {
+            path.add(g.outEdge(s.backEdges[label]));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * The state of the searches of one thread. The labels of a search are numbered from 0 as
+     * they are made; the entries for stops only count if their stamp is the current generation.
+     * The bag of each stop is a run of entries in the arena (a copy of the criteria of each of
+     * its labels, so that checking a new label against the bag reads the arena in order); a bag
+     * that outgrows its run is moved to a run twice the size at the end of the arena, or just
+     * grows if it is already at the end. The arena is emptied at the start of each search.
+     */
+    private static class Scratch {
+        int generation = 0;
+        final IndexedHeap fringe = new IndexedHeap();   // labels not yet taken out, by time plus estimate
+        int labelCount = 0;
+        int droppedCount = 0;
+        int goal = -1;
+        int[] results = new int[16];        // labels taken out at the goal
+        int resultCount = 0;
+
+        // for each label
+        int[] labelStops = new int[0];
+        int[] labelLines = new int[0];
+        double[] times = new double[0];
+        int[] boardings = new int[0];
+        double[] walked = new double[0];
+        int[] backLabels = new int[0];      // label it came from, -1 for the start
+        int[] backEdges = new int[0];       // edge (in the compact graph) it came by, -1 for the start
+        boolean[] settled = new boolean[0];
+        boolean[] removed = new boolean[0]; // dominated by a later label (or dropped from a full bag)
+
+        // the arena of bag entries
+        int arenaSize = 0;
+        int[] bagLabels = new int[0];
+        int[] bagLines = new int[0];
+        double[] bagTimes = new double[0];
+        int[] bagBoardings = new int[0];
+        double[] bagWalked = new double[0];
+
+        // for each stop
+        int[] bagStamps = new int[0];       // generation in which the bag of the stop was started
+        int[] bagStarts = new int[0];       // start of the run of the bag in the arena
+        int[] bagSizes = new int[0];
+        int[] bagCapacities = new int[0];   // length of the run
+        int[] estimateStamps = new int[0];
+        double[] stopEstimates = new double[0];
+
+        void start(int n, int goal) {
+            this.goal = goal;
+            if (bagStamps.length < n) {
+                bagStamps = new int[n];
+                bagStarts = new int[n];
+                bagSizes = new int[n];
+                bagCapacities = new int[n];
+                estimateStamps = new int[n];
+                stopEstimates = new double[n];
+            }
+            if (generation == Integer.MAX_VALUE) {   // wrapped round: the old stamps could match again
+                Arrays.fill(bagStamps, 0);
+                Arrays.fill(estimateStamps, 0);
+                generation = 0;
+            }
+            generation++;
+            fringe.clear();
+            labelCount = 0;
+            droppedCount = 0;
+            resultCount = 0;
+            arenaSize = 0;
+        }
+
+        int newLabel() {
+            if (labelCount == labelStops.length) {
+                int capacity = Math.max(1024, labelCount * 2);
+                labelStops = Arrays.copyOf(labelStops, capacity);
+                labelLines = Arrays.copyOf(labelLines, capacity);
+                times = Arrays.copyOf(times, capacity);
+                boardings = Arrays.copyOf(boardings, capacity);
+                walked = Arrays.copyOf(walked, capacity);
+                backLabels = Arrays.copyOf(backLabels, capacity);
+                backEdges = Arrays.copyOf(backEdges, capacity);
+                settled = Arrays.copyOf(settled, capacity);
+                removed = Arrays.copyOf(removed, capacity);
+                fringe.ensureCapacity(capacity);
+            }
+            int label = labelCount++;
+            settled[label] = false;
+            removed[label] = false;
+            return label;
+        }
+
+        /** Make room for another entry in the bag of the stop (which holds size entries), returning its new start */
+        int growBag(int stop, int size) {
+            int capacity = Math.max(4, 2 * bagCapacities[stop]);
+            int start = bagStarts[stop];
+            int newStart = (start + bagCapacities[stop] == arenaSize) ? start : arenaSize;   // at the end: grow in place
+            if (newStart + capacity > bagLabels.length) {
+                int length = Math.max(4096, 2 * (newStart + capacity));
+                bagLabels = Arrays.copyOf(bagLabels, length);
+                bagLines = Arrays.copyOf(bagLines, length);
+                bagTimes = Arrays.copyOf(bagTimes, length);
+                bagBoardings = Arrays.copyOf(bagBoardings, length);
+                bagWalked = Arrays.copyOf(bagWalked, length);
+            }
+            if (newStart != start) {moveEntries(start, newStart, size);}
+            arenaSize = newStart + capacity;
+            bagStarts[stop] = newStart;
+            bagCapacities[stop] = capacity;
+            return newStart;
+        }
+
+        /** Copy count entries of the arena from one place to another */
+        void moveEntries(int from, int to, int count) {
+            if (from == to || count == 0) {return;}
+            System.arraycopy(bagLabels, from, bagLabels, to, count);
+            System.arraycopy(bagLines, from, bagLines, to, count);
+            System.arraycopy(bagTimes, from, bagTimes, to, count);
+            System.arraycopy(bagBoardings, from, bagBoardings, to, count);
+            System.arraycopy(bagWalked, from, bagWalked, to, count);
+        }
+
+        void copyEntry(int from, int to) {
+            bagLabels[to] = bagLabels[from];
+            bagLines[to] = bagLines[from];
+            bagTimes[to] = bagTimes[from];
+            bagBoardings[to] = bagBoardings[from];
+            bagWalked[to] = bagWalked[from];
+        }
+
+        void swapEntries(int i, int j) {
+            if (i == j) {return;}
+            int label = bagLabels[i]; bagLabels[i] = bagLabels[j]; bagLabels[j] = label;
+            int line = bagLines[i]; bagLines[i] = bagLines[j]; bagLines[j] = line;
+            double time = bagTimes[i]; bagTimes[i] = bagTimes[j]; bagTimes[j] = time;
+            int board = bagBoardings[i]; bagBoardings[i] = bagBoardings[j]; bagBoardings[j] = board;
+            double walk = bagWalked[i]; bagWalked[i] = bagWalked[j]; bagWalked[j] = walk;
+        }
+    }
+
+}
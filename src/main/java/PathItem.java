@@ -2,12 +2,12 @@
  * AStar search (and Dijkstra search) uses a priority queue of partial paths
  * that the search is building.
  * Each partial path needs several pieces of information, to specify
- * the path to that point, its cost so far, and its estimated total cost
+ * the path to that point, its cost so far, and its estimated total cost.
+ * The node and edge are the ids of the stop and of the edge into it in the CompactGraph
+ * (previousEdge is -1 for the start of the path).
  */
 
-import java.util.List;
-
-public record PathItem(Stop currentNode, Edge previousEdge, double costSoFar, double estimatedTotalCost) implements Comparable<PathItem> {
+public record PathItem(int currentNode, int previousEdge, double costSoFar, double estimatedTotalCost) implements Comparable<PathItem> {
     @Override
     public int compareTo(PathItem other) {
         if (this.estimatedTotalCost < other.estimatedTotalCost) {
@@ -19,4 +19,3 @@ public record PathItem(Stop currentNode, Edge previousEdge, double costSoFar, do
         }
     }
 }
-
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+/**
+ * Radix heap of stop ids (see NodeQueue), for searches whose keys never go down:
+ * the key of every stop added is at least the key of the last stop polled
+ * (as in Dijkstra's algorithm, or A* with a consistent heuristic, eg times in whole seconds).
+ *
+ * The keys are doubles, used as their 64 bit patterns (with the bits of negative keys flipped,
+ * so that the patterns as signed longs are in the same order as the values), so the queue is
+ * exact for any costs, not just whole numbers, and takes the negative keys of the potentials
+ * of a bidirectional search.
+ * A stop is kept in bucket b, where b is the position of the highest bit in which its key
+ * differs from the last key polled (0 if it is the same, and 64 for the keys of the other
+ * sign to the last key, which are all larger); when bucket 0 is empty, the first
+ * bucket that is not empty is split up again around its smallest key.
+ * Each stop moves down the buckets at most 64 times, and add and decreaseKey are O(1).
+ *
+ * A key smaller than the last key polled (which a heuristic that is not quite consistent
+ * could give) is treated as the same as the last key, so the stop is polled next.
+ */
+
+class RadixQueue implements NodeQueue {
+
+    private static final int BUCKETS = 65;
+
+    private final int[][] buckets = new int[BUCKETS][];   // stops in each bucket
+    private final int[] bucketSizes = new int[BUCKETS];
+    private long[] keyBits = new long[0];       // key of each stop (bit pattern)
+    private int[] bucketOf = new int[0];        // bucket of each stop
+    private int[] indexOf = new int[0];         // index of each stop in its bucket
+    private long last = Long.MIN_VALUE;         // key of the last stop polled (as a long)
+    private int size = 0;
+
+    RadixQueue() {
+        for (int b = 0; b < BUCKETS; b++) {buckets[b] = new int[8];}
+    }
+
+    public void ensureCapacity(int n) {
+        if (keyBits.length < n) {
+            keyBits = Arrays.copyOf(keyBits, n);
+            bucketOf = Arrays.copyOf(bucketOf, n);
+            indexOf = Arrays.copyOf(indexOf, n);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(bucketSizes, 0);
+        last = Long.MIN_VALUE;
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(int node, double key) {
+        keyBits[node] = bits(key);
+        insert(node);
+        size++;
+    }
+
+    public void decreaseKey(int node, double key) {
+        remove(node);
+        keyBits[node] = bits(key);
+        insert(node);
+    }
+
+    public double minKey() {
+        fillFirstBucket();
+        return Double.longBitsToDouble(last ^ ((last >> 63) & Long.MAX_VALUE));
+    }
+
+    public int poll() {
+        fillFirstBucket();
+        size--;
+        return buckets[0][--bucketSizes[0]];
+    }
+
+    /**
+     * If bucket 0 is empty, make the smallest key in the first bucket that is not empty the
+     * last key, and move all the stops in that bucket into lower buckets (so some go into bucket 0)
+     */
+    private void fillFirstBucket() {
+        if (bucketSizes[0] > 0) {return;}
+        int b = 1;
+        while (bucketSizes[b] == 0) {b++;}
+        int[] bucket = buckets[b];
+        int count = bucketSizes[b];
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {min = Math.min(min, keyBits[bucket[i]]);}
+        last = min;
+        bucketSizes[b] = 0;
+        for (int i = 0; i < count; i++) {insert(bucket[i]);}
+    }
+
+    /**
+     * The bit pattern of a key as a long in the same order as the keys (flipping all but the
+     * sign bit of negative keys, and with -0.0 as 0.0), not less than the last key polled
+     */
+    private long bits(double key) {
+        long bits = Double.doubleToLongBits(key + 0.0);
+        return Math.max(bits ^ ((bits >> 63) & Long.MAX_VALUE), last);
+    }
+
+    private void insert(int node) {
+        long diff = keyBits[node] ^ last;
+        int b = (diff == 0) ? 0 : 64 - Long.numberOfLeadingZeros(diff);
+        if (bucketSizes[b] == buckets[b].length) {buckets[b] = Arrays.copyOf(buckets[b], bucketSizes[b] * 2);}
+        bucketOf[node] = b;
+        indexOf[node] = bucketSizes[b];
+        buckets[b][bucketSizes[b]++] = node;
+    }
+
+    /** Take a stop out of its bucket, moving the last stop of the bucket into its place */
+    private void remove(int node) {
+        int b = bucketOf[node];
+        int moved = buckets[b][--bucketSizes[b]];
+        buckets[b][indexOf[node]] = moved;
+        indexOf[moved] = indexOf[node];
+    }
+
+}
@@ -0,0 +1,333 @@
+import java.util.*;
+
+/**
+ * Earliest arrival search through a Timetable, by RAPTOR (Round-bAsed Public Transit
+ * Optimized Router): instead of a priority queue, the search goes in rounds, and round k
+ * finds the earliest arrival at every stop using at most k trips.
+ *
+ * Each round looks at the stops whose arrival was improved in the round before, and scans
+ * once along each route that stops at any of them (from the first such stop): at each stop of
+ * the route it gets off the trip it is on if that arrives earlier than the best so far, and
+ * gets on an earlier trip of the route if it can catch one after arriving there in the round
+ * before (the trips of a route never overtake, so the first trip it can catch is found by
+ * binary search). Then it follows the footpaths (the current walking edges of the CompactGraph,
+ * and the transfers of the timetable) from the stops reached by a trip in the round.
+ * The search stops when a round improves nothing, or after maxTrips rounds.
+ * A change between trips at the same stop takes no time.
+ *
+ * A journey walks along at most one footpath between two trips. The footpaths are not closed
+ * (a stop may be a footpath from two stops that are not a footpath from each other), so the
+ * earliest arrival at a stop by a trip is kept apart from the earliest arrival by any means:
+ * a later arrival by a trip can still lead somewhere on foot that an earlier arrival on foot cannot.
+ *
+ * With a target stop, an arrival is only kept if it is earlier than the best arrival at the
+ * target so far, and the answer is the Pareto set of journeys: for each number of trips, the
+ * journey with that many trips, if it arrives earlier than any journey with fewer.
+ *
+ * The arrivals of every round are kept in flat arrays in a Scratch that belongs to the thread,
+ * so one Raptor can be used by many threads at once (eg, one search per thread for a batch
+ * of queries), as long as the walking distance is not changed meanwhile (see CompactGraph).
+ */
+
+public class Raptor {
+
+    public static final int DEFAULT_MAX_TRIPS = 6;
+    private static final int NONE = Integer.MAX_VALUE;      // arrival at a stop not reached
+
+    private final Timetable timetable;
+    private final ThreadLocal<Scratch> scratch;
+
+    public Raptor(Timetable timetable) {
+        this.timetable = timetable;
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    /**
+     * The arrays of a search: the entries of round k for stop v are at k*n + v.
+     *  arrivals:       earliest arrival at v with at most k trips (after walking)
+     *  tripArrivals:   arrival at v on a trip in round k (NONE if no trip arrived earlier than on any trip before)
+     *  trips, boardPositions, alightPositions: the trip of that arrival, and where it was got on and off
+     *  walkFrom:       the stop walked from, if the arrival of round k at v is by a footpath (-1 if not)
+     */
+    private static class Scratch {
+        int n = 0;
+        int rounds = 0;
+        int[] arrivals = new int[0];
+        int[] tripArrivals = new int[0];
+        int[] trips = new int[0];
+        int[] boardPositions = new int[0];
+        int[] alightPositions = new int[0];
+        int[] walkFrom = new int[0];
+        int[] bestTripArrivals = new int[0];  // earliest arrival at each stop on a trip, in any round so far
+        boolean[] marked = new boolean[0];    // stops whose arrival was improved in this round
+        int[] markedStops = new int[0];
+        int markedCount = 0;
+        boolean[] rode = new boolean[0];      // stops whose arrival on a trip was improved in this round
+        int[] rodeStops = new int[0];
+        int rodeCount = 0;
+        int[] routeStarts = new int[0];       // earliest position to scan each route from (-1 if not queued)
+        int[] queuedRoutes = new int[0];
+
+        void ensureCapacity(int n, int rounds, int routeCount) {
+            if (this.n < n || this.rounds < rounds) {
+                this.n = Math.max(this.n, n);
+                this.rounds = Math.max(this.rounds, rounds);
+                int size = this.n * this.rounds;
+                arrivals = new int[size];
+                tripArrivals = new int[size];
+                trips = new int[size];
+                boardPositions = new int[size];
+                alightPositions = new int[size];
+                walkFrom = new int[size];
+                bestTripArrivals = new int[this.n];
+                marked = new boolean[this.n];
+                markedStops = new int[this.n];
+                rode = new boolean[this.n];
+                rodeStops = new int[this.n];
+            }
+            if (routeStarts.length < routeCount) {
+                routeStarts = new int[routeCount];
+                queuedRoutes = new int[routeCount];
+                Arrays.fill(routeStarts, -1);
+            }
+        }
+
+        void mark(int v) {
+            if (!marked[v]) {
+                marked[v] = true;
+                markedStops[markedCount++] = v;
+            }
+        }
+
+        void markRode(int v) {
+            if (!rode[v]) {
+                rode[v] = true;
+                rodeStops[rodeCount++] = v;
+            }
+        }
+    }
+
+    //-------------------------------------------------------
+    //  Queries
+    //-------------------------------------------------------
+
+    /**
+     * Find the Pareto set of journeys from source to target leaving at or after departureTime
+     * (seconds after midnight), with at most DEFAULT_MAX_TRIPS trips: the fastest journey
+     * for each number of trips that arrives earlier than all journeys with fewer trips,
+     * fewest trips first. Empty if the target cannot be reached.
+     */
+    public List<Journey> findJourneys(Stop source, Stop target, int departureTime) {
+        return findJourneys(source, target, departureTime, DEFAULT_MAX_TRIPS);
+    }
+
+    /** As findJourneys(source, target, departureTime), with at most maxTrips trips */
+    public List<Journey> findJourneys(Stop source, Stop target, int departureTime, int maxTrips) {
+        List<Journey> ans = new ArrayList<Journey>();
+        if (source == null || target == null) {return ans;}
+        Scratch s = scratch.get();
+        CompactGraph graph = timetable.getGraph().getCompactGraph();
+        int goal = target.getIndex();
+        int rounds = search(s, graph, source.getIndex(), goal, departureTime, maxTrips);
+        int n = graph.size();
+        int best = NONE;
+        for (int k = 0; k < rounds; k++) {
+            int arrival = s.arrivals[k * n + goal];
+            if (arrival < best) {
+                best = arrival;
+                ans.add(journey(s, graph, k, goal));
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * The earliest arrival at every stop (by its dense id) from source, leaving at or after
+     * departureTime, with at most maxTrips trips (Integer.MAX_VALUE for stops not reached)
+     */
+    public int[] earliestArrivals(Stop source, int departureTime, int maxTrips) {
+        Scratch s = scratch.get();
+        CompactGraph graph = timetable.getGraph().getCompactGraph();
+        int rounds = search(s, graph, source.getIndex(), -1, departureTime, maxTrips);
+        int n = graph.size();
+        return Arrays.copyOfRange(s.arrivals, (rounds - 1) * n, rounds * n);
+    }
+
+    //-------------------------------------------------------
+    //  Search
+    //-------------------------------------------------------
+
+    /**
+     * Do the rounds of the search from source (pruned by the arrival at goal, if goal is not -1),
+     * and return the number of rounds done (including round 0, the walk from the source)
+     */
+    private int search(Scratch s, CompactGraph graph, int source, int goal, int departureTime, int maxTrips) {
+        int n = graph.size();
+        s.ensureCapacity(n, maxTrips + 1, timetable.routeCount());
+        Arrays.fill(s.arrivals, 0, n, NONE);
+        Arrays.fill(s.tripArrivals, 0, n, NONE);
+        Arrays.fill(s.walkFrom, 0, n, -1);
+        Arrays.fill(s.bestTripArrivals, 0, n, NONE);
+        for (int i = 0; i < s.markedCount; i++) {s.marked[s.markedStops[i]] = false;}    // left by the last round of the last search
+        s.markedCount = 0;
+        s.rodeCount = 0;
+
+        // round 0: the source (as if a trip had arrived there), and the stops a footpath away
+        s.arrivals[source] = departureTime;
+        s.tripArrivals[source] = departureTime;
+        s.bestTripArrivals[source] = departureTime;
+        s.mark(source);
+        s.markRode(source);
+        walk(s, graph, 0, goal);
+
+        int k = 1;
+        for (; k <= maxTrips && s.markedCount > 0; k++) {
+            int round = k * n;
+            int previous = round - n;
+            System.arraycopy(s.arrivals, previous, s.arrivals, round, n);
+            Arrays.fill(s.tripArrivals, round, round + n, NONE);
+            Arrays.fill(s.walkFrom, round, round + n, -1);
+
+            // queue the routes at the stops improved in the round before, from the earliest such stop
+            int queued = 0;
+            for (int i = 0; i < s.markedCount; i++) {
+                int v = s.markedStops[i];
+                s.marked[v] = false;
+                for (int j = timetable.firstRouteAt(v); j < timetable.endRouteAt(v); j++) {
+                    int r = timetable.routeAt(j);
+                    int p = timetable.positionAt(j);
+                    if (s.routeStarts[r] < 0) {
+                        s.queuedRoutes[queued++] = r;
+                        s.routeStarts[r] = p;
+                    } else if (p < s.routeStarts[r]) {
+                        s.routeStarts[r] = p;
+                    }
+                }
+            }
+            s.markedCount = 0;
+
+            // scan the routes
+            for (int i = 0; i < queued; i++) {
+                int r = s.queuedRoutes[i];
+                int trip = -1;
+                int board = -1;
+                for (int p = s.routeStarts[r]; p < timetable.routeLength(r); p++) {
+                    int v = timetable.routeStop(r, p);
+                    if (trip >= 0) {
+                        int arrival = timetable.arrival(trip, p);
+                        if (arrival < s.bestTripArrivals[v] && (goal < 0 || arrival < s.arrivals[round + goal])) {
+                            s.bestTripArrivals[v] = arrival;
+                            s.tripArrivals[round + v] = arrival;
+                            s.trips[round + v] = trip;
+                            s.boardPositions[round + v] = board;
+                            s.alightPositions[round + v] = p;
+                            s.markRode(v);
+                            if (arrival < s.arrivals[round + v]) {
+                                s.arrivals[round + v] = arrival;
+                                s.mark(v);
+                            }
+                        }
+                    }
+                    int ready = s.arrivals[previous + v];
+                    // (<=: an earlier trip that leaves at the same time is never behind later on)
+                    if (ready != NONE && (trip < 0 || ready <= timetable.departure(trip, p))) {
+                        int caught = firstTripFrom(r, p, ready, (trip < 0) ? timetable.endTrip(r) : trip);
+                        if (caught >= 0) {
+                            trip = caught;
+                            board = p;
+                        }
+                    }
+                }
+                s.routeStarts[r] = -1;
+            }
+
+            walk(s, graph, k, goal);
+        }
+        return k;
+    }
+
+    /**
+     * The first trip of route r before endTrip that leaves position p at or after time
+     * (-1 if there is none); the departures at p are in the order of the trips
+     */
+    private int firstTripFrom(int r, int p, int time, int endTrip) {
+        int low = timetable.firstTrip(r);
+        int high = endTrip;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timetable.departure(mid, p) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < endTrip) ? low : -1;
+    }
+
+    /** Follow the footpaths from the stops whose arrival on a trip was improved in round k (or the source, in round 0) */
+    private void walk(Scratch s, CompactGraph graph, int k, int goal) {
+        int round = k * graph.size();
+        for (int i = 0; i < s.rodeCount; i++) {
+            int v = s.rodeStops[i];
+            s.rode[v] = false;
+            int start = s.tripArrivals[round + v];
+            for (int e = graph.firstWalkOut(v); e < graph.endOut(v); e++) {
+                relaxWalk(s, round, goal, v, graph.outTarget(e), start + (int) Math.ceil(graph.outTime(e)));
+            }
+            for (int j = timetable.firstTransfer(v); j < timetable.endTransfer(v); j++) {
+                relaxWalk(s, round, goal, v, timetable.transferTarget(j), start + timetable.transferTime(j));
+            }
+        }
+        s.rodeCount = 0;
+    }
+
+    private static void relaxWalk(Scratch s, int round, int goal, int from, int to, int arrival) {
+        if (arrival < s.arrivals[round + to] && (goal < 0 || arrival < s.arrivals[round + goal])) {
+            s.arrivals[round + to] = arrival;
+            s.walkFrom[round + to] = from;
+            s.mark(to);
+        }
+    }
+
+    //-------------------------------------------------------
+    //  Journeys
+    //-------------------------------------------------------
+
+    /** The journey to stop v that arrives at s.arrivals[round k, v], from the labels of the rounds */
+    private Journey journey(Scratch s, CompactGraph graph, int k, int v) {
+        int n = graph.size();
+        LinkedList<Journey.Leg> legs = new LinkedList<Journey.Leg>();
+        while (true) {
+            // go back to the round in which the arrival at v was found
+            while (k > 0 && s.arrivals[(k - 1) * n + v] == s.arrivals[k * n + v]) {k--;}
+            int at = k * n + v;
+            int walkedFrom = s.walkFrom[at];
+            if (walkedFrom >= 0) {
+                legs.addFirst(new Journey.Leg(graph.stop(walkedFrom), graph.stop(v), s.tripArrivals[k * n + walkedFrom], s.arrivals[at], null, null));
+                v = walkedFrom;
+                at = k * n + v;
+            }
+            if (k == 0) {break;}       // v is the source
+            int trip = s.trips[at];
+            int route = timetable.tripRoute(trip);
+            int board = s.boardPositions[at];
+            int from = timetable.routeStop(route, board);
+            legs.addFirst(new Journey.Leg(graph.stop(from), graph.stop(v), timetable.departure(trip, board),
+                                          timetable.arrival(trip, s.alightPositions[at]), timetable.tripId(trip), timetable.routeId(route)));
+            v = from;
+            k--;
+        }
+        // leave the source as late as possible: end a first walk when the first trip leaves
+        if (legs.size() > 1 && legs.getFirst().isWalk()) {
+            Journey.Leg walk = legs.removeFirst();
+            int leave = legs.getFirst().getDeparture();
+            legs.addFirst(new Journey.Leg(walk.getFrom(), walk.getTo(), leave - (walk.getArrival() - walk.getDeparture()), leave, null, null));
+        }
+        return new Journey(legs);
+    }
+
+}
@@ -0,0 +1,461 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds shortest paths (A* search) in one Graph, by distance or by time.
+ *
+ * A Router holds no state that changes between queries: its graph and its cost are fixed
+ * when it is made, so one Router can be used by many threads at once.
+ * Everything a search needs (the best cost found so far for each stop, the edge used to
+ * reach it, whether it has been visited, and its heuristic estimate) is kept in arrays
+ * indexed by the stops' dense ids, in a Scratch that belongs to the thread doing the search
+ * and is reused by all the searches of that thread.
+ *
+ * The arrays are never cleared between searches. Each search has a new generation number,
+ * and the entries for a stop only count if the stop's stamp is the current generation;
+ * so starting a search costs nothing, and a search only touches the stops it reaches.
+ *
+ * The fringe is a NodeQueue holding each stop at most once: an IndexedHeap by default, or
+ * a RadixQueue, whose operations do not depend on the number of stops in the queue but which
+ * needs keys that never go down (best with Cost.TIME, as the times along lines are whole seconds).
+ * The heuristic is the larger of the straight line distance (at the fastest speed of any edge,
+ * for time) and the lower bound from the Landmarks, if the Router uses any. The landmarks are
+ * built the first time they are needed, and again if the compact graph has been rebuilt.
+ *
+ * findShortestPathBidirectional(..) searches from both ends at once, using a second set of arrays.
+ * costsFrom(..) works out the costs from one stop to all the others (up to a budget) in a
+ * single search with no goal and no heuristic (Dijkstra's algorithm), eg for isochrones.
+ * The Router counts the stops added to the fringe, the decreases of their keys, and the
+ * stops taken out, over all its searches.
+ *
+ * The Graph keeps one Router for each cost (see Graph.getRouter(..)).
+ * The search uses the compact graph and the walking distance that are current when it starts;
+ * the walking distance must not be changed while searches are running on other threads
+ * (see CompactGraph: the ends of its rows are rewritten in place, with no synchronisation).
+ */
+
+public class Router {
+
+    /** What a path costs: its length in meters, or its travel time in seconds */
+    public enum Cost {
+        DISTANCE, TIME;
+
+        /** The cost named by a string: "time", or anything else for distance (as AStar always did) */
+        public static Cost of(String timeOrDistance) {
+            return "time".equals(timeOrDistance) ? TIME : DISTANCE;
+        }
+    }
+
+    /** Which NodeQueue the searches use for the fringe */
+    public enum QueueType {HEAP, RADIX}
+
+    // the fast distance may be a tiny bit more than the haversine distance of an edge through rounding,
+    // so it is scaled down a little to keep the heuristic admissible (never more than the real cost)
+    private static final double HEURISTIC_SCALE = 1 - 1e-8;
+
+    /** Number of landmarks used by a Router unless it is given a number */
+    public static final int DEFAULT_LANDMARKS = 8;
+
+    private final Graph graph;
+    private final Cost cost;
+    private final QueueType queueType;
+    private final double heuristicFactor;   // heuristic = fast distance * heuristicFactor
+    private final int landmarkCount;
+    private volatile Landmarks landmarks = null;   // for the current compact graph (built when first needed)
+
+    private final ThreadLocal<Scratch> scratch;
+
+    // counts over all the searches (from all threads)
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder pushes = new LongAdder();       // stops added to the fringe
+    private final LongAdder decreases = new LongAdder();    // keys decreased in the fringe
+    private final LongAdder pops = new LongAdder();         // stops taken from the fringe
+
+    public Router(Graph graph, Cost cost) {
+        this(graph, cost, QueueType.HEAP, DEFAULT_LANDMARKS);
+    }
+
+    public Router(Graph graph, Cost cost, QueueType queueType) {
+        this(graph, cost, queueType, DEFAULT_LANDMARKS);
+    }
+
+    /** A router using the given number of landmarks for its heuristic (none if landmarkCount is 0) */
+    public Router(Graph graph, Cost cost, QueueType queueType, int landmarkCount) {
+        this.graph = graph;
+        this.cost = cost;
+        this.queueType = queueType;
+        this.landmarkCount = landmarkCount;
+        this.heuristicFactor = (cost == Cost.TIME) ? HEURISTIC_SCALE / fastestSpeed(graph) : HEURISTIC_SCALE;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(new Side(newQueue()), new Side(newQueue())));
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public Cost getCost() {
+        return cost;
+    }
+
+    public QueueType getQueueType() {
+        return queueType;
+    }
+
+    public int getLandmarkCount() {
+        return landmarkCount;
+    }
+
+    /**
+     * The landmarks for the compact graph, building them if they have not been built for it
+     * (null if the router uses no landmarks)
+     */
+    public Landmarks getLandmarks(CompactGraph g) {
+        if (landmarkCount <= 0) {return null;}
+        Landmarks current = landmarks;
+        if (current == null || current.getCompactGraph() != g) {
+            synchronized (this) {
+                current = landmarks;
+                if (current == null || current.getCompactGraph() != g) {
+                    long start = System.nanoTime();
+                    current = new Landmarks(g, cost, landmarkCount);
+                    landmarks = current;
+                    System.out.printf("Built %d landmarks (%s) in %.1f ms%n", current.size(), cost, (System.nanoTime() - start) / 1e6);
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Number of searches so far */
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    /** Number of stops added to the fringe, over all the searches so far */
+    public long getPushCount() {
+        return pushes.sum();
+    }
+
+    /** Number of times the key of a stop in the fringe was decreased, over all the searches so far */
+    public long getDecreaseCount() {
+        return decreases.sum();
+    }
+
+    /** Number of stops taken from the fringe, over all the searches so far */
+    public long getPopCount() {
+        return pops.sum();
+    }
+
+    /** Set all the counts back to 0 */
+    public void resetCounts() {
+        searches.reset();
+        pushes.reset();
+        decreases.reset();
+        pops.reset();
+    }
+
+    /**
+     * The state of the search from one end (forward from the start, or backward from the goal).
+     * The entries for stop v are only valid if reached[v] (or settled[v]) is the current generation.
+     */
+    private static class Side {
+        int[] reached = new int[0];         // generation in which the stop was reached
+        int[] settled = new int[0];         // generation in which the stop was visited (its cost is final)
+        double[] costs = new double[0];     // best cost found so far from this end
+        double[] estimates = new double[0]; // heuristic estimate of the cost to the other end
+        int[] backpointers = new int[0];    // edge (in the compact graph) used to reach the stop, -1 for this end
+        final NodeQueue fringe;             // stops reached but not yet visited, by estimated total cost
+
+        Side(NodeQueue fringe) {
+            this.fringe = fringe;
+        }
+
+        void ensureCapacity(int n) {
+            if (reached.length < n) {
+                reached = new int[n];
+                settled = new int[n];
+                costs = new double[n];
+                estimates = new double[n];
+                backpointers = new int[n];
+                fringe.ensureCapacity(n);
+            }
+        }
+    }
+
+    /**
+     * The state of the searches of one thread: a side for each direction (the backward side
+     * is only used, and only grows, for bidirectional searches), and counts for the current search.
+     */
+    private static class Scratch {
+        int generation = 0;
+        final Side forward;
+        final Side backward;
+        int pushCount, decreaseCount, popCount;
+
+        Scratch(Side forward, Side backward) {
+            this.forward = forward;
+            this.backward = backward;
+        }
+
+        /** Start a new search over n stops, in one direction or both */
+        void start(int n, boolean bothWays) {
+            forward.ensureCapacity(n);
+            if (bothWays) {backward.ensureCapacity(n);}
+            if (generation == Integer.MAX_VALUE) {   // wrapped round: the old stamps could match again
+                for (Side side : new Side[]{forward, backward}) {
+                    Arrays.fill(side.reached, 0);
+                    Arrays.fill(side.settled, 0);
+                }
+                generation = 0;
+            }
+            generation++;
+            forward.fringe.clear();
+            backward.fringe.clear();
+            pushCount = 0;
+            decreaseCount = 0;
+            popCount = 0;
+        }
+    }
+
+    private NodeQueue newQueue() {
+        return (queueType == QueueType.RADIX) ? new RadixQueue() : new IndexedHeap();
+    }
+
+    /** Add the counts of the search that has just finished to the totals */
+    private void count(Scratch s) {
+        searches.increment();
+        pushes.add(s.pushCount);
+        decreases.add(s.decreaseCount);
+        pops.add(s.popCount);
+    }
+
+    /**
+     * Find the shortest path from start to goal, as a list of edges
+     * (empty if start is goal), or null if there is no path.
+     */
+    public List<Edge> findShortestPath(Stop start, Stop goal) {
+        if (start == null || goal == null) {return null;}
+        CompactGraph g = graph.getCompactGraph();
+        Scratch s = scratch.get();
+        s.start(g.size(), false);
+        Side f = s.forward;
+        int gen = s.generation;
+        int goalId = goal.getIndex();
+        Landmarks lm = getLandmarks(g);
+
+        List<Edge> path = null;
+        relax(s, f, start.getIndex(), -1, 0, estimate(g, lm, start.getIndex(), goalId));
+        while (!f.fringe.isEmpty()) {
+            int node = f.fringe.poll();
+            s.popCount++;
+            f.settled[node] = gen;
+            if (node == goalId) {
+                path = pathTo(g, f.backpointers, goalId);
+                break;
+            }
+            double costToNode = f.costs[node];
+            for (int edge = g.firstOut(node); edge < g.endOut(node); edge++) {
+                int neighbour = g.outTarget(edge);
+                if (f.settled[neighbour] == gen) {continue;}
+                double estimate = (f.reached[neighbour] == gen) ? f.estimates[neighbour] : estimate(g, lm, neighbour, goalId);
+                relax(s, f, neighbour, edge, costToNode + edgeCost(g, edge), estimate);
+            }
+        }
+        count(s);
+        return path;
+    }
+
+    /**
+     * Work out the cost of the shortest path from source to every stop, up to a budget, in one
+     * search (Dijkstra's algorithm, stopping when every stop within the budget has been visited):
+     * costs[v] is set to the cost for each stop v (by index) that can be reached for at most the
+     * budget, and to Double.POSITIVE_INFINITY for all the others.
+     * costs must have room for all the stops of the compact graph (see CompactGraph.size()),
+     * so one array can be reused for many searches.
+     */
+    public void costsFrom(Stop source, double budget, double[] costs) {
+        CompactGraph g = graph.getCompactGraph();
+        Arrays.fill(costs, 0, g.size(), Double.POSITIVE_INFINITY);
+        if (source == null || !(budget >= 0)) {return;}
+        Scratch s = scratch.get();
+        s.start(g.size(), false);
+        Side f = s.forward;
+        int gen = s.generation;
+
+        relax(s, f, source.getIndex(), -1, 0, 0);
+        while (!f.fringe.isEmpty()) {
+            int node = f.fringe.poll();
+            s.popCount++;
+            f.settled[node] = gen;
+            double costToNode = f.costs[node];
+            costs[node] = costToNode;
+            for (int edge = g.firstOut(node); edge < g.endOut(node); edge++) {
+                int neighbour = g.outTarget(edge);
+                if (f.settled[neighbour] == gen) {continue;}
+                double costSoFar = costToNode + edgeCost(g, edge);
+                if (costSoFar <= budget) {relax(s, f, neighbour, edge, costSoFar, 0);}   // never past the budget
+            }
+        }
+        count(s);
+    }
+
+    /** The costs from source to every stop up to a budget, in a new array (see costsFrom(Stop, double, double[])) */
+    public double[] costsFrom(Stop source, double budget) {
+        double[] costs = new double[graph.getCompactGraph().size()];
+        costsFrom(source, budget, costs);
+        return costs;
+    }
+
+    /**
+     * Find the shortest path from start to goal (as for findShortestPath), searching forward
+     * from the start and backward from the goal (along the backward edges) at the same time,
+     * until the two searches meet in the middle.
+     *
+     * Each search is A* with the average of the two heuristics as its potential:
+     * forward, a stop v is estimated at (h(v, goal) - h(start, v)) / 2, and backward, at minus that
+     * (both plus h(start, goal) / 2, so that each end is estimated at h(start, goal), as in one-way A*;
+     * estimates in between can be negative). These are consistent with
+     * each other, so the cost of every path found through a stop reached by both searches is
+     * a real path cost, and the search can stop as soon as the smallest estimated totals in the
+     * two fringes add up to at least the best such path (plus h(start, goal)).
+     * Each step expands the side with the smaller fringe.
+     */
+    public List<Edge> findShortestPathBidirectional(Stop start, Stop goal) {
+        if (start == null || goal == null) {return null;}
+        CompactGraph g = graph.getCompactGraph();
+        Scratch s = scratch.get();
+        s.start(g.size(), true);
+        Side f = s.forward;
+        Side b = s.backward;
+        int gen = s.generation;
+        int startId = start.getIndex();
+        int goalId = goal.getIndex();
+        Landmarks lm = getLandmarks(g);
+        double offset = estimate(g, lm, startId, goalId);    // h(start, goal), the sum of the two estimates at any stop
+
+        double best = Double.POSITIVE_INFINITY;   // cost of the best path found so far
+        int meeting = -1;                          // stop at which it goes from the forward to the backward search
+        relax(s, f, startId, -1, 0, offset);
+        relax(s, b, goalId, -1, 0, offset);
+        if (start == goal) {
+            best = 0;
+            meeting = startId;
+        }
+
+        while (!f.fringe.isEmpty() && !b.fringe.isEmpty()
+               && f.fringe.minKey() + b.fringe.minKey() < best + offset) {
+            boolean forward = f.fringe.size() <= b.fringe.size();
+            Side side = forward ? f : b;
+            Side other = forward ? b : f;
+            int node = side.fringe.poll();
+            s.popCount++;
+            side.settled[node] = gen;
+            double costToNode = side.costs[node];
+            int first = forward ? g.firstOut(node) : g.firstIn(node);
+            int end = forward ? g.endOut(node) : g.endIn(node);
+            for (int edge = first; edge < end; edge++) {
+                int neighbour = forward ? g.outTarget(edge) : g.inSource(edge);
+                if (side.settled[neighbour] == gen) {continue;}
+                double estimate = (side.reached[neighbour] == gen) ? side.estimates[neighbour]
+                                  : potential(g, lm, neighbour, startId, goalId, offset, forward);
+                double edgeCost = forward ? edgeCost(g, edge) : inEdgeCost(g, edge);
+                relax(s, side, neighbour, edge, costToNode + edgeCost, estimate);
+                if (other.reached[neighbour] == gen && side.costs[neighbour] + other.costs[neighbour] < best) {
+                    best = side.costs[neighbour] + other.costs[neighbour];
+                    meeting = neighbour;
+                }
+            }
+        }
+        count(s);
+        if (meeting < 0) {return null;}
+        List<Edge> path = pathTo(g, f.backpointers, meeting);
+        // then along the backward search's edges from the meeting stop to the goal
+        for (int node = meeting, edge = b.backpointers[node]; edge >= 0; edge = b.backpointers[node]) {
+            path.add(g.inEdge(edge));
+            node = g.inEdge(edge).toStop().getIndex();
+        }
+        return path;
+    }
+
+    /**
+     * The estimate of the cost from a stop to the far end for one side of a bidirectional search:
+     * (h(stop, goal) - h(start, stop) + offset) / 2 going forward, and (h(start, stop) - h(stop, goal) + offset) / 2 backward
+     */
+    private double potential(CompactGraph g, Landmarks lm, int stop, int start, int goal, double offset, boolean forward) {
+        double toGoal = estimate(g, lm, stop, goal);
+        double fromStart = estimate(g, lm, start, stop);
+        return ((forward ? toGoal - fromStart : fromStart - toGoal) + offset) / 2;
+    }
+
+    /**
+     * Reach a stop from one end at the given cost (and estimated cost to the other end),
+     * if that is better than the cost it has been reached at already, adding the stop
+     * to the fringe or lowering its key.
+     */
+    private static void relax(Scratch s, Side side, int stop, int edge, double costSoFar, double estimate) {
+        // a stop that has been reached but not visited is in the fringe
+        if (side.reached[stop] != s.generation) {
+            side.reached[stop] = s.generation;
+            side.costs[stop] = costSoFar;
+            side.backpointers[stop] = edge;
+            side.estimates[stop] = estimate;
+            side.fringe.add(stop, costSoFar + estimate);
+            s.pushCount++;
+        } else if (costSoFar < side.costs[stop]) {
+            side.costs[stop] = costSoFar;
+            side.backpointers[stop] = edge;
+            side.fringe.decreaseKey(stop, costSoFar + side.estimates[stop]);
+            s.decreaseCount++;
+        }
+    }
+
+    /** The path to a stop, following the backpointers back to the start */
+    private static List<Edge> pathTo(CompactGraph g, int[] backpointers, int stop) {
+        List<Edge> path = new ArrayList<Edge>();
+        for (int edge = backpointers[stop]; edge >= 0; edge = backpointers[stop]) {
+            path.add(g.outEdge(edge));
+            stop = g.outEdge(edge).fromStop().getIndex();
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * The fastest speed (in meters per second) of any edge of the graph: the time heuristic is
+     * the distance to the goal at this speed, so that it is never more than the real time.
+     * (Some buses are faster than Transport.TRAIN_SPEED_MPS between stops.)
+     */
+    private static double fastestSpeed(Graph graph) {
+        double fastest = Math.max(Transport.TRAIN_SPEED_MPS, Transport.WALKING_SPEED_MPS);
+        for (Edge edge : graph.getLineEdges()) {
+            if (edge.distance() > 0) {fastest = Math.max(fastest, edge.distance() / edge.time());}   // infinite if the time is 0
+        }
+        return fastest;
+    }
+
+    /**
+     * Return the heuristic estimate of the cost to get from a stop to the goal: the larger of the
+     * fast distance (at the fastest speed, for time) and the lower bound from the landmarks
+     */
+    public double heuristic(Stop current, Stop goal) {
+        CompactGraph g = graph.getCompactGraph();
+        return estimate(g, getLandmarks(g), current.getIndex(), goal.getIndex());
+    }
+
+    /** The heuristic estimate of the cost from stop id from to stop id to */
+    private double estimate(CompactGraph g, Landmarks lm, int from, int to) {
+        double straight = g.stop(from).fastDistanceTo(g.stop(to)) * heuristicFactor;
+        return (lm == null) ? straight : Math.max(straight, lm.lowerBound(from, to) * HEURISTIC_SCALE);
+    }
+
+    /** Return the cost of traversing an edge (given by its index in the compact graph) */
+    public double edgeCost(CompactGraph g, int edge) {
+        return (cost == Cost.TIME) ? g.outTime(edge) : g.outDistance(edge);
+    }
+
+    /** Return the cost of traversing a backward edge (given by its index in the compact graph) */
+    public double inEdgeCost(CompactGraph g, int edge) {
+        return (cost == Cost.TIME) ? g.inTime(edge) : g.inDistance(edge);
+    }
+
+}
@@ -1,5 +1,7 @@
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -12,6 +14,11 @@ public class Stop implements Comparable<Stop> {
     private GisPoint loc;
     private String name;
     private String id;
+    private String desc = "";   // short description (stop_desc), eg "AroSt opp Holloway"
+    private int index = -1;     // dense id (0..n-1) given to the stop by the Graph; -1 if not in a graph
+    // fare zone the stop is in (see ZoneIndex); NO_ZONE if not known.
+    // volatile: it is set by a loader thread after the graph has been handed to the JavaFX thread
+    private volatile int zone = ZoneIndex.NO_ZONE;
 
     // data structure for holding a link to the lines that stop is part of
     private Collection<Line> lines = new HashSet<Line>();
@@ -20,6 +27,9 @@ public class Stop implements Comparable<Stop> {
     private Collection<Edge> forwardEdges = new HashSet<Edge>();
     private Collection<Edge> backwardEdges = new HashSet<Edge>();
 
+    // the compact view of the graph, which holds the (precomputed) walking edges of the stop
+    private CompactGraph compactGraph = null;
+
     // data structure for holding the set of (undirected) neighbours (stops) connected to this stop
     private Set<Stop> neighbours = new HashSet<Stop>();
 
@@ -61,6 +71,36 @@ public class Stop implements Comparable<Stop> {
         return id;
     }
 
+    public String getDesc() {
+        return desc;
+    }
+
+    public void setDesc(String desc) {
+        this.desc = (desc == null) ? "" : desc;
+    }
+
+    /**
+     * Get the dense index of the stop in its Graph (used by the CompactGraph view)
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Get the fare zone the stop is in (set from the zones by ZoneIndex.assignZones)
+     */
+    public int getZone() {
+        return zone;
+    }
+
+    public void setZone(int zone) {
+        this.zone = zone;
+    }
+
     /**
      * Returns distance in meters between this stop and a GisPoint
      */
@@ -75,6 +115,14 @@ public class Stop implements Comparable<Stop> {
         return this.loc.distance(toStop.loc);
     }
 
+    /**
+     * Returns the fast (trig free) distance in meters between this stop and another stop
+     * (see GisPoint.fastDistance); never more than distanceTo(..), up to rounding
+     */
+    public double fastDistanceTo(Stop toStop) {
+        return this.loc.fastDistance(toStop.loc);
+    }
+
     /**
      * Compare by alphabetic order of name,
      * If two stops have the same name, then
@@ -131,14 +179,32 @@ public class Stop implements Comparable<Stop> {
     //     (ie, the undirected graph)
     //--------------------------------------------
 
-    /** Get the collection of forwardEdges*/
+    /** Get the collection of forwardEdges, including the current walking edges*/
     public Collection<Edge> getForwardEdges() {
-        return Collections.unmodifiableCollection(forwardEdges);
+        if (compactGraph == null || compactGraph.firstWalkOut(index) == compactGraph.endOut(index)) {
+            return Collections.unmodifiableCollection(forwardEdges);
+        }
+        List<Edge> edges = new ArrayList<Edge>(forwardEdges);
+        edges.addAll(compactGraph.getWalkingEdgesOut(index));
+        return Collections.unmodifiableList(edges);
     }
 
-    /** Get the collection of backwardEdges*/
+    /** Get the collection of backwardEdges, including the current walking edges*/
     public Collection<Edge> getBackwardEdges(){
-        return Collections.unmodifiableCollection(backwardEdges);
+        if (compactGraph == null || compactGraph.firstWalkIn(index) == compactGraph.endIn(index)) {
+            return Collections.unmodifiableCollection(backwardEdges);
+        }
+        List<Edge> edges = new ArrayList<Edge>(backwardEdges);
+        edges.addAll(compactGraph.getWalkingEdgesIn(index));
+        return Collections.unmodifiableList(edges);
+    }
+
+    /**
+     * Set the compact view of the graph that holds the walking edges of this stop
+     * (null if the stop has no walking edges)
+     */
+    public void setCompactGraph(CompactGraph compactGraph) {
+        this.compactGraph = compactGraph;
     }
 
     /** Get the collection of neighbouring Stops*/
@@ -157,6 +223,7 @@ public class Stop implements Comparable<Stop> {
     }
     /**
      * Delete forward and backward edges of the specified type.
+     * (The walking edges in the compact graph are controlled by its walking distance instead.)
      */
     public void deleteEdgesOfType(String type) {
         // remove edges that are of the specified type
@@ -0,0 +1,120 @@
+import java.util.*;
+
+/**
+ * The locations of a collection of stops, stored as a structure of arrays (one array for
+ * each coordinate), for working out distances from one point to every stop in bulk: a
+ * brute-force scan, for when an index over the stops is not built (yet), or not worth building.
+ *
+ * Each stop is stored as its unit vector from the centre of the earth (x, y, z; as cached
+ * in GisPoint), so the distance between two points is a function of the straight line
+ * (chord) between them, with no trigonometry (see GisPoint.fastDistance). The loops are
+ * plain loops over the arrays (the JIT compiler vectorises the simpler ones by itself).
+ *
+ * The stops are numbered in the order of the collection they are built from (for the
+ * Graph, that is the order of the stops' indexes).
+ * The arrays do not change once built, so it can be used from any thread.
+ */
+
+public class StopCoordinates {
+
+    private final Stop[] stops;
+    private final double[] x, y, z;
+
+    public StopCoordinates(Collection<Stop> stopCollection) {
+        stops = stopCollection.toArray(new Stop[0]);
+        x = new double[stops.length];
+        y = new double[stops.length];
+        z = new double[stops.length];
+        for (int i = 0; i < stops.length; i++) {
+            GisPoint p = stops[i].getPoint();
+            x[i] = p.getUnitX();
+            y[i] = p.getUnitY();
+            z[i] = p.getUnitZ();
+        }
+    }
+
+    /** Number of stops */
+    public int size() {
+        return stops.length;
+    }
+
+    /** The stop with the given number */
+    public Stop stop(int i) {
+        return stops[i];
+    }
+
+    /**
+     * Return the fast distances (see GisPoint.fastDistance) in meters from the point
+     * to all the stops, indexed by stop number
+     */
+    public double[] distancesFrom(GisPoint point) {
+        double[] out = new double[stops.length];
+        distancesFrom(point, out);
+        return out;
+    }
+
+    /**
+     * Put the fast distances in meters from the point to all the stops into out
+     * (which must have at least size() elements)
+     */
+    public void distancesFrom(GisPoint point, double[] out) {
+        double px = point.getUnitX();
+        double py = point.getUnitY();
+        double pz = point.getUnitZ();
+        for (int i = 0; i < stops.length; i++) {
+            double dx = x[i] - px;
+            double dy = y[i] - py;
+            double dz = z[i] - pz;
+            out[i] = GisPoint.chordToDistance(Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+    }
+
+    /**
+     * Return the numbers of all the stops within the given (great circle) distance
+     * in meters of the point, in order of stop number
+     */
+    public int[] within(GisPoint point, double meters) {
+        int[] found = new int[stops.length];
+        double maxChord = GisPoint.distanceToChord(meters);
+        double maxSquaredChord = maxChord * maxChord;
+        double px = point.getUnitX();
+        double py = point.getUnitY();
+        double pz = point.getUnitZ();
+        int count = 0;
+        for (int i = 0; i < stops.length; i++) {
+            double dx = x[i] - px;
+            double dy = y[i] - py;
+            double dz = z[i] - pz;
+            if (dx * dx + dy * dy + dz * dz <= maxSquaredChord) {found[count++] = i;}
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /** Return all the stops within the given distance in meters of the point, in order of stop number */
+    public List<Stop> stopsWithin(GisPoint point, double meters) {
+        List<Stop> ans = new ArrayList<Stop>();
+        for (int i : within(point, meters)) {ans.add(stops[i]);}
+        return ans;
+    }
+
+    /** Return the number of the stop nearest to the point, or -1 if there are no stops */
+    public int nearest(GisPoint point) {
+        double px = point.getUnitX();
+        double py = point.getUnitY();
+        double pz = point.getUnitZ();
+        int best = -1;
+        double bestChord = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < stops.length; i++) {
+            double dx = x[i] - px;
+            double dy = y[i] - py;
+            double dz = z[i] - pz;
+            double chord = dx * dx + dy * dy + dz * dz;     // squared, which has the same order
+            if (chord < bestChord) {
+                best = i;
+                bestChord = chord;
+            }
+        }
+        return best;
+    }
+
+}
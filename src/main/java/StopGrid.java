@@ -0,0 +1,153 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A uniform grid over the locations of a collection of stops, used to find all
+ * the pairs of stops that are within some distance of each other without
+ * comparing every stop with every other stop.
+ *
+ * The cells are at least cellSize meters wide and high (everywhere in the region),
+ * so two stops that are within cellSize of each other are always in the same cell
+ * or in neighbouring cells.
+ * Only the non-empty cells are stored: the stops are sorted by the key of their cell,
+ * and cellKeys/cellStarts record where the stops of each cell start in that order.
+ */
+
+public class StopGrid {
+
+    /** Called once for each (unordered) pair of stops found by forEachPairWithin */
+    public interface PairVisitor {
+        void visit(Stop stop1, Stop stop2, double distance);
+    }
+
+    private final double cellSize;        // in meters
+    private final double minLon, minLat;
+    private final double cellWidth;       // in degrees of longitude
+    private final double cellHeight;      // in degrees of latitude
+    private final long numRows;
+
+    private final Stop[] stops;           // sorted by cell key (and by index within a cell)
+    private final long[] cellKeys;        // distinct cell keys, in increasing order
+    private final int[] cellStarts;       // first stop of each cell (plus an extra entry at the end)
+
+    /**
+     * Build the grid over the given stops, with cells of at least cellSize meters.
+     */
+    public StopGrid(Collection<Stop> stopCollection, double cellSize) {
+        this.cellSize = cellSize;
+        this.stops = stopCollection.toArray(new Stop[0]);
+
+        double minLo = Double.MAX_VALUE, minLa = Double.MAX_VALUE;
+        double maxLa = -Double.MAX_VALUE, maxAbsLat = 0;
+        for (Stop stop : stops) {
+            GisPoint p = stop.getPoint();
+            minLo = Math.min(minLo, p.getLon());
+            minLa = Math.min(minLa, p.getLat());
+            maxLa = Math.max(maxLa, p.getLat());
+            maxAbsLat = Math.max(maxAbsLat, Math.abs(p.getLat()));
+        }
+        this.minLon = minLo;
+        this.minLat = minLa;
+        // a degree of longitude is shortest furthest from the equator, so use that latitude
+        // for the width; the extra 1% covers the difference between the haversine and flat distances.
+        double size = Math.max(cellSize, 1.0) * 1.01;
+        this.cellHeight = size / GisPoint.SCALE;
+        this.cellWidth = size / (GisPoint.SCALE * Math.cos(Math.toRadians(Math.min(maxAbsLat, 89))));
+        this.numRows = (stops.length == 0) ? 1 : (long) ((maxLa - minLa) / cellHeight) + 3;
+
+        // sort the stops by cell key, then record the start of each distinct cell
+        long[] keys = new long[stops.length];
+        Integer[] order = new Integer[stops.length];
+        for (int i = 0; i < stops.length; i++) {
+            keys[i] = cellKey(column(stops[i].getPoint()), row(stops[i].getPoint()));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> (keys[a] != keys[b]) ? Long.compare(keys[a], keys[b])
+                                                          : Integer.compare(stops[a].getIndex(), stops[b].getIndex()));
+        Stop[] sorted = new Stop[stops.length];
+        long[] sortedKeys = new long[stops.length];
+        int cells = 0;
+        for (int i = 0; i < stops.length; i++) {
+            sorted[i] = stops[order[i]];
+            sortedKeys[i] = keys[order[i]];
+            if (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) {cells++;}
+        }
+        System.arraycopy(sorted, 0, stops, 0, stops.length);
+        cellKeys = new long[cells];
+        cellStarts = new int[cells + 1];
+        int c = 0;
+        for (int i = 0; i < stops.length; i++) {
+            if (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) {
+                cellKeys[c] = sortedKeys[i];
+                cellStarts[c] = i;
+                c++;
+            }
+        }
+        cellStarts[cells] = stops.length;
+    }
+
+    /** The size (in meters) that the grid was built for */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Visit every unordered pair of different stops that are at most maxDistance apart
+     * (which must not be more than the cell size), with the distance between them.
+     * Each pair is visited exactly once, and the distance is computed only once per pair.
+     */
+    public void forEachPairWithin(double maxDistance, PairVisitor visitor) {
+        if (maxDistance > cellSize) {
+            throw new IllegalArgumentException("Distance " + maxDistance + " is larger than the grid cells (" + cellSize + ")");
+        }
+        for (int c = 0; c < cellKeys.length; c++) {
+            long col = cellKeys[c] / numRows;
+            long row = cellKeys[c] % numRows;
+            // pairs within this cell
+            for (int i = cellStarts[c]; i < cellStarts[c + 1]; i++) {
+                for (int j = i + 1; j < cellStarts[c + 1]; j++) {
+                    visitIfClose(stops[i], stops[j], maxDistance, visitor);
+                }
+            }
+            // pairs with the "later" half of the neighbouring cells, so each pair of cells is only done once
+            visitCellPairs(c, col, row + 1, maxDistance, visitor);
+            visitCellPairs(c, col + 1, row - 1, maxDistance, visitor);
+            visitCellPairs(c, col + 1, row, maxDistance, visitor);
+            visitCellPairs(c, col + 1, row + 1, maxDistance, visitor);
+        }
+    }
+
+    private void visitCellPairs(int cell, long col, long row, double maxDistance, PairVisitor visitor) {
+        if (row < 0 || row >= numRows) {return;}
+        int other = Arrays.binarySearch(cellKeys, cellKey(col, row));
+        if (other < 0) {return;}
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+            for (int j = cellStarts[other]; j < cellStarts[other + 1]; j++) {
+                visitIfClose(stops[i], stops[j], maxDistance, visitor);
+            }
+        }
+    }
+
+    private static void visitIfClose(Stop stop1, Stop stop2, double maxDistance, PairVisitor visitor) {
+        // most pairs are too far apart, which the fast distance shows without any trigonometry;
+        // the exact distance is only worked out for the pairs that may be close enough
+        if (stop1.fastDistanceTo(stop2) > maxDistance * (1 + 1e-8)) {return;}
+        double distance = stop1.distanceTo(stop2);
+        if (distance <= maxDistance) {
+            visitor.visit(stop1, stop2, distance);
+        }
+    }
+
+    private long column(GisPoint p) {
+        return (long) ((p.getLon() - minLon) / cellWidth);
+    }
+
+    private long row(GisPoint p) {
+        return (long) ((p.getLat() - minLat) / cellHeight);
+    }
+
+    private long cellKey(long col, long row) {
+        return col * numRows + row;
+    }
+
+}
@@ -0,0 +1,122 @@
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index over the names of the stops, for looking stops up as the name is typed.
+ *
+ * The names are normalised (see normalise(..)) so that matching ignores case and
+ * macrons (and other accents), eg "te aro", "TE ARO" and "Te Aro"
+ * with a macron on the A all match "Te Aro".
+ * The normalised names are kept in one sorted array (with the stops in a parallel array),
+ * so the stops with a given prefix are a range of the array, found by binary search.
+ * The index does not change once built, so it can be used from any thread.
+ */
+
+public class StopNameIndex {
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+    private final String[] keys;     // normalised names, sorted
+    private final Stop[] stops;      // stop of each key
+
+    /**
+     * Build the index over the stops. Stops with the same normalised name are kept
+     * in the order of the stops (ie, alphabetic order of the names, then ids).
+     */
+    public StopNameIndex(Collection<Stop> stopCollection) {
+        int n = stopCollection.size();
+        Stop[] sorted = stopCollection.toArray(new Stop[n]);
+        Arrays.sort(sorted);
+        String[] normalised = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            normalised[i] = normalise(sorted[i].getName());
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int ans = normalised[a].compareTo(normalised[b]);
+            return (ans != 0) ? ans : Integer.compare(a, b);
+        });
+        keys = new String[n];
+        stops = new Stop[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = normalised[order[i]];
+            stops[i] = sorted[order[i]];
+        }
+    }
+
+    /**
+     * Normalise a name (or a prefix) for matching: lower case, without accents or macrons.
+     */
+    public static String normalise(String name) {
+        boolean ascii = true;
+        for (int i = 0; i < name.length() && ascii; i++) {
+            ascii = name.charAt(i) < 128;
+        }
+        if (!ascii) {
+            // split letters from their accents (eg, a with a macron -> a + macron) and drop the accents
+            name = ACCENTS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /** Number of stops in the index */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Return the first stop whose name starts with the prefix (ignoring case and macrons),
+     * or null if there is none
+     */
+    public Stop first(String prefix) {
+        String key = normalise(prefix);
+        int i = lowerBound(key);
+        return (i < keys.length && keys[i].startsWith(key)) ? stops[i] : null;
+    }
+
+    /**
+     * Return the stops whose names start with the prefix (ignoring case and macrons),
+     * in alphabetic order, but at most limit of them.
+     */
+    public List<Stop> withPrefix(String prefix, int limit) {
+        String key = normalise(prefix);
+        List<Stop> ans = new ArrayList<Stop>();
+        for (int i = lowerBound(key); i < keys.length && ans.size() < limit && keys[i].startsWith(key); i++) {
+            ans.add(stops[i]);
+        }
+        return ans;
+    }
+
+    /**
+     * Return the number of stops whose names start with the prefix (ignoring case and macrons)
+     */
+    public int count(String prefix) {
+        String key = normalise(prefix);
+        // the keys starting with key are the ones from lowerBound(key) up to the first key that is
+        // greater than key but does not start with it
+        int low = lowerBound(key);
+        int high = keys.length;
+        int from = low;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].startsWith(key)) {low = mid + 1;}
+            else {high = mid;}
+        }
+        return low - from;
+    }
+
+    /** Index of the first key that is not less than the given key */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {low = mid + 1;}
+            else {high = mid;}
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,209 @@
+import java.util.*;
+
+/**
+ * KD-tree over the locations of a collection of stops, for finding the stop nearest to
+ * a point (eg, a mouse click), the k nearest stops, and all the stops within some distance.
+ *
+ * The tree is stored in arrays, with no node objects: the stops are reordered so that
+ * each node is a range lo..hi-1 of the arrays, split at its middle element mid = (lo+hi)/2
+ * on latitude or longitude (whichever has the larger spread, in meters); the stops before
+ * mid are on the low side, and the stops after mid on the high side. Each node also has
+ * the bounding box (in degrees) of its stops, stored at the index of its middle element.
+ *
+ * Distances are the haversine distances of GisPoint.distance, so the answers are exactly
+ * the same as for comparing every stop. A node is skipped when a lower bound on the
+ * distance from the point to anything in its bounding box (see boxDistance) is too far.
+ * The tree does not change once built, so it can be used from any thread.
+ */
+
+public class StopTree {
+
+    private static final int LEAF_SIZE = 8;         // ranges this small are searched in order
+    private static final double R = 6371000;        // radius of the earth in meters (as in GisPoint.distance)
+
+    private final Stop[] stops;                     // in tree order
+    private final double[] lats, lons;              // location of each stop, in tree order
+    private final boolean[] splitOnLat;             // at the middle element of each node
+    private final double[] minLat, maxLat, minLon, maxLon;   // bounding box, at the middle element of each node
+
+    public StopTree(Collection<Stop> stopCollection) {
+        stops = stopCollection.toArray(new Stop[0]);
+        int n = stops.length;
+        lats = new double[n];
+        lons = new double[n];
+        splitOnLat = new boolean[n];
+        minLat = new double[n];
+        maxLat = new double[n];
+        minLon = new double[n];
+        maxLon = new double[n];
+        build(0, n);
+        for (int i = 0; i < n; i++) {
+            lats[i] = stops[i].getPoint().getLat();
+            lons[i] = stops[i].getPoint().getLon();
+        }
+    }
+
+    /** Arrange stops[lo..hi-1] into a subtree, and record the split and bounding box of each node */
+    private void build(int lo, int hi) {
+        if (hi - lo <= 0) {return;}
+        int mid = (lo + hi) >>> 1;
+        double minLa = Double.MAX_VALUE, maxLa = -Double.MAX_VALUE;
+        double minLo = Double.MAX_VALUE, maxLo = -Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            GisPoint p = stops[i].getPoint();
+            minLa = Math.min(minLa, p.getLat());
+            maxLa = Math.max(maxLa, p.getLat());
+            minLo = Math.min(minLo, p.getLon());
+            maxLo = Math.max(maxLo, p.getLon());
+        }
+        minLat[mid] = minLa;
+        maxLat[mid] = maxLa;
+        minLon[mid] = minLo;
+        maxLon[mid] = maxLo;
+        if (hi - lo <= LEAF_SIZE) {return;}
+
+        double cosLat = Math.cos(Math.toRadians((minLa + maxLa) / 2));
+        boolean byLat = (maxLa - minLa) >= (maxLo - minLo) * cosLat;
+        splitOnLat[mid] = byLat;
+        Comparator<Stop> order = byLat ? Comparator.comparingDouble((Stop s) -> s.getPoint().getLat())
+                                       : Comparator.comparingDouble((Stop s) -> s.getPoint().getLon());
+        Arrays.sort(stops, lo, hi, order);
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    /** Number of stops in the tree */
+    public int size() {
+        return stops.length;
+    }
+
+    //-------------------------------------------------------
+    //  Queries
+    //-------------------------------------------------------
+
+    /**
+     * Return the stop nearest to the point, or null if there are no stops
+     */
+    public Stop nearest(GisPoint point) {
+        List<Stop> found = kNearest(point, 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Return the k stops nearest to the point (fewer if there are not k stops), nearest first
+     */
+    public List<Stop> kNearest(GisPoint point, int k) {
+        Nearest best = new Nearest(Math.max(0, Math.min(k, stops.length)));
+        if (best.k > 0) {
+            searchNearest(0, stops.length, point.getLat(), point.getLon(), best);
+        }
+        List<Stop> ans = new ArrayList<Stop>(best.count);
+        for (int i = 0; i < best.count; i++) {ans.add(stops[best.found[i]]);}
+        return ans;
+    }
+
+    /**
+     * Return all the stops within the given distance (in meters) of the point, nearest first
+     */
+    public List<Stop> withinRadius(GisPoint point, double meters) {
+        List<double[]> found = new ArrayList<double[]>();      // (distance, stop)
+        searchRadius(0, stops.length, point.getLat(), point.getLon(), meters, found);
+        found.sort((a, b) -> Double.compare(a[0], b[0]));
+        List<Stop> ans = new ArrayList<Stop>(found.size());
+        for (double[] entry : found) {ans.add(stops[(int) entry[1]]);}
+        return ans;
+    }
+
+    /** The k nearest stops found so far, nearest first */
+    private static class Nearest {
+        final int k;
+        final int[] found;
+        final double[] distances;
+        int count = 0;
+
+        Nearest(int k) {
+            this.k = k;
+            found = new int[k];
+            distances = new double[k];
+        }
+
+        /** Distance that a stop must beat to be one of the k nearest */
+        double bound() {
+            return (count < k) ? Double.MAX_VALUE : distances[k - 1];
+        }
+
+        void offer(int stop, double distance) {
+            if (distance >= bound()) {return;}
+            int i = Math.min(count, k - 1);
+            while (i > 0 && distances[i - 1] > distance) {
+                found[i] = found[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            found[i] = stop;
+            distances[i] = distance;
+            if (count < k) {count++;}
+        }
+    }
+
+    private void searchNearest(int lo, int hi, double lat, double lon, Nearest best) {
+        if (hi - lo <= 0) {return;}
+        int mid = (lo + hi) >>> 1;
+        if (boxDistance(mid, lat, lon) >= best.bound()) {return;}
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                best.offer(i, GisPoint.distance(lat, lats[i], lon, lons[i], 0.0, 0.0));
+            }
+            return;
+        }
+        best.offer(mid, GisPoint.distance(lat, lats[mid], lon, lons[mid], 0.0, 0.0));
+        // search the side of the split that the point is on first
+        boolean lowFirst = splitOnLat[mid] ? (lat < lats[mid]) : (lon < lons[mid]);
+        if (lowFirst) {
+            searchNearest(lo, mid, lat, lon, best);
+            searchNearest(mid + 1, hi, lat, lon, best);
+        } else {
+            searchNearest(mid + 1, hi, lat, lon, best);
+            searchNearest(lo, mid, lat, lon, best);
+        }
+    }
+
+    private void searchRadius(int lo, int hi, double lat, double lon, double meters, List<double[]> found) {
+        if (hi - lo <= 0) {return;}
+        int mid = (lo + hi) >>> 1;
+        if (boxDistance(mid, lat, lon) > meters) {return;}
+        if (hi - lo <= LEAF_SIZE) {
+            for (int i = lo; i < hi; i++) {
+                double distance = GisPoint.distance(lat, lats[i], lon, lons[i], 0.0, 0.0);
+                if (distance <= meters) {found.add(new double[]{distance, i});}
+            }
+            return;
+        }
+        double distance = GisPoint.distance(lat, lats[mid], lon, lons[mid], 0.0, 0.0);
+        if (distance <= meters) {found.add(new double[]{distance, mid});}
+        searchRadius(lo, mid, lat, lon, meters, found);
+        searchRadius(mid + 1, hi, lat, lon, meters, found);
+    }
+
+    /**
+     * A lower bound on the (haversine) distance from the point to any point in the
+     * bounding box of the node with middle element mid.
+     * The haversine formula gives hav(d/R) = hav(dLat) + cos(lat1) cos(lat2) hav(dLon), and
+     * dLat and dLon are at least the gaps between the point and the box, and cos(lat2) is
+     * at least the cosine of the latitude in the box furthest from the equator.
+     */
+    private double boxDistance(int mid, double lat, double lon) {
+        double dLat = Math.max(0, Math.max(minLat[mid] - lat, lat - maxLat[mid]));
+        double dLon = Math.max(0, Math.max(minLon[mid] - lon, lon - maxLon[mid]));
+        if (dLon > 0) {   // or the other way round the earth (across longitude 180)
+            dLon = Math.min(dLon, 360 - (Math.max(maxLon[mid], lon) - Math.min(minLon[mid], lon)));
+        }
+        if (dLat == 0 && dLon == 0) {return 0;}
+        double sinLat = Math.sin(Math.toRadians(dLat) / 2);
+        double sinLon = Math.sin(Math.toRadians(Math.min(dLon, 180)) / 2);
+        double cosBox = Math.cos(Math.toRadians(Math.max(Math.abs(minLat[mid]), Math.abs(maxLat[mid]))));
+        double a = sinLat * sinLat + Math.cos(Math.toRadians(lat)) * cosBox * sinLon * sinLon;
+        return 2 * R * Math.asin(Math.sqrt(Math.min(1, a))) * (1 - 1e-12);   // a little less, for rounding
+    }
+
+}
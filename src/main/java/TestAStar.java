@@ -11,14 +11,9 @@ import java.util.stream.*;
  *  wrong with your code - either you haven't built the graph correctly, or
  *  your AStar method is not correct.
  *
- * Note that an error in the AStar.java template means that finding paths by
- *  time does not work.
- * The final test uses time. To make it work, you would need to replace
- *  the first three lines of findShortestPath(..) by the following:
- *
- *      public static List<Edge> findShortestPath(Stop start, Stop goal, String tOrD) {
- *      if (start == null || goal == null) {return null;}
- *      timeOrDistance= (tOrD.equals("time"))?"time":"distance";
+ * The final test finds a path by time. AStar.findShortestPath(..) passes its "time" or
+ *  "distance" argument to Router.Cost.of(..), and searches with graph.getRouter(cost),
+ *  the Router for that cost, so both work.
  *
  *  Note, this testing program is not a full test of your findShortestPath and does not attempt
  *   to find all possible errors, but it may be helpful.
@@ -104,35 +99,32 @@ public class TestAStar{
         report("Testing AStar: (compare the target path to the path your code found)");
         report("--------------");
         report("Finding shortest path from A to R, measured by distance:");
-        reportPath(AStar.findShortestPath(A, R, "distance"),
+        reportPath(AStar.findShortestPath(graph, A, R, "distance"),
                 List.of(A,S,T,W,X,R));
         report("--------------");
         report("Finding shortest path from W to I, measured by distance:");
-        reportPath(AStar.findShortestPath(W, I, "distance"),
+        reportPath(AStar.findShortestPath(graph, W, I, "distance"),
                 List.of(W,T,S,A,B,C,D,E,F,G,H,I));
         report("--------------");
         report("Finding shortest path from W to J, measured by distance:");
-        reportPath(AStar.findShortestPath(W, J, "distance"),
+        reportPath(AStar.findShortestPath(graph, W, J, "distance"),
                 List.of(W,X,R,Q,P,O,N,M,L,K,J));
         report("--------------");
         report("Finding shortest path from A to Z, measured by distance:");
-        reportPath(AStar.findShortestPath(A, Z, "distance"),
+        reportPath(AStar.findShortestPath(graph, A, Z, "distance"),
                 null);
         report("--------------");
         report("Finding shortest path from A to A, measured by distance:");
-        reportPath(AStar.findShortestPath(A, A, "distance"),
+        reportPath(AStar.findShortestPath(graph, A, A, "distance"),
                 List.of());
         report("--------------");
 
 
-        /* Because of an error in the AStar template, this doesn't work.
-         * Replace the timeOrDistance parameter by tOrD and the 2nd line by
-         *  timeOrDistance= (tOrD.equals("time"))?"time":"distance";
-         * to be able to run this test also
+        /* "time" picks Router.Cost.TIME (see Router.Cost.of(..)), so the search is done by
+         * graph.getRouter(Router.Cost.TIME)
          */
         report("Finding shortest path from A to R, measured by time:");
-        report("(won't work unless you have corrected the error in the AStar template)");
-        reportPath(AStar.findShortestPath(A, R, "time"),
+        reportPath(AStar.findShortestPath(graph, A, R, "time"),
                 List.of(A,B,C,D,E,F,G,H,I,J,K,L,M,N,O,P,Q,R));
 
         report("================");
@@ -0,0 +1,126 @@
+import java.util.*;
+
+/**
+ * Program to test the profiles of the ConnectionScan on the Wellington data, against its
+ * point queries (earliestArrivals(..)).
+ *
+ * With no walking and with walking up to 200m, for 20 random sources with 10 random targets
+ * each (stops that can be reached from the source at the start of the window), it works out
+ * the profile for a two hour window from a random time of day, and the profile for the whole
+ * rest of the day from the same time, and checks that
+ *  - each profile is a Pareto set: departures and arrivals both going up;
+ *  - for each time t in the window (every 5 minutes, and at and just after each departure of
+ *    the profile), arrivalFor(t) of the whole-day profile is the earliest arrival at the target
+ *    from a point query leaving at t (unless walking straight there is earlier, as the profiles
+ *    leave out journeys that only walk);
+ *  - and arrivalFor(t) of the window profile is the same, if the journey for it leaves in the
+ *    window, and no earlier if not.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestConnectionScan {
+
+    private static final int SOURCES = 20;
+    private static final int TARGETS = 10;
+    private static final int WINDOW = 2 * 3600;
+    private static final int STEP = 5 * 60;
+    private static final int NONE = Integer.MAX_VALUE;
+
+    public static void main(String[] args) {
+        Graph graph = TestData.loadGraph(args);
+        Timetable timetable = TestData.loadTimetable(graph, args);
+        ConnectionScan scan = new ConnectionScan(timetable);
+        Stop[] stops = TestData.stops(graph);
+        Random random = new Random(21);
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200}) {
+            graph.setWalkingDistance(walking);
+            CompactGraph g = graph.getCompactGraph();
+            int profiles = 0, pairs = 0, times = 0, notPareto = 0, wrongWholeDay = 0, wrongWindow = 0;
+            for (int i = 0; i < SOURCES; i++) {
+                Stop source = stops[random.nextInt(stops.length)];
+                int start = 6 * 3600 + random.nextInt(12 * 3600);
+                int end = start + WINDOW;
+                Stop[] targets = new Stop[TARGETS];
+                ConnectionScan.Profile[] window = new ConnectionScan.Profile[TARGETS];
+                ConnectionScan.Profile[] wholeDay = new ConnectionScan.Profile[TARGETS];
+                List<Stop> reached = new ArrayList<Stop>();
+                int[] fromStart = scan.earliestArrivals(source, start);
+                for (Stop stop : stops) {
+                    if (stop != source && fromStart[stop.getIndex()] != NONE) {reached.add(stop);}
+                }
+                if (reached.isEmpty()) {reached.add(source);}
+                SortedSet<Integer> checkTimes = new TreeSet<Integer>();
+                for (int t = start; t <= end; t += STEP) {checkTimes.add(t);}
+                for (int j = 0; j < TARGETS; j++) {
+                    targets[j] = reached.get(random.nextInt(reached.size()));
+                    window[j] = scan.findProfile(source, targets[j], start, end);
+                    wholeDay[j] = scan.findProfile(source, targets[j], start, NONE);
+                    profiles++;
+                    pairs += window[j].size();
+                    if (!isPareto(window[j]) || !isPareto(wholeDay[j])) {notPareto++;}
+                    for (int k = 0; k < window[j].size(); k++) {
+                        int departure = window[j].getDeparture(k);
+                        checkTimes.add(departure);
+                        if (departure < end) {checkTimes.add(departure + 1);}
+                    }
+                }
+
+                for (int t : checkTimes) {
+                    int[] arrivals = scan.earliestArrivals(source, t);
+                    for (int j = 0; j < TARGETS; j++) {
+                        if (targets[j] == source) {continue;}
+                        times++;
+                        int expected = arrivals[targets[j].getIndex()];
+                        int walk = walkOnly(g, timetable, source, targets[j], t);
+                        if (Math.min(wholeDay[j].arrivalFor(t), walk) != expected) {
+                            wrongWholeDay++;
+                            continue;
+                        }
+                        int inWindow = Math.min(window[j].arrivalFor(t), walk);
+                        if (leavesBy(wholeDay[j], t, end) ? inWindow != expected : inWindow < expected) {wrongWindow++;}
+                    }
+                }
+            }
+            System.out.printf("| %s: %d profiles with %d pairs in the window, %d not Pareto sets%n",
+                TestData.walking(walking), profiles, pairs, notPareto);
+            System.out.printf("| %s: %d times checked, %d whole day profiles differ from the point queries, %d window profiles differ%n",
+                TestData.walking(walking), times, wrongWholeDay, wrongWindow);
+            failures += notPareto + wrongWholeDay + wrongWindow;
+        }
+        TestData.report(failures);
+    }
+
+    /** Whether the departures and arrivals of the profile both go up */
+    private static boolean isPareto(ConnectionScan.Profile profile) {
+        for (int k = 1; k < profile.size(); k++) {
+            if (profile.getDeparture(k) <= profile.getDeparture(k - 1) || profile.getArrival(k) <= profile.getArrival(k - 1)) {return false;}
+        }
+        return true;
+    }
+
+    /** Whether the journey of the profile for leaving at or after time leaves by end */
+    private static boolean leavesBy(ConnectionScan.Profile profile, int time, int end) {
+        for (int k = 0; k < profile.size(); k++) {
+            if (profile.getDeparture(k) >= time) {return profile.getDeparture(k) <= end;}
+        }
+        return false;
+    }
+
+    /** The arrival at target by walking straight there from source, leaving at time (NONE if not a footpath) */
+    private static int walkOnly(CompactGraph g, Timetable timetable, Stop source, Stop target, int time) {
+        int v = source.getIndex();
+        int best = NONE;
+        for (int e = g.firstWalkOut(v); e < g.endOut(v); e++) {
+            if (g.outTarget(e) == target.getIndex()) {best = Math.min(best, time + (int) Math.ceil(g.outTime(e)));}
+        }
+        for (int j = timetable.firstTransfer(v); j < timetable.endTransfer(v); j++) {
+            if (timetable.transferTarget(j) == target.getIndex()) {best = Math.min(best, time + timetable.transferTime(j));}
+        }
+        return best;
+    }
+
+}
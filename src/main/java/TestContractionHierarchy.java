@@ -0,0 +1,71 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Program to test the ContractionHierarchy on the Wellington data.
+ *
+ * For each cost, with no walking and with walking up to 200m, it builds the hierarchy and
+ * checks on 1200 random pairs of stops that
+ *  - findShortestCost(..) is the cost found by a plain Dijkstra search (a Router with no landmarks),
+ *  - findShortestPath(..) unpacks the shortcuts into a chain of edges from the start to the goal
+ *    with that cost,
+ *  - a hierarchy written to a file and read back gives the same costs,
+ * and that a hierarchy file is not read back for the other cost.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestContractionHierarchy {
+
+    private static final int PAIRS = 1200;
+
+    public static void main(String[] args) throws IOException {
+        Graph graph = TestData.loadGraph(args);
+        Stop[] stops = TestData.stops(graph);
+        int[][] pairs = TestData.randomPairs(stops.length, PAIRS, 18);
+        File file = File.createTempFile("hierarchy", ".bin");
+        file.deleteOnExit();
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200}) {
+            graph.setWalkingDistance(walking);
+            CompactGraph g = graph.getCompactGraph();
+            for (Router.Cost cost : Router.Cost.values()) {
+                Router dijkstra = new Router(graph, cost, Router.QueueType.HEAP, 0);
+                ContractionHierarchy hierarchy = ContractionHierarchy.build(g, cost);
+                hierarchy.write(file);
+                ContractionHierarchy readBack = ContractionHierarchy.read(file, g, cost);
+                if (readBack == null) {
+                    System.out.println("| " + TestData.walking(walking) + ", " + cost + ": the hierarchy was not read back");
+                    failures++;
+                    continue;
+                }
+
+                int wrongCosts = 0, wrongPaths = 0, brokenPaths = 0, wrongReadBack = 0;
+                for (int[] pair : pairs) {
+                    Stop start = stops[pair[0]];
+                    Stop goal = stops[pair[1]];
+                    double expected = TestData.cost(dijkstra.findShortestPath(start, goal), cost);
+                    if (!TestData.sameCost(hierarchy.findShortestCost(start, goal), expected)) {wrongCosts++;}
+                    List<Edge> path = hierarchy.findShortestPath(start, goal);
+                    if (!TestData.sameCost(TestData.cost(path, cost), expected)) {wrongPaths++;}
+                    if (!TestData.connects(path, start, goal)) {brokenPaths++;}
+                    if (!TestData.sameCost(readBack.findShortestCost(start, goal), expected)) {wrongReadBack++;}
+                }
+                System.out.printf("| %s, %s: %d pairs, %d wrong costs, %d wrong paths, %d broken paths, %d wrong after reading back%n",
+                    TestData.walking(walking), cost, pairs.length, wrongCosts, wrongPaths, brokenPaths, wrongReadBack);
+                failures += wrongCosts + wrongPaths + brokenPaths + wrongReadBack;
+
+                Router.Cost other = (cost == Router.Cost.TIME) ? Router.Cost.DISTANCE : Router.Cost.TIME;
+                if (ContractionHierarchy.read(file, g, other) != null) {
+                    System.out.println("| a hierarchy by " + cost + " was read back for " + other);
+                    failures++;
+                }
+            }
+        }
+        TestData.report(failures);
+    }
+
+}
@@ -0,0 +1,91 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Helpers for the test programs that check the routers on the real Wellington data
+ * (TestContractionHierarchy, TestHubLabels, TestRaptor, TestConnectionScan,
+ * TestLineChangeRouter, TestParetoRouter, TestTravelTimeMatrix).
+ *
+ * The data directory is the first argument of the program, or src/data if there is none
+ * (ie, run the programs from the top of the project).
+ * Each of those programs compares a fast method against a slower one that is known to be
+ * right (usually a plain Dijkstra search by the Router) on random queries with a fixed seed,
+ * so its output is the same on every run.
+ */
+
+public class TestData {
+
+    /** The directory holding stops.txt, lines.txt, transfers.txt, ... */
+    public static File dataDirectory(String[] args) {
+        return new File((args.length > 0) ? args[0] : "src/data");
+    }
+
+    /** Build the graph from the text files of the feed (no walking edges in use) */
+    public static Graph loadGraph(String[] args) {
+        File dir = dataDirectory(args);
+        FeedLoader loader = new FeedLoader();
+        Map<String, Stop> stops = loader.loadStops(new File(dir, "stops.txt"));
+        Collection<Line> lines = loader.loadLines(new File(dir, "lines.txt"));
+        Collection<Transfer> transfers = loader.loadTransfers(new File(dir, "transfers.txt"));
+        return new Graph(stops.values(), lines, transfers);
+    }
+
+    /** Load the timetable of all the trips of the feed for the stops of the graph */
+    public static Timetable loadTimetable(Graph graph, String[] args) {
+        File dir = dataDirectory(args);
+        return Timetable.load(graph, new File(dir, "trips.txt"), new File(dir, "stop_times.txt"),
+                              new File(dir, "stop_pattern_trips.txt"), null);
+    }
+
+    /** The stops of the graph in index order */
+    public static Stop[] stops(Graph graph) {
+        CompactGraph g = graph.getCompactGraph();
+        Stop[] stops = new Stop[g.size()];
+        for (int v = 0; v < stops.length; v++) {stops[v] = g.stop(v);}
+        return stops;
+    }
+
+    /** count random pairs of stop indexes (from, to) below n */
+    public static int[][] randomPairs(int n, int count, long seed) {
+        Random random = new Random(seed);
+        int[][] pairs = new int[count][];
+        for (int i = 0; i < count; i++) {pairs[i] = new int[]{random.nextInt(n), random.nextInt(n)};}
+        return pairs;
+    }
+
+    /** The cost of a path (Double.POSITIVE_INFINITY if there is no path) */
+    public static double cost(List<Edge> path, Router.Cost cost) {
+        if (path == null) {return Double.POSITIVE_INFINITY;}
+        double total = 0;
+        for (Edge edge : path) {total += (cost == Router.Cost.TIME) ? edge.time() : edge.distance();}
+        return total;
+    }
+
+    /** Whether two costs are the same, but for rounding (both infinite counts as the same, one infinite does not) */
+    public static boolean sameCost(double a, double b) {
+        if (Double.isInfinite(a) || Double.isInfinite(b)) {return a == b;}
+        return Math.abs(a - b) <= 1e-6 * Math.max(1, Math.abs(a));
+    }
+
+    /** Whether the path is a chain of edges from start to goal (true for no path) */
+    public static boolean connects(List<Edge> path, Stop start, Stop goal) {
+        if (path == null) {return true;}
+        Stop at = start;
+        for (Edge edge : path) {
+            if (edge.fromStop() != at) {return false;}
+            at = edge.toStop();
+        }
+        return at == goal;
+    }
+
+    /** Describe the walking distance for the output */
+    public static String walking(double walkingDistance) {
+        return (walkingDistance < 0) ? "no walking" : String.format("walking %.0fm", walkingDistance);
+    }
+
+    /** Print the last line of a test: whether all the checks passed */
+    public static void report(int failures) {
+        System.out.println((failures == 0) ? "| all checks passed" : "| FAILED: " + failures + " checks failed");
+    }
+
+}
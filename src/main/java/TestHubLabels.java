@@ -0,0 +1,81 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Program to test the HubLabels on the Wellington data.
+ *
+ * For each cost, with no walking and with walking up to 200m, it builds the labels in both
+ * orders (by degree, and by the rank of the stops in a ContractionHierarchy) and checks that
+ * distance(..) from each of 60 random sources to every stop is the cost found by
+ * Router.costsFrom(..) (a one-to-all Dijkstra search), that isWithin(..) agrees with it
+ * just above and just below that cost, and that labels written to a file and read back give
+ * the same costs; and that a labels file is not read back for the other cost.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestHubLabels {
+
+    private static final int SOURCES = 60;
+
+    public static void main(String[] args) throws IOException {
+        Graph graph = TestData.loadGraph(args);
+        Stop[] stops = TestData.stops(graph);
+        Random random = new Random(19);
+        Stop[] sources = new Stop[SOURCES];
+        for (int i = 0; i < SOURCES; i++) {sources[i] = stops[random.nextInt(stops.length)];}
+        File file = File.createTempFile("labels", ".bin");
+        file.deleteOnExit();
+        double[] expected = new double[stops.length];
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200}) {
+            graph.setWalkingDistance(walking);
+            CompactGraph g = graph.getCompactGraph();
+            for (Router.Cost cost : Router.Cost.values()) {
+                Router dijkstra = new Router(graph, cost, Router.QueueType.HEAP, 0);
+                for (String order : new String[]{"degree", "hierarchy"}) {
+                    HubLabels labels = order.equals("degree")
+                        ? HubLabels.build(g, cost)
+                        : HubLabels.build(ContractionHierarchy.build(g, cost));
+                    labels.write(file);
+                    HubLabels readBack = HubLabels.read(file, g, cost);
+                    if (readBack == null) {
+                        System.out.println("| " + TestData.walking(walking) + ", " + cost + ", by " + order + ": the labels were not read back");
+                        failures++;
+                        continue;
+                    }
+
+                    int pairs = 0, wrongCosts = 0, wrongWithin = 0, wrongReadBack = 0;
+                    for (Stop source : sources) {
+                        dijkstra.costsFrom(source, Double.POSITIVE_INFINITY, expected);
+                        for (Stop goal : stops) {
+                            double want = expected[goal.getIndex()];
+                            pairs++;
+                            if (!TestData.sameCost(labels.distance(source, goal), want)) {wrongCosts++;}
+                            if (!TestData.sameCost(readBack.distance(source, goal), want)) {wrongReadBack++;}
+                            if (want < Double.POSITIVE_INFINITY
+                                && (!labels.isWithin(source, goal, want + 1e-6 * Math.max(1, want))
+                                    || labels.isWithin(source, goal, want - 1e-3 * Math.max(1, want)))) {
+                                wrongWithin++;
+                            }
+                        }
+                    }
+                    System.out.printf("| %s, %s, by %s: %d pairs, %d wrong costs, %d wrong isWithin, %d wrong after reading back%n",
+                        TestData.walking(walking), cost, order, pairs, wrongCosts, wrongWithin, wrongReadBack);
+                    failures += wrongCosts + wrongWithin + wrongReadBack;
+
+                    Router.Cost other = (cost == Router.Cost.TIME) ? Router.Cost.DISTANCE : Router.Cost.TIME;
+                    if (HubLabels.read(file, g, other) != null) {
+                        System.out.println("| labels by " + cost + " were read back for " + other);
+                        failures++;
+                    }
+                }
+            }
+        }
+        TestData.report(failures);
+    }
+
+}
@@ -0,0 +1,87 @@
+import java.util.*;
+
+/**
+ * Program to test the LineChangeRouter on the Wellington data.
+ *
+ * With no walking and with walking up to 200m, on 1200 random pairs of stops, it checks that
+ * the time of the path found by findShortestPath(..) (by pathTime(..)) is the time found by a
+ * plain Dijkstra search over all the (stop, line) states, with the same costs for changing
+ * lines but none of the pruning, and that the path is a chain of edges from the start to the goal.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestLineChangeRouter {
+
+    private static final int PAIRS = 1200;
+    private static final int FOOT = -1;      // line of a state reached on foot (or the start)
+
+    public static void main(String[] args) {
+        Graph graph = TestData.loadGraph(args);
+        LineChangeRouter router = graph.getLineChangeRouter();
+        Stop[] stops = TestData.stops(graph);
+        int[][] pairs = TestData.randomPairs(stops.length, PAIRS, 22);
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200}) {
+            graph.setWalkingDistance(walking);
+            CompactGraph g = graph.getCompactGraph();
+            int found = 0, wrongTimes = 0, brokenPaths = 0;
+            for (int[] pair : pairs) {
+                List<Edge> path = router.findShortestPath(stops[pair[0]], stops[pair[1]]);
+                if (path != null) {found++;}
+                double expected = quickestTime(router, g, pair[0], pair[1]);
+                if (!TestData.sameCost(router.pathTime(path), expected)) {wrongTimes++;}
+                if (!TestData.connects(path, stops[pair[0]], stops[pair[1]])) {brokenPaths++;}
+            }
+            System.out.printf("| %s: %d pairs, %d paths found, %d wrong times, %d broken paths%n",
+                TestData.walking(walking), pairs.length, found, wrongTimes, brokenPaths);
+            failures += wrongTimes + brokenPaths;
+        }
+        TestData.report(failures);
+    }
+
+    /**
+     * The time of the quickest path from stop id start to stop id goal, counting the changes
+     * of line, by Dijkstra's algorithm over every (stop, line) state
+     * (Double.POSITIVE_INFINITY if there is no path)
+     */
+    private static double quickestTime(LineChangeRouter router, CompactGraph g, int start, int goal) {
+        Map<Line, Integer> lineIds = new HashMap<Line, Integer>();
+        Map<Long, Double> costs = new HashMap<Long, Double>();
+        PriorityQueue<double[]> fringe = new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+        costs.put(key(start, FOOT), 0.0);
+        fringe.add(new double[]{0, start, FOOT});
+        while (!fringe.isEmpty()) {
+            double[] state = fringe.poll();
+            double costToState = state[0];
+            int v = (int) state[1];
+            int line = (int) state[2];
+            if (costToState > costs.get(key(v, line))) {continue;}
+            if (v == goal) {return costToState;}
+            for (int edge = g.firstOut(v); edge < g.endOut(v); edge++) {
+                int neighbour = g.outTarget(edge);
+                Line edgeLine = g.outEdge(edge).line();
+                int next = (edgeLine == null) ? FOOT : lineIds.computeIfAbsent(edgeLine, l -> lineIds.size());
+                double costSoFar = costToState + g.outTime(edge);
+                if (next != FOOT) {                 // ride (changing if it is another line)
+                    if (line != FOOT && line != next) {costSoFar += router.changeTime(v, v, 0);}
+                } else if (line != FOOT && neighbour != goal) {     // get off and walk
+                    costSoFar = costToState + router.changeTime(v, neighbour, g.outTime(edge));
+                }
+                long nextKey = key(neighbour, next);
+                if (costSoFar < costs.getOrDefault(nextKey, Double.POSITIVE_INFINITY)) {
+                    costs.put(nextKey, costSoFar);
+                    fringe.add(new double[]{costSoFar, neighbour, next});
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private static long key(int stop, int line) {
+        return ((long) stop << 32) | (line + 1);
+    }
+
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+
+/**
+ * Program to test the ParetoRouter on the Wellington data.
+ *
+ * With no walking and with walking up to 300m, on 300 random pairs of stops, it checks that
+ *  - each path of the answer is a chain of edges from the start to the goal;
+ *  - no path of the answer is as good as another by all three criteria (time, changes and
+ *    meters walked), so a path that only walks and one that rides a single line (both with
+ *    no changes) are compared like any others;
+ *  - the paths are in order of time, and the quickest is as quick as the path of the
+ *    LineChangeRouter, unless that has more changes than the ParetoRouter allows.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestParetoRouter {
+
+    private static final int PAIRS = 300;
+
+    public static void main(String[] args) {
+        Graph graph = TestData.loadGraph(args);
+        ParetoRouter router = graph.getParetoRouter();
+        LineChangeRouter lineChangeRouter = graph.getLineChangeRouter();
+        Stop[] stops = TestData.stops(graph);
+        int[][] pairs = TestData.randomPairs(stops.length, PAIRS, 23);
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 300}) {
+            graph.setWalkingDistance(walking);
+            int found = 0, paths = 0, brokenPaths = 0, dominatedPaths = 0, wrongOrder = 0, wrongQuickest = 0;
+            for (int[] pair : pairs) {
+                Stop start = stops[pair[0]];
+                Stop goal = stops[pair[1]];
+                List<List<Edge>> answer = router.findParetoPaths(start, goal);
+                List<Edge> quickest = lineChangeRouter.findShortestPath(start, goal);
+                if (answer.isEmpty()) {
+                    if (quickest != null && ParetoRouter.countChanges(quickest) <= router.getMaxChanges()) {wrongQuickest++;}
+                    continue;
+                }
+                found++;
+                int count = answer.size();
+                paths += count;
+                double[] times = new double[count];
+                int[] changes = new int[count];
+                double[] walked = new double[count];
+                for (int i = 0; i < count; i++) {
+                    List<Edge> path = answer.get(i);
+                    if (!TestData.connects(path, start, goal)) {brokenPaths++;}
+                    times[i] = router.pathTime(path);
+                    changes[i] = ParetoRouter.countChanges(path);
+                    walked[i] = ParetoRouter.walkingDistance(path);
+                    if (i > 0 && times[i] < times[i - 1] - 1e-6) {wrongOrder++;}
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j < count; j++) {
+                        // exact comparisons, as in the search (pathTime and walkingDistance add up the same numbers in the same order)
+                        if (j != i && times[j] <= times[i] && changes[j] <= changes[i] && walked[j] <= walked[i]) {
+                            dominatedPaths++;
+                            if (dominatedPaths <= 3) {
+                                System.out.printf("| %s to %s: %.0f s, %d changes, %.0f m is as good as %.0f s, %d changes, %.0f m%n",
+                                    start.getName(), goal.getName(), times[j], changes[j], walked[j], times[i], changes[i], walked[i]);
+                            }
+                            break;
+                        }
+                    }
+                }
+                double best = lineChangeRouter.pathTime(quickest);
+                if (ParetoRouter.countChanges(quickest) <= router.getMaxChanges()
+                    ? !TestData.sameCost(times[0], best)
+                    : times[0] < best - 1e-6) {
+                    wrongQuickest++;
+                }
+            }
+            System.out.printf("| %s: %d pairs, %d with paths, %d paths, %d broken, %d dominated, %d out of order, %d wrong quickest%n",
+                TestData.walking(walking), pairs.length, found, paths, brokenPaths, dominatedPaths, wrongOrder, wrongQuickest);
+            failures += brokenPaths + dominatedPaths + wrongOrder + wrongQuickest;
+        }
+        TestData.report(failures);
+    }
+
+}
@@ -0,0 +1,109 @@
+import java.util.*;
+
+/**
+ * Program to test Raptor (with the Timetable and Journey) on the Wellington data.
+ *
+ * With no walking and with walking up to 200m, from 60 random sources at random times of day:
+ *  - earliestArrivals(..) with no real limit on the number of trips must give the same arrival
+ *    at every stop as ConnectionScan.earliestArrivals(..), which has no limit;
+ *  - for 20 random targets from each source, findJourneys(..) must give journeys with more trips
+ *    and earlier arrivals in turn, the last arriving at the earliest arrival at the target,
+ *    and every journey must be continuous: each leg leaves from the stop the one before
+ *    reached, no earlier than it got there, and each ride is on a real trip of the timetable,
+ *    getting on and off at stops of that trip at its times there.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestRaptor {
+
+    private static final int SOURCES = 60;
+    private static final int TARGETS = 20;
+    private static final int MAX_TRIPS = 64;    // more than any earliest journey here needs
+
+    public static void main(String[] args) {
+        Graph graph = TestData.loadGraph(args);
+        Timetable timetable = TestData.loadTimetable(graph, args);
+        Raptor raptor = new Raptor(timetable);
+        ConnectionScan scan = new ConnectionScan(timetable);
+        Stop[] stops = TestData.stops(graph);
+        Map<String, Integer> trips = new HashMap<String, Integer>();
+        for (int t = 0; t < timetable.tripCount(); t++) {trips.put(timetable.tripId(t), t);}
+        Random random = new Random(20);
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200}) {
+            graph.setWalkingDistance(walking);
+            int wrongArrivals = 0, reached = 0, journeys = 0, wrongJourneys = 0, brokenJourneys = 0;
+            for (int i = 0; i < SOURCES; i++) {
+                Stop source = stops[random.nextInt(stops.length)];
+                int departure = 6 * 3600 + random.nextInt(14 * 3600);
+                int[] expected = scan.earliestArrivals(source, departure);
+                int[] arrivals = raptor.earliestArrivals(source, departure, MAX_TRIPS);
+                for (int v = 0; v < stops.length; v++) {
+                    if (arrivals[v] != expected[v]) {wrongArrivals++;}
+                }
+
+                for (int j = 0; j < TARGETS; j++) {
+                    Stop target = stops[random.nextInt(stops.length)];
+                    if (target == source) {continue;}
+                    List<Journey> found = raptor.findJourneys(source, target, departure, MAX_TRIPS);
+                    if (expected[target.getIndex()] == Integer.MAX_VALUE) {
+                        if (!found.isEmpty()) {wrongJourneys++;}
+                        continue;
+                    }
+                    reached++;
+                    if (found.isEmpty() || found.get(found.size() - 1).getArrival() != expected[target.getIndex()]) {wrongJourneys++;}
+                    int tripCount = -1;
+                    int arrival = Integer.MAX_VALUE;
+                    for (Journey journey : found) {
+                        journeys++;
+                        if (journey.getTripCount() <= tripCount || journey.getArrival() >= arrival) {wrongJourneys++;}
+                        tripCount = journey.getTripCount();
+                        arrival = journey.getArrival();
+                        if (!isContinuous(journey, source, target, departure, timetable, trips)) {
+                            brokenJourneys++;
+                            if (brokenJourneys <= 3) {System.out.println("| broken: " + journey);}
+                        }
+                    }
+                }
+            }
+            System.out.printf("| %s: %d sources x %d stops, %d arrivals differ from the connection scan%n",
+                TestData.walking(walking), SOURCES, stops.length, wrongArrivals);
+            System.out.printf("| %s: %d targets reached, %d journeys, %d wrong journey sets, %d journeys not continuous%n",
+                TestData.walking(walking), reached, journeys, wrongJourneys, brokenJourneys);
+            failures += wrongArrivals + wrongJourneys + brokenJourneys;
+        }
+        TestData.report(failures);
+    }
+
+    /** Whether each leg of the journey carries on from the one before, from source at departure to target */
+    private static boolean isContinuous(Journey journey, Stop source, Stop target, int departure,
+                                        Timetable timetable, Map<String, Integer> trips) {
+        Stop at = source;
+        int time = departure;
+        for (Journey.Leg leg : journey.getLegs()) {
+            if (leg.getFrom() != at || leg.getDeparture() < time || leg.getArrival() < leg.getDeparture()) {return false;}
+            if (!leg.isWalk() && !isRide(leg, timetable, trips)) {return false;}
+            at = leg.getTo();
+            time = leg.getArrival();
+        }
+        return at == target;
+    }
+
+    /** Whether the leg gets on and off its trip at stops of the trip, at the trip's times there */
+    private static boolean isRide(Journey.Leg leg, Timetable timetable, Map<String, Integer> trips) {
+        Integer trip = trips.get(leg.getTripId());
+        if (trip == null) {return false;}
+        int route = timetable.tripRoute(trip);
+        for (int p = 0; p < timetable.routeLength(route); p++) {
+            if (timetable.routeStop(route, p) != leg.getFrom().getIndex() || timetable.departure(trip, p) != leg.getDeparture()) {continue;}
+            for (int q = p + 1; q < timetable.routeLength(route); q++) {
+                if (timetable.routeStop(route, q) == leg.getTo().getIndex() && timetable.arrival(trip, q) == leg.getArrival()) {return true;}
+            }
+        }
+        return false;
+    }
+
+}
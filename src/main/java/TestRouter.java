@@ -0,0 +1,223 @@
+import java.util.*;
+
+/**
+ * Program to test the Router on the Wellington data.
+ *
+ * With no walking, and with walking up to 200m and 400m, on 1000 random pairs of stops,
+ * it checks that
+ *  - for each cost, findShortestPath(..) and findShortestPathBidirectional(..) (of a Router
+ *    with no landmarks) find paths that cost the same as a plain Dijkstra search done here,
+ *    that are chains of edges from the start to the goal; null where there is no path, and
+ *    an empty path from a stop to itself;
+ *  - for each cost, a Router with the default landmarks (ALT: A*, landmarks and the triangle
+ *    inequality) finds paths, forward and bidirectional, that cost the same as the plain Dijkstra
+ *    search, and that are chains of edges from the start to the goal;
+ *  - a Router by time with a RadixQueue for its fringe finds paths that cost the same as a
+ *    Router with the default IndexedHeap, and that are chains of edges from the start to the goal;
+ *  - for each cost, from 40 random sources, costsFrom(..) with no budget gives the costs of the
+ *    plain Dijkstra search to every stop, and the costs of findShortestPath(..) to 10 random stops;
+ *    and with the budget set to the cost of one stop that can be reached, it gives the same costs
+ *    for the stops within the budget (that stop included) and Double.POSITIVE_INFINITY for all
+ *    the others, and with a budget just under that, the stop is no longer reached.
+ * It then checks the Routers with landmarks again (the same Routers, so they must build new
+ * landmarks) with walking up to 500m, precomputed to 600m, and with walking up to 200m,
+ * precomputed to 250m, as each change of the precomputed distance rebuilds the compact graph.
+ * For each check of the landmarks it reports the average number of stops settled (taken from
+ * the fringe) by the plain Dijkstra search, the Router with no landmarks, and the Router with
+ * landmarks, forward and bidirectional.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestRouter {
+
+    private static final int PAIRS = 1000;
+    private static final int SOURCES = 40;     // sources for costsFrom(..)
+    private static final int TARGETS = 10;     // random targets from each source
+
+    public static void main(String[] args) {
+        Graph graph = TestData.loadGraph(args);
+        Stop[] stops = TestData.stops(graph);
+        int[][] pairs = TestData.randomPairs(stops.length, PAIRS, 16);
+        Map<Router.Cost, Router> plain = new EnumMap<Router.Cost, Router>(Router.Cost.class);
+        for (Router.Cost cost : Router.Cost.values()) {plain.put(cost, new Router(graph, cost, Router.QueueType.HEAP, 0));}
+        Map<Router.Cost, Router> alt = new EnumMap<Router.Cost, Router>(Router.Cost.class);
+        for (Router.Cost cost : Router.Cost.values()) {alt.put(cost, new Router(graph, cost, Router.QueueType.HEAP));}
+        Router heap = alt.get(Router.Cost.TIME);
+        Router radix = new Router(graph, Router.Cost.TIME, Router.QueueType.RADIX);
+        Random random = new Random(24);
+        int failures = 0;
+
+        for (double walking : new double[]{-1, 200, 400}) {
+            graph.setWalkingDistance(walking);
+            for (Router.Cost cost : Router.Cost.values()) {
+                failures += checkSearches(TestData.walking(walking), plain.get(cost), stops, pairs);
+            }
+            for (Router.Cost cost : Router.Cost.values()) {
+                failures += checkLandmarks(TestData.walking(walking), plain.get(cost), alt.get(cost), stops, pairs);
+            }
+            failures += checkQueues(TestData.walking(walking), heap, radix, stops, pairs);
+            for (Router.Cost cost : Router.Cost.values()) {
+                failures += checkCostsFrom(TestData.walking(walking), alt.get(cost), stops, random);
+            }
+        }
+        for (double[] distances : new double[][]{{600, 500}, {250, 200}}) {
+            graph.setMaxWalkingDistance(distances[0]);
+            graph.setWalkingDistance(distances[1]);
+            String setting = TestData.walking(distances[1]) + " (precomputed to " + (int) distances[0] + "m)";
+            for (Router.Cost cost : Router.Cost.values()) {
+                failures += checkLandmarks(setting, plain.get(cost), alt.get(cost), stops, pairs);
+            }
+        }
+        graph.setMaxWalkingDistance(Transport.PRECOMPUTED_WALKING_DISTANCE_M);
+        TestData.report(failures);
+    }
+
+    /** Compare the forward and bidirectional searches of the router against Dijkstra's algorithm */
+    private static int checkSearches(String setting, Router router, Stop[] stops, int[][] pairs) {
+        Router.Cost cost = router.getCost();
+        CompactGraph g = router.getGraph().getCompactGraph();
+        int found = 0, wrongForward = 0, wrongBidirectional = 0, brokenPaths = 0, wrongEmpty = 0;
+        for (int[] pair : pairs) {
+            Stop start = stops[pair[0]];
+            Stop goal = stops[pair[1]];
+            double expected = dijkstra(g, cost, pair[0], pair[1])[pair[1]];
+            List<Edge> forward = router.findShortestPath(start, goal);
+            List<Edge> bidirectional = router.findShortestPathBidirectional(start, goal);
+            if (forward != null) {found++;}
+            if (!TestData.sameCost(TestData.cost(forward, cost), expected)) {wrongForward++;}
+            if (!TestData.sameCost(TestData.cost(bidirectional, cost), expected)) {wrongBidirectional++;}
+            if (!TestData.connects(forward, start, goal) || !TestData.connects(bidirectional, start, goal)) {brokenPaths++;}
+            List<Edge> toItself = router.findShortestPath(start, start);
+            List<Edge> toItselfBidirectional = router.findShortestPathBidirectional(start, start);
+            if (toItself == null || !toItself.isEmpty() || toItselfBidirectional == null || !toItselfBidirectional.isEmpty()) {wrongEmpty++;}
+        }
+        System.out.printf("| %s, %s: %d pairs (%d with paths), %d wrong forward, %d wrong bidirectional, %d broken paths, %d not empty to the start%n",
+            setting, cost, pairs.length, found, wrongForward, wrongBidirectional, brokenPaths, wrongEmpty);
+        return wrongForward + wrongBidirectional + brokenPaths + wrongEmpty;
+    }
+
+    /**
+     * Compare the forward and bidirectional searches of the router with landmarks against
+     * Dijkstra's algorithm, and report the stops settled by each search
+     */
+    private static int checkLandmarks(String setting, Router plain, Router alt, Stop[] stops, int[][] pairs) {
+        Router.Cost cost = alt.getCost();
+        CompactGraph g = alt.getGraph().getCompactGraph();
+        int found = 0, wrongForward = 0, wrongBidirectional = 0, brokenPaths = 0;
+        long plainSettled = 0, forwardSettled = 0, bidirectionalSettled = 0;
+        dijkstraSettled = 0;
+        for (int[] pair : pairs) {
+            Stop start = stops[pair[0]];
+            Stop goal = stops[pair[1]];
+            double expected = dijkstra(g, cost, pair[0], pair[1])[pair[1]];
+            plain.resetCounts();
+            plain.findShortestPath(start, goal);
+            plainSettled += plain.getPopCount();
+            alt.resetCounts();
+            List<Edge> forward = alt.findShortestPath(start, goal);
+            forwardSettled += alt.getPopCount();
+            alt.resetCounts();
+            List<Edge> bidirectional = alt.findShortestPathBidirectional(start, goal);
+            bidirectionalSettled += alt.getPopCount();
+            if (forward != null) {found++;}
+            if (!TestData.sameCost(TestData.cost(forward, cost), expected)) {wrongForward++;}
+            if (!TestData.sameCost(TestData.cost(bidirectional, cost), expected)) {wrongBidirectional++;}
+            if (!TestData.connects(forward, start, goal) || !TestData.connects(bidirectional, start, goal)) {brokenPaths++;}
+        }
+        System.out.printf("| %s, %s, %d landmarks: %d pairs (%d with paths), %d wrong forward, %d wrong bidirectional, %d broken paths%n",
+            setting, cost, alt.getLandmarkCount(), pairs.length, found, wrongForward, wrongBidirectional, brokenPaths);
+        System.out.printf("| %s, %s, stops settled per search: Dijkstra %.0f, no landmarks %.0f, landmarks %.0f, landmarks bidirectional %.0f%n",
+            setting, cost, (double) dijkstraSettled / pairs.length, (double) plainSettled / pairs.length,
+            (double) forwardSettled / pairs.length, (double) bidirectionalSettled / pairs.length);
+        return wrongForward + wrongBidirectional + brokenPaths;
+    }
+
+    /** Number of stops settled by dijkstra(..) since it was last set to 0 */
+    private static long dijkstraSettled;
+
+    /**
+     * The cost from stop id source to each stop by the edges now in use in the compact graph,
+     * by a plain Dijkstra search with a PriorityQueue, sharing no code with the Router.
+     * The search stops when it settles stop id goal (use -1 for the costs to every stop); the
+     * cost is Double.POSITIVE_INFINITY for stops that cannot be reached (or were not reached).
+     */
+    private static double[] dijkstra(CompactGraph g, Router.Cost cost, int source, int goal) {
+        double[] costs = new double[g.size()];
+        Arrays.fill(costs, Double.POSITIVE_INFINITY);
+        boolean[] visited = new boolean[g.size()];
+        PriorityQueue<double[]> fringe = new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+        costs[source] = 0;
+        fringe.add(new double[]{0, source});
+        while (!fringe.isEmpty()) {
+            int v = (int) fringe.poll()[1];
+            if (visited[v]) {continue;}
+            visited[v] = true;
+            dijkstraSettled++;
+            if (v == goal) {break;}
+            for (int edge = g.firstOut(v); edge < g.endOut(v); edge++) {
+                int w = g.outTarget(edge);
+                double costSoFar = costs[v] + ((cost == Router.Cost.TIME) ? g.outTime(edge) : g.outDistance(edge));
+                if (costSoFar < costs[w]) {
+                    costs[w] = costSoFar;
+                    fringe.add(new double[]{costSoFar, w});
+                }
+            }
+        }
+        return costs;
+    }
+
+    /** Compare the paths found with a RadixQueue against those found with an IndexedHeap */
+    private static int checkQueues(String setting, Router heap, Router radix, Stop[] stops, int[][] pairs) {
+        int found = 0, wrongCosts = 0, brokenPaths = 0;
+        for (int[] pair : pairs) {
+            Stop start = stops[pair[0]];
+            Stop goal = stops[pair[1]];
+            List<Edge> expected = heap.findShortestPath(start, goal);
+            List<Edge> path = radix.findShortestPath(start, goal);
+            if (expected != null) {found++;}
+            if (!TestData.sameCost(TestData.cost(path, Router.Cost.TIME), TestData.cost(expected, Router.Cost.TIME))) {wrongCosts++;}
+            if (!TestData.connects(path, start, goal)) {brokenPaths++;}
+        }
+        System.out.printf("| %s, TIME, radix queue: %d pairs (%d with paths), %d costs differ from the heap, %d broken paths%n",
+            setting, pairs.length, found, wrongCosts, brokenPaths);
+        return wrongCosts + brokenPaths;
+    }
+
+    /** Compare the costs from costsFrom(..), with and without a budget, against Dijkstra's algorithm and findShortestPath(..) */
+    private static int checkCostsFrom(String setting, Router router, Stop[] stops, Random random) {
+        Router.Cost cost = router.getCost();
+        CompactGraph g = router.getGraph().getCompactGraph();
+        double[] withinBudget = new double[g.size()];
+        int wrongCosts = 0, wrongPaths = 0, wrongWithinBudget = 0, wrongPastBudget = 0;
+        for (int i = 0; i < SOURCES; i++) {
+            Stop source = stops[random.nextInt(stops.length)];
+            double[] all = router.costsFrom(source, Double.POSITIVE_INFINITY);
+            double[] expected = dijkstra(g, cost, source.getIndex(), -1);
+            List<Stop> reached = new ArrayList<Stop>();
+            for (Stop stop : stops) {
+                if (!TestData.sameCost(all[stop.getIndex()], expected[stop.getIndex()])) {wrongCosts++;}
+                if (stop != source && all[stop.getIndex()] < Double.POSITIVE_INFINITY) {reached.add(stop);}
+            }
+            for (int j = 0; j < TARGETS; j++) {
+                Stop target = stops[random.nextInt(stops.length)];
+                if (!TestData.sameCost(TestData.cost(router.findShortestPath(source, target), cost), all[target.getIndex()])) {wrongPaths++;}
+            }
+            if (reached.isEmpty()) {continue;}
+            Stop target = reached.get(random.nextInt(reached.size()));
+            double budget = all[target.getIndex()];
+            router.costsFrom(source, budget, withinBudget);
+            for (Stop stop : stops) {
+                double inBudget = (all[stop.getIndex()] <= budget) ? all[stop.getIndex()] : Double.POSITIVE_INFINITY;
+                if (!TestData.sameCost(withinBudget[stop.getIndex()], inBudget)) {wrongWithinBudget++;}
+            }
+            router.costsFrom(source, Math.nextDown(budget), withinBudget);
+            if (withinBudget[target.getIndex()] != Double.POSITIVE_INFINITY) {wrongPastBudget++;}
+        }
+        System.out.printf("| %s, %s, costsFrom: %d sources, %d costs differ from Dijkstra, %d from findShortestPath, %d within the budget, %d just past it%n",
+            setting, cost, SOURCES, wrongCosts, wrongPaths, wrongWithinBudget, wrongPastBudget);
+        return wrongCosts + wrongPaths + wrongWithinBudget + wrongPastBudget;
+    }
+
+}
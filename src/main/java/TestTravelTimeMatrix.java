@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Program to test the TravelTimeMatrix on the Wellington data: building it, and opening the file.
+ *
+ * With walking up to 200m, it builds the matrix with all the cores and with one thread, and
+ * checks that
+ *  - the two files are the same, byte for byte (the parallel build writes every row as the
+ *    single thread does);
+ *  - the opened matrix is for the graph (isFor(..)) and has its stops and walking distance,
+ *    and is not for the graph once the walking distance has changed, but is again when it is
+ *    changed back;
+ *  - the times from 60 random sources to every stop (by index, by stop id, by Stop and by row(..))
+ *    are the costs found by Router.costsFrom(..), rounded to the second (UNREACHABLE beyond
+ *    MAX_TIME or for stops that cannot be reached), and an unknown stop id is UNREACHABLE;
+ *  - open(..) returns null for a file that does not exist, and for a file cut short.
+ *
+ * Each output line starts with a |; the last line says whether all the checks passed.
+ * The data directory can be given as an argument (default src/data).
+ */
+
+public class TestTravelTimeMatrix {
+
+    private static final int SOURCES = 60;
+
+    public static void main(String[] args) throws IOException {
+        Graph graph = TestData.loadGraph(args);
+        Stop[] stops = TestData.stops(graph);
+        graph.setWalkingDistance(200);
+        CompactGraph g = graph.getCompactGraph();
+        File file = File.createTempFile("matrix", ".bin");
+        File single = File.createTempFile("matrix", ".bin");
+        File cut = File.createTempFile("matrix", ".bin");
+        file.deleteOnExit();
+        single.deleteOnExit();
+        cut.deleteOnExit();
+        int failures = 0;
+
+        TravelTimeMatrix.build(graph, file);
+        TravelTimeMatrix.build(graph, single, 1);
+        boolean sameFiles = Arrays.equals(Files.readAllBytes(file.toPath()), Files.readAllBytes(single.toPath()));
+        System.out.println("| parallel and single thread builds are the same: " + sameFiles);
+        if (!sameFiles) {failures++;}
+
+        TravelTimeMatrix matrix = TravelTimeMatrix.open(file);
+        if (matrix == null) {
+            System.out.println("| the matrix was not opened");
+            TestData.report(failures + 1);
+            return;
+        }
+        int wrongStops = 0;
+        for (int v = 0; v < stops.length; v++) {
+            if (!stops[v].getId().equals(matrix.stopId(v)) || matrix.indexOf(stops[v].getId()) != v) {wrongStops++;}
+        }
+        boolean isFor = matrix.isFor(g);
+        graph.setWalkingDistance(250);
+        boolean isForOther = matrix.isFor(graph.getCompactGraph());
+        graph.setWalkingDistance(200);
+        boolean isForAgain = matrix.isFor(graph.getCompactGraph());
+        System.out.printf("| %d stops, %d wrong stop ids, walking %.0fm, isFor: %b, after changing the walking distance: %b, after changing it back: %b%n",
+            matrix.size(), wrongStops, matrix.getWalkingDistance(), isFor, isForOther, isForAgain);
+        if (matrix.size() != stops.length || wrongStops > 0 || matrix.getWalkingDistance() != 200) {failures++;}
+        if (!isFor || isForOther || !isForAgain) {failures++;}
+
+        Router router = new Router(graph, Router.Cost.TIME, Router.QueueType.HEAP, 0);
+        Random random = new Random(25);
+        double[] costs = new double[stops.length];
+        int pairs = 0, reachable = 0, wrongTimes = 0, wrongLookups = 0;
+        for (int i = 0; i < SOURCES; i++) {
+            Stop source = stops[random.nextInt(stops.length)];
+            router.costsFrom(source, Double.POSITIVE_INFINITY, costs);
+            int[] row = matrix.row(source.getIndex());
+            for (Stop target : stops) {
+                double cost = costs[target.getIndex()];
+                int expected = (cost <= TravelTimeMatrix.MAX_TIME) ? (int) Math.round(cost) : TravelTimeMatrix.UNREACHABLE;
+                int time = matrix.time(source.getIndex(), target.getIndex());
+                pairs++;
+                if (expected != TravelTimeMatrix.UNREACHABLE) {reachable++;}
+                if (time != expected) {wrongTimes++;}
+                if (matrix.time(source.getId(), target.getId()) != time || matrix.time(source, target) != time
+                    || row[target.getIndex()] != time) {
+                    wrongLookups++;
+                }
+            }
+        }
+        if (matrix.time("no such stop", stops[0].getId()) != TravelTimeMatrix.UNREACHABLE) {wrongLookups++;}
+        System.out.printf("| %d pairs (%d reachable), %d wrong times, %d lookups that differ%n", pairs, reachable, wrongTimes, wrongLookups);
+        failures += wrongTimes + wrongLookups;
+
+        Files.copy(file.toPath(), cut.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (RandomAccessFile out = new RandomAccessFile(cut, "rw")) {out.setLength(out.length() - 4);}
+        boolean missing = TravelTimeMatrix.open(new File(file.getPath() + ".missing")) == null;
+        boolean cutShort = TravelTimeMatrix.open(cut) == null;
+        System.out.println("| a missing file is not opened: " + missing + ", a file cut short is not opened: " + cutShort);
+        if (!missing || !cutShort) {failures++;}
+
+        TestData.report(failures);
+    }
+
+}
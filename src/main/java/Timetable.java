@@ -0,0 +1,337 @@
+import java.io.File;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The timetable of the network (the trips of stop_times.txt, with their patterns from
+ * stop_pattern_trips.txt and their services from trips.txt), over the stops of a Graph,
+ * packed into flat arrays for the timetable searches (see Raptor).
+ *
+ * Routes:
+ *  The trips are grouped into routes: trips of the same stop pattern that stop at exactly the
+ *  same stops, in the same order (a trip that only runs part of its pattern is in a different
+ *  route to the trips that run all of it). The trips of each route are sorted by departure, and
+ *  no trip of a route overtakes another: if one would, it goes into another route with the same
+ *  stops. So at every stop of a route, the trips leave (and arrive) in the order of the trips.
+ *  The stops of route r are routeStop(r, 0..routeLength(r)-1); its trips are
+ *  firstTrip(r)..endTrip(r)-1; the times of trip t at position p of its route are
+ *  arrival(t, p) and departure(t, p), in seconds after midnight (past 24:00:00 for trips
+ *  that run after midnight).
+ *  The stop ids are the dense ids of the stops in the Graph (see Stop.getIndex()).
+ *
+ * Routes at a stop:
+ *  Each stop has a row of the (route, position) pairs of the routes that stop there
+ *  (firstRouteAt(v)..endRouteAt(v)-1); a route that stops twice at a stop is in the row twice.
+ *
+ * Transfers:
+ *  The transfers of the Graph (from transfers.txt) between two different stops, as a row of
+ *  (stop, time) for each stop; the time is the minimum transfer time, but never less than the
+ *  time to walk the straight line between the stops. Transfers that are not possible
+ *  (transfer_type 3) are left out. The walking edges are not copied here: the searches take
+ *  them from the CompactGraph, so they follow the current walking distance.
+ *
+ * The timetable does not change once built, so it can be used from any thread.
+ */
+
+public class Timetable {
+
+    private final Graph graph;
+
+    private final String[] routeIds;        // stop pattern id of each route
+    private final int[] routeStopStarts;    // size routes+1: start of the stops of each route
+    private final int[] routeStops;         // stop ids
+    private final int[] routeTripStarts;    // size routes+1: first trip of each route
+
+    private final String[] tripIds;         // trip id of each trip
+    private final int[] tripRoutes;         // route of each trip
+    private final int[] tripTimeStarts;     // start of the times of each trip
+    private final int[] arrivals;           // seconds after midnight
+    private final int[] departures;
+
+    private final int[] stopRouteStarts;    // size stops+1: start of the routes at each stop
+    private final int[] stopRoutes;         // route
+    private final int[] stopRoutePositions; // position of the stop in the route
+
+    private final int[] transferStarts;     // size stops+1: start of the transfers from each stop
+    private final int[] transferTargets;    // stop id
+    private final int[] transferTimes;      // seconds
+
+    /**
+     * Load the timetable for the stops of the graph from the trips, stop_times and
+     * stop_pattern_trips files.
+     * services picks the trips to use by their service id (eg, weekdays only); null for all trips.
+     */
+    public static Timetable load(Graph graph, File tripsFile, File stopTimesFile, File patternTripsFile,
+                                 Predicate<String> services) {
+        FeedLoader loader = new FeedLoader();
+        loader.useStops(graph.getStops());
+        FeedLoader.Trips trips = loader.loadTrips(tripsFile);
+        FeedLoader.StopTimes stopTimes = loader.loadStopTimes(stopTimesFile);
+        FeedLoader.PatternTrips patternTrips = loader.loadStopPatternTrips(patternTripsFile);
+        return new Timetable(graph, loader, trips, stopTimes, patternTrips, services);
+    }
+
+    /**
+     * Build the timetable from the tables loaded by the loader, whose stops must be the stops
+     * of the graph (see FeedLoader.useStops(..)).
+     * services picks the trips to use by their service id; null for all trips.
+     */
+    public Timetable(Graph graph, FeedLoader loader, FeedLoader.Trips trips, FeedLoader.StopTimes stopTimes,
+                     FeedLoader.PatternTrips patternTrips, Predicate<String> services) {
+        long start = System.nanoTime();
+        this.graph = graph;
+        int tripIdCount = loader.getTripIds().size();
+
+        // the service and pattern of each trip id (-1 if not known)
+        int[] tripService = new int[tripIdCount];
+        int[] tripPattern = new int[tripIdCount];
+        Arrays.fill(tripService, -1);
+        Arrays.fill(tripPattern, -1);
+        for (int row = 0; row < trips.size; row++) {tripService[trips.trip[row]] = trips.service[row];}
+        for (int row = 0; row < patternTrips.size; row++) {tripPattern[patternTrips.trip[row]] = patternTrips.pattern[row];}
+
+        // the rows of stop_times of each trip id, in stop_sequence order
+        int[] rowStarts = new int[tripIdCount + 1];
+        for (int row = 0; row < stopTimes.size; row++) {rowStarts[stopTimes.trip[row] + 1]++;}
+        for (int t = 0; t < tripIdCount; t++) {rowStarts[t + 1] += rowStarts[t];}
+        int[] rows = new int[stopTimes.size];
+        int[] fill = Arrays.copyOf(rowStarts, tripIdCount);
+        for (int row = 0; row < stopTimes.size; row++) {rows[fill[stopTimes.trip[row]]++] = row;}
+        for (int t = 0; t < tripIdCount; t++) {
+            for (int i = rowStarts[t] + 1; i < rowStarts[t + 1]; i++) {     // insertion sort (the rows are nearly in order)
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= rowStarts[t] && stopTimes.sequence[rows[j]] > stopTimes.sequence[row]) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+        }
+
+        // group the trips by pattern and stops, and split each group into routes without overtaking
+        Map<List<Integer>, List<Integer>> groups = new LinkedHashMap<List<Integer>, List<Integer>>();
+        int skipped = 0;
+        for (int t = 0; t < tripIdCount; t++) {
+            int first = rowStarts[t];
+            int end = rowStarts[t + 1];
+            if (end - first < 2) {continue;}
+            if (services != null && (tripService[t] < 0 || !services.test(loader.getServiceIds().get(tripService[t])))) {continue;}
+            if (!timesInOrder(stopTimes, rows, first, end)) {
+                skipped++;
+                continue;
+            }
+            List<Integer> key = new ArrayList<Integer>(end - first + 1);
+            key.add(tripPattern[t]);
+            for (int i = first; i < end; i++) {key.add(loader.getStop(stopTimes.stop[rows[i]]).getIndex());}
+            groups.computeIfAbsent(key, k -> new ArrayList<Integer>()).add(t);
+        }
+        List<List<Integer>> routeKeys = new ArrayList<List<Integer>>();
+        List<List<Integer>> routeTripLists = new ArrayList<List<Integer>>();
+        for (Map.Entry<List<Integer>, List<Integer>> group : groups.entrySet()) {
+            List<Integer> groupTrips = group.getValue();
+            groupTrips.sort((a, b) -> compareTrips(stopTimes, rows, rowStarts, a, b));
+            List<List<Integer>> split = new ArrayList<List<Integer>>();
+            for (int t : groupTrips) {
+                List<Integer> into = null;
+                for (List<Integer> route : split) {
+                    if (!overtakes(stopTimes, rows, rowStarts, t, route.get(route.size() - 1))) {
+                        into = route;
+                        break;
+                    }
+                }
+                if (into == null) {
+                    into = new ArrayList<Integer>();
+                    split.add(into);
+                }
+                into.add(t);
+            }
+            for (List<Integer> route : split) {
+                routeKeys.add(group.getKey());
+                routeTripLists.add(route);
+            }
+        }
+
+        // lay out the routes and trips
+        int routeCount = routeKeys.size();
+        routeIds = new String[routeCount];
+        routeStopStarts = new int[routeCount + 1];
+        routeTripStarts = new int[routeCount + 1];
+        for (int r = 0; r < routeCount; r++) {
+            int pattern = routeKeys.get(r).get(0);
+            routeIds[r] = (pattern < 0) ? null : loader.getLineIds().get(pattern);
+            routeStopStarts[r + 1] = routeStopStarts[r] + routeKeys.get(r).size() - 1;
+            routeTripStarts[r + 1] = routeTripStarts[r] + routeTripLists.get(r).size();
+        }
+        routeStops = new int[routeStopStarts[routeCount]];
+        int tripCount = routeTripStarts[routeCount];
+        tripIds = new String[tripCount];
+        tripRoutes = new int[tripCount];
+        tripTimeStarts = new int[tripCount + 1];
+        int timeCount = 0;
+        for (int r = 0; r < routeCount; r++) {
+            List<Integer> key = routeKeys.get(r);
+            for (int p = 1; p < key.size(); p++) {routeStops[routeStopStarts[r] + p - 1] = key.get(p);}
+            for (int i = routeTripStarts[r]; i < routeTripStarts[r + 1]; i++) {
+                tripRoutes[i] = r;
+                tripTimeStarts[i] = timeCount;
+                timeCount += key.size() - 1;
+            }
+        }
+        tripTimeStarts[tripCount] = timeCount;
+        arrivals = new int[timeCount];
+        departures = new int[timeCount];
+        for (int r = 0; r < routeCount; r++) {
+            List<Integer> routeTrips = routeTripLists.get(r);
+            for (int i = 0; i < routeTrips.size(); i++) {
+                int t = routeTrips.get(i);
+                int trip = routeTripStarts[r] + i;
+                tripIds[trip] = loader.getTripIds().get(t);
+                for (int k = rowStarts[t]; k < rowStarts[t + 1]; k++) {
+                    arrivals[tripTimeStarts[trip] + k - rowStarts[t]] = stopTimes.arrival[rows[k]];
+                    departures[tripTimeStarts[trip] + k - rowStarts[t]] = stopTimes.departure[rows[k]];
+                }
+            }
+        }
+
+        // the routes at each stop
+        int n = graph.getCompactGraph().size();
+        stopRouteStarts = new int[n + 1];
+        for (int stop : routeStops) {stopRouteStarts[stop + 1]++;}
+        for (int v = 0; v < n; v++) {stopRouteStarts[v + 1] += stopRouteStarts[v];}
+        stopRoutes = new int[routeStops.length];
+        stopRoutePositions = new int[routeStops.length];
+        fill = Arrays.copyOf(stopRouteStarts, n);
+        for (int r = 0; r < routeCount; r++) {
+            for (int p = 0; p < routeLength(r); p++) {
+                int i = fill[routeStop(r, p)]++;
+                stopRoutes[i] = r;
+                stopRoutePositions[i] = p;
+            }
+        }
+
+        // the transfers between different stops (the quickest, if there are several for a pair)
+        Map<Long, Integer> transfers = new HashMap<Long, Integer>();
+        for (Transfer transfer : graph.getTransfers()) {
+            Stop from = transfer.getFromStop();
+            Stop to = transfer.getToStop();
+            if (from == null || to == null || from == to || transfer.getTranspType() == 3) {continue;}
+            double walk = from.distanceTo(to) / Transport.WALKING_SPEED_MPS;
+            int time = (int) Math.ceil(Math.max(transfer.getMinTransferTime(), walk));
+            transfers.merge(((long) from.getIndex() << 32) | to.getIndex(), time, Math::min);
+        }
+        transferStarts = new int[n + 1];
+        for (long pair : transfers.keySet()) {transferStarts[(int) (pair >>> 32) + 1]++;}
+        for (int v = 0; v < n; v++) {transferStarts[v + 1] += transferStarts[v];}
+        transferTargets = new int[transfers.size()];
+        transferTimes = new int[transfers.size()];
+        fill = Arrays.copyOf(transferStarts, n);
+        for (Map.Entry<Long, Integer> transfer : transfers.entrySet()) {
+            int i = fill[(int) (transfer.getKey() >>> 32)]++;
+            transferTargets[i] = (int) (long) transfer.getKey();
+            transferTimes[i] = transfer.getValue();
+        }
+
+        System.out.printf("Timetable: %d routes, %d trips, %d stop times, %d transfers%s, %.1f ms%n",
+                          routeCount, tripCount, timeCount, transferTargets.length,
+                          (skipped > 0) ? " (" + skipped + " trips with times out of order left out)" : "",
+                          (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Are the times of the rows of a trip all known, and never go back? */
+    private static boolean timesInOrder(FeedLoader.StopTimes stopTimes, int[] rows, int first, int end) {
+        int time = 0;
+        for (int i = first; i < end; i++) {
+            int arrival = stopTimes.arrival[rows[i]];
+            int departure = stopTimes.departure[rows[i]];
+            if (arrival < time || departure < arrival) {return false;}
+            time = departure;
+        }
+        return true;
+    }
+
+    /** Order trips (of the same stops) by their departure from the first stop, then their arrival at the last */
+    private static int compareTrips(FeedLoader.StopTimes stopTimes, int[] rows, int[] rowStarts, int a, int b) {
+        int byDeparture = Integer.compare(stopTimes.departure[rows[rowStarts[a]]], stopTimes.departure[rows[rowStarts[b]]]);
+        if (byDeparture != 0) {return byDeparture;}
+        return Integer.compare(stopTimes.arrival[rows[rowStarts[a + 1] - 1]], stopTimes.arrival[rows[rowStarts[b + 1] - 1]]);
+    }
+
+    /** Does trip a (which leaves after trip b) arrive at or leave any stop before b? */
+    private static boolean overtakes(FeedLoader.StopTimes stopTimes, int[] rows, int[] rowStarts, int a, int b) {
+        for (int k = 0; k < rowStarts[a + 1] - rowStarts[a]; k++) {
+            int rowA = rows[rowStarts[a] + k];
+            int rowB = rows[rowStarts[b] + k];
+            if (stopTimes.arrival[rowA] < stopTimes.arrival[rowB] || stopTimes.departure[rowA] < stopTimes.departure[rowB]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    //--------------------------------------------
+    //  Routes
+    //--------------------------------------------
+
+    public int routeCount() {return routeIds.length;}
+
+    /** The stop pattern id of a route (null if its trips had no pattern) */
+    public String routeId(int r) {return routeIds[r];}
+    public int routeLength(int r) {return routeStopStarts[r + 1] - routeStopStarts[r];}
+    public int routeStop(int r, int p) {return routeStops[routeStopStarts[r] + p];}
+    public int firstTrip(int r) {return routeTripStarts[r];}
+    public int endTrip(int r) {return routeTripStarts[r + 1];}
+
+    //--------------------------------------------
+    //  Trips
+    //--------------------------------------------
+
+    public int tripCount() {return tripIds.length;}
+    public String tripId(int t) {return tripIds[t];}
+    public int tripRoute(int t) {return tripRoutes[t];}
+    public int arrival(int t, int p) {return arrivals[tripTimeStarts[t] + p];}
+    public int departure(int t, int p) {return departures[tripTimeStarts[t] + p];}
+
+    /** Number of (trip, stop) times */
+    public int stopTimeCount() {return arrivals.length;}
+
+    //--------------------------------------------
+    //  Routes at a stop
+    //--------------------------------------------
+
+    public int firstRouteAt(int v) {return stopRouteStarts[v];}
+    public int endRouteAt(int v) {return stopRouteStarts[v + 1];}
+    public int routeAt(int i) {return stopRoutes[i];}
+    public int positionAt(int i) {return stopRoutePositions[i];}
+
+    //--------------------------------------------
+    //  Transfers from a stop
+    //--------------------------------------------
+
+    public int firstTransfer(int v) {return transferStarts[v];}
+    public int endTransfer(int v) {return transferStarts[v + 1];}
+    public int transferTarget(int i) {return transferTargets[i];}
+    public int transferTime(int i) {return transferTimes[i];}
+
+    //--------------------------------------------
+    //  Times
+    //--------------------------------------------
+
+    /** A time of day in seconds after midnight as HH:MM:SS (hours past 24 for the next morning) */
+    public static String formatTime(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+
+    /** Parse a time of day given as HH:MM or HH:MM:SS, in seconds after midnight */
+    public static int parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length < 2 || parts.length > 3) {throw new IllegalArgumentException("Bad time " + time);}
+        int seconds = Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60;
+        return (parts.length == 3) ? seconds + Integer.parseInt(parts[2]) : seconds;
+    }
+
+}
@@ -15,6 +15,7 @@ public class Transport {
     public static final double FERRY_SPEED_KPH = 40;
     public static final double FERRY_SPEED_MPS = CABLECAR_SPEED_KPH / 3.6;
     public static final double MAX_WALKING_DISTANCE_M = 100; // 100 meters
+    public static final double PRECOMPUTED_WALKING_DISTANCE_M = 400; // walking edges are precomputed up to 400 meters (the range of the slider)
 
     public static final String WALKING = "walking";
     public static final String TRAIN = "train";
@@ -0,0 +1,325 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The travel time (in whole seconds) from every stop to every stop, in a file, for planning:
+ * built with one search per source stop (see Router.costsFrom(..)), and read back by stop
+ * (dense index or stop id) straight from the memory mapped file, without loading it into the heap.
+ *
+ * build(..) runs the searches in parallel on a ForkJoinPool. The sources are split into
+ * ranges of rows; each worker thread has its own search arrays (the Router's Scratch for the
+ * thread) and its own array of costs, and the workers share only the compact graph (which
+ * does not change) and the mapped file, into which each writes its own rows (through its
+ * own duplicate of the mapped buffer, as buffers are not safe for use by several threads).
+ * So there are no locks in the searches, and the build should scale with the number of cores
+ * (until the memory bandwidth runs out). The calling thread reports the progress and the throughput.
+ *
+ * Each time is an unsigned short: times are rounded to the nearest second, and stops that
+ * cannot be reached, or only in more than MAX_TIME seconds (about 18 hours), are stored as
+ * 0xFFFF. So the matrix takes 2 bytes for each pair of stops (19 MB for Wellington).
+ *
+ * Format (big-endian, strings are an int length followed by UTF-8 bytes):
+ *   header: MAGIC, VERSION, fingerprint of the edges (long, see ContractionHierarchy.fingerprint(..)),
+ *           walking distance (double), number of stops n, stop id of each stop in index order,
+ *           padding to a multiple of 8 bytes
+ *   rows:   n rows of n unsigned shorts, the times from each stop to all the stops
+ *   END     (written last, so a file whose build did not finish is not read)
+ * The rows are mapped in segments of whole rows, as one mapping can hold at most 2 GB.
+ * Change VERSION whenever the format changes.
+ */
+
+public class TravelTimeMatrix {
+
+    private static final int MAGIC = 0x5754544d;      // "WTTM"
+    private static final int VERSION = 1;
+    private static final int END = 0x454e4421;        // "END!"
+
+    /** Longest time that is stored (seconds); longer times count as unreachable */
+    public static final int MAX_TIME = 0xFFFE;
+    /** time(..) of a stop that cannot be reached (within MAX_TIME) */
+    public static final int UNREACHABLE = -1;
+    private static final short NONE = (short) 0xFFFF;
+
+    private static final int ROWS_PER_TASK = 8;        // rows searched by one task without splitting it
+
+    private final String[] stopIds;
+    private final Map<String, Integer> indexes;      // stop id to index
+    private final long fingerprint;
+    private final double walkingDistance;
+    private final MappedByteBuffer[] segments;
+    private final int rowsPerSegment;
+
+    private TravelTimeMatrix(String[] stopIds, long fingerprint, double walkingDistance,
+                             MappedByteBuffer[] segments, int rowsPerSegment) {
+        this.stopIds = stopIds;
+        this.fingerprint = fingerprint;
+        this.walkingDistance = walkingDistance;
+        this.segments = segments;
+        this.rowsPerSegment = rowsPerSegment;
+        this.indexes = new HashMap<String, Integer>();
+        for (int v = 0; v < stopIds.length; v++) {indexes.put(stopIds[v], v);}
+    }
+
+    //-------------------------------------------------------
+    //  Building
+    //-------------------------------------------------------
+
+    /** Build the matrix for the graph (with its current walking distance) into a file, using all the cores */
+    public static void build(Graph graph, File file) throws IOException {
+        build(graph, file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build the matrix for the graph (with its current walking distance) into a file,
+     * with the given number of worker threads.
+     * The walking distance must not be changed until the build has finished.
+     */
+    public static void build(Graph graph, File file, int threads) throws IOException {
+        long start = System.nanoTime();
+        CompactGraph g = graph.getCompactGraph();
+        int n = g.size();
+        Router router = new Router(graph, Router.Cost.TIME, Router.QueueType.HEAP, 0);   // no landmarks: no goal
+        byte[] header = header(g);
+        int rowsPerSegment = rowsPerSegment(n);
+        long dataStart = header.length;
+        long dataEnd = dataStart + 2L * n * n;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(header), 0);
+            MappedByteBuffer[] segments = mapRows(channel, FileChannel.MapMode.READ_WRITE, dataStart, n, rowsPerSegment);
+
+            AtomicInteger rowsDone = new AtomicInteger();
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+            try {
+                Rows rows = new Rows(g, router, segments, rowsPerSegment, rowsDone, 0, n);
+                ForkJoinTask<Void> task = pool.submit(rows);
+                while (true) {
+                    try {
+                        task.get(1, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        int done = rowsDone.get();
+                        double secs = (System.nanoTime() - start) / 1e9;
+                        System.out.printf("Travel time matrix: %d of %d rows (%.0f%%), %.0f rows/s%n", done, n, 100.0 * done / n, done / secs);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Building the travel time matrix was interrupted");
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Building the travel time matrix failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            for (MappedByteBuffer segment : segments) {segment.force();}
+            channel.write(ByteBuffer.allocate(4).putInt(0, END), dataEnd);
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Built travel time matrix %d x %d in %.2f s with %d threads: %.0f searches/s, %.1f MB/s (%.1f MB)%n",
+            n, n, secs, Math.max(1, threads), n / secs, dataEnd / secs / 1e6, (dataEnd + 4) / 1e6);
+    }
+
+    /**
+     * The searches from a range of source stops, split in two (and run in parallel)
+     * until the range is at most ROWS_PER_TASK rows
+     * (a RecursiveAction is Serializable, but the tasks are never serialized, so their fields need not be)
+     */
+    @SuppressWarnings("serial")
+    private static class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // each worker thread's array of costs from the source, reused for all its rows
+        private static final ThreadLocal<double[]> costs = ThreadLocal.withInitial(() -> new double[0]);
+
+        private final CompactGraph graph;
+        private final Router router;
+        private final MappedByteBuffer[] segments;
+        private final int rowsPerSegment;
+        private final AtomicInteger rowsDone;
+        private final int from, to;            // rows from .. to-1
+
+        Rows(CompactGraph graph, Router router, MappedByteBuffer[] segments, int rowsPerSegment,
+             AtomicInteger rowsDone, int from, int to) {
+            this.graph = graph;
+            this.router = router;
+            this.segments = segments;
+            this.rowsPerSegment = rowsPerSegment;
+            this.rowsDone = rowsDone;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Rows(graph, router, segments, rowsPerSegment, rowsDone, from, middle),
+                          new Rows(graph, router, segments, rowsPerSegment, rowsDone, middle, to));
+                return;
+            }
+            int n = graph.size();
+            double[] rowCosts = costs.get();
+            if (rowCosts.length < n) {
+                rowCosts = new double[n];
+                costs.set(rowCosts);
+            }
+            for (int source = from; source < to; source++) {
+                router.costsFrom(graph.stop(source), MAX_TIME, rowCosts);
+                // its own view of the mapping (a duplicate is big-endian, like the file)
+                ByteBuffer segment = segments[source / rowsPerSegment].duplicate();
+                int position = (source % rowsPerSegment) * 2 * n;
+                for (int target = 0; target < n; target++) {
+                    double cost = rowCosts[target];
+                    segment.putShort(position + 2 * target, (cost <= MAX_TIME) ? (short) Math.round(cost) : NONE);
+                }
+                rowsDone.incrementAndGet();
+            }
+        }
+    }
+
+    // the header (with the padding), for the edges of the compact graph that are in use
+    private static byte[] header(CompactGraph g) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(ContractionHierarchy.fingerprint(g, Router.Cost.TIME));
+        out.writeDouble(g.getWalkingDistance());
+        out.writeInt(g.size());
+        for (int v = 0; v < g.size(); v++) {
+            byte[] id = g.stop(v).getId().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(id.length);
+            out.write(id);
+        }
+        while (out.size() % 8 != 0) {out.writeByte(0);}
+        return bytes.toByteArray();
+    }
+
+    // most whole rows of n stops that fit in one mapping
+    private static int rowsPerSegment(int n) {
+        return Math.max(1, Integer.MAX_VALUE / Math.max(1, 2 * n));
+    }
+
+    // map the n rows (from dataStart) in segments of rowsPerSegment rows
+    private static MappedByteBuffer[] mapRows(FileChannel channel, FileChannel.MapMode mode, long dataStart,
+                                              int n, int rowsPerSegment) throws IOException {
+        int count = (n + rowsPerSegment - 1) / rowsPerSegment;
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            int rows = Math.min(rowsPerSegment, n - s * rowsPerSegment);
+            segments[s] = channel.map(mode, dataStart + 2L * n * s * rowsPerSegment, 2L * n * rows);
+        }
+        return segments;
+    }
+
+    //-------------------------------------------------------
+    //  Reading
+    //-------------------------------------------------------
+
+    /**
+     * Open a matrix file for reading (the rows stay in the file, mapped into memory).
+     * Returns null if the file does not exist, has the wrong format or version, or is incomplete.
+     */
+    public static TravelTimeMatrix open(File file) throws IOException {
+        if (!file.exists()) {return null;}
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            if (in.remaining() < 28 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                System.out.println("Travel time matrix " + file + " has the wrong format or version");
+                return null;
+            }
+            long fingerprint = in.getLong();
+            double walkingDistance = in.getDouble();
+            int n = in.getInt();
+            String[] stopIds = new String[n];
+            for (int v = 0; v < n; v++) {
+                byte[] id = new byte[in.getInt()];
+                in.get(id);
+                stopIds[v] = new String(id, StandardCharsets.UTF_8);
+            }
+            long dataStart = (in.position() + 7) / 8 * 8;
+            long dataEnd = dataStart + 2L * n * n;
+            ByteBuffer end = ByteBuffer.allocate(4);
+            if (channel.size() < dataEnd + 4 || channel.read(end, dataEnd) != 4 || end.getInt(0) != END) {
+                System.out.println("Travel time matrix " + file + " is incomplete");
+                return null;
+            }
+            int rowsPerSegment = rowsPerSegment(n);
+            MappedByteBuffer[] segments = mapRows(channel, FileChannel.MapMode.READ_ONLY, dataStart, n, rowsPerSegment);
+            return new TravelTimeMatrix(stopIds, fingerprint, walkingDistance, segments, rowsPerSegment);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            System.out.println("Travel time matrix " + file + " is broken: " + e);
+            return null;
+        }
+    }
+
+    /** Number of stops */
+    public int size() {
+        return stopIds.length;
+    }
+
+    /** Id of the stop with the index */
+    public String stopId(int index) {
+        return stopIds[index];
+    }
+
+    /** Index of the stop with the id, or -1 if it is not in the matrix */
+    public int indexOf(String stopId) {
+        Integer index = indexes.get(stopId);
+        return (index == null) ? -1 : index;
+    }
+
+    /** Walking distance of the graph the matrix was built for */
+    public double getWalkingDistance() {
+        return walkingDistance;
+    }
+
+    /**
+     * Whether the matrix was built for the edges now in use in the compact graph
+     * (the same stops, edges and walking distance)
+     */
+    public boolean isFor(CompactGraph graph) {
+        return graph.size() == size() && ContractionHierarchy.fingerprint(graph, Router.Cost.TIME) == fingerprint;
+    }
+
+    /** Travel time in seconds from stop index from to stop index to, or UNREACHABLE */
+    public int time(int from, int to) {
+        int n = stopIds.length;
+        if (from < 0 || from >= n || to < 0 || to >= n) {throw new IndexOutOfBoundsException("No stop " + from + " or " + to);}
+        short time = segments[from / rowsPerSegment].getShort((from % rowsPerSegment) * 2 * n + 2 * to);
+        return (time == NONE) ? UNREACHABLE : Short.toUnsignedInt(time);
+    }
+
+    /** Travel time in seconds between the stops with the ids, or UNREACHABLE (also if a stop is unknown) */
+    public int time(String fromId, String toId) {
+        int from = indexOf(fromId);
+        int to = indexOf(toId);
+        return (from < 0 || to < 0) ? UNREACHABLE : time(from, to);
+    }
+
+    /** Travel time in seconds between two stops, or UNREACHABLE */
+    public int time(Stop from, Stop to) {
+        return time(from.getId(), to.getId());
+    }
+
+    /** The travel times from stop index from to all the stops (UNREACHABLE for those that cannot be reached) */
+    public int[] row(int from) {
+        int[] times = new int[size()];
+        for (int to = 0; to < times.length; to++) {times[to] = time(from, to);}
+        return times;
+    }
+
+}
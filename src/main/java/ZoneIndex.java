@@ -0,0 +1,197 @@
+import java.util.*;
+
+/**
+ * Spatial index over the fare zone polygons of a Zoning, to answer
+ * "which zone is this point in?" (zoneOf) quickly.
+ *
+ * Each polygon (ring) of each zone is packed into one double[] of coordinates
+ * (lon, lat, lon, lat, ...), with its bounding box. A query only looks at the rings
+ * whose bounding box holds the point, in order of increasing box area (so if zones
+ * overlap, the smaller, inner one wins).
+ * Each ring is also cut into horizontal bands of latitude, and each band lists the
+ * edges of the ring that cross it, so the point-in-polygon test (even-odd ray casting)
+ * only looks at the few edges in the band of the point, not every vertex of the ring.
+ */
+
+public class ZoneIndex {
+
+    public static final int NO_ZONE = -1;
+
+    private final int ringCount;
+    private final int[] ringZone;               // zone number of each ring
+    private final int[] ringStart;              // start of each ring in coords (in doubles), ringCount+1 entries
+    private final double[] coords;              // lon, lat of every vertex of every ring
+    private final double[] minLon, minLat, maxLon, maxLat;
+
+    // bands of each ring: ringBandStart[r]..ringBandStart[r+1]-1 are the bands of ring r,
+    // and bandStart[b]..bandStart[b+1]-1 in bandEdges are the edges (index of the first vertex) crossing band b
+    private final int[] ringBands;              // number of bands of each ring
+    private final int[] ringBandStart;
+    private final int[] bandStart;
+    private final int[] bandEdges;
+
+    private static final int EDGES_PER_BAND = 8;
+    private static final int MAX_BANDS = 1024;
+
+    /**
+     * Build the index over rings given as packed coordinates (lon, lat, lon, lat, ...),
+     * with the zone number of each ring (see Zoning.getIndex()).
+     * Rings with fewer than three vertices are left out.
+     */
+    public ZoneIndex(List<double[]> allRings, List<Integer> allZones) {
+        // keep the real rings, then order them smallest bounding box first
+        List<double[]> rings = new ArrayList<double[]>();
+        List<Integer> zones = new ArrayList<Integer>();
+        for (int r = 0; r < allRings.size(); r++) {
+            if (allRings.get(r).length < 6) {continue;}
+            rings.add(allRings.get(r));
+            zones.add(allZones.get(r));
+        }
+        Integer[] order = new Integer[rings.size()];
+        double[] area = new double[rings.size()];
+        for (int r = 0; r < order.length; r++) {
+            order[r] = r;
+            double[] box = boundingBox(rings.get(r));
+            area[r] = (box[2] - box[0]) * (box[3] - box[1]);
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer r) -> area[r]));
+
+        ringCount = order.length;
+        ringZone = new int[ringCount];
+        ringStart = new int[ringCount + 1];
+        minLon = new double[ringCount];
+        minLat = new double[ringCount];
+        maxLon = new double[ringCount];
+        maxLat = new double[ringCount];
+        int total = 0;
+        for (double[] ring : rings) {total += ring.length;}
+        coords = new double[total];
+        for (int r = 0; r < ringCount; r++) {
+            double[] ring = rings.get(order[r]);
+            ringZone[r] = zones.get(order[r]);
+            System.arraycopy(ring, 0, coords, ringStart[r], ring.length);
+            ringStart[r + 1] = ringStart[r] + ring.length;
+            double[] box = boundingBox(ring);
+            minLon[r] = box[0];
+            minLat[r] = box[1];
+            maxLon[r] = box[2];
+            maxLat[r] = box[3];
+        }
+
+        // cut each ring into bands and list the edges crossing each band
+        ringBands = new int[ringCount];
+        ringBandStart = new int[ringCount + 1];
+        for (int r = 0; r < ringCount; r++) {
+            int vertices = (ringStart[r + 1] - ringStart[r]) / 2;
+            ringBands[r] = Math.max(1, Math.min(MAX_BANDS, vertices / EDGES_PER_BAND));
+            ringBandStart[r + 1] = ringBandStart[r] + ringBands[r];
+        }
+        int bands = ringBandStart[ringCount];
+        bandStart = new int[bands + 1];
+        for (int r = 0; r < ringCount; r++) {
+            for (int e = ringStart[r]; e < ringStart[r + 1]; e += 2) {
+                for (int b = firstBand(r, e); b <= lastBand(r, e); b++) {bandStart[b + 1]++;}
+            }
+        }
+        for (int b = 0; b < bands; b++) {bandStart[b + 1] += bandStart[b];}
+        bandEdges = new int[bandStart[bands]];
+        int[] fill = Arrays.copyOf(bandStart, bands);
+        for (int r = 0; r < ringCount; r++) {
+            for (int e = ringStart[r]; e < ringStart[r + 1]; e += 2) {
+                for (int b = firstBand(r, e); b <= lastBand(r, e); b++) {bandEdges[fill[b]++] = e;}
+            }
+        }
+    }
+
+    /** First and last band (over all rings) crossed by the edge from the vertex at e to the next vertex */
+    private int firstBand(int ring, int e) {
+        return ringBandStart[ring] + band(ring, Math.min(coords[e + 1], coords[nextVertex(ring, e) + 1]));
+    }
+
+    private int lastBand(int ring, int e) {
+        return ringBandStart[ring] + band(ring, Math.max(coords[e + 1], coords[nextVertex(ring, e) + 1]));
+    }
+
+    private static double[] boundingBox(double[] ring) {
+        double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = 0; i < ring.length; i += 2) {
+            box[0] = Math.min(box[0], ring[i]);
+            box[1] = Math.min(box[1], ring[i + 1]);
+            box[2] = Math.max(box[2], ring[i]);
+            box[3] = Math.max(box[3], ring[i + 1]);
+        }
+        return box;
+    }
+
+    /** Index in coords of the vertex after the vertex at e (wrapping round to the start of the ring) */
+    private int nextVertex(int ring, int e) {
+        return (e + 2 < ringStart[ring + 1]) ? e + 2 : ringStart[ring];
+    }
+
+    /** The band (0..ringBands-1) of the ring that the latitude falls in */
+    private int band(int ring, double lat) {
+        double height = maxLat[ring] - minLat[ring];
+        if (height <= 0) {return 0;}
+        int b = (int) ((lat - minLat[ring]) / height * ringBands[ring]);
+        return Math.max(0, Math.min(ringBands[ring] - 1, b));
+    }
+
+    //-------------------------------------------------------
+    //  Queries
+    //-------------------------------------------------------
+
+    /** Number of polygons (rings) in the index */
+    public int size() {
+        return ringCount;
+    }
+
+    /**
+     * Return the number of the fare zone that the point is in, or NO_ZONE if it is not in any zone.
+     */
+    public int zoneOf(GisPoint point) {
+        return zoneOf(point.getLon(), point.getLat());
+    }
+
+    public int zoneOf(double lon, double lat) {
+        for (int r = 0; r < ringCount; r++) {
+            if (lon < minLon[r] || lon > maxLon[r] || lat < minLat[r] || lat > maxLat[r]) {continue;}
+            if (contains(r, lon, lat)) {
+                return ringZone[r];
+            }
+        }
+        return NO_ZONE;
+    }
+
+    /**
+     * Even-odd test: count the edges of the ring in the band of the point that
+     * a ray going east from the point crosses.
+     */
+    private boolean contains(int ring, double lon, double lat) {
+        int b = ringBandStart[ring] + band(ring, lat);
+        boolean inside = false;
+        for (int i = bandStart[b]; i < bandStart[b + 1]; i++) {
+            int e = bandEdges[i];
+            int f = nextVertex(ring, e);
+            double lon1 = coords[e], lat1 = coords[e + 1];
+            double lon2 = coords[f], lat2 = coords[f + 1];
+            if ((lat1 > lat) != (lat2 > lat)) {
+                double crossLon = lon1 + (lat - lat1) / (lat2 - lat1) * (lon2 - lon1);
+                if (lon < crossLon) {inside = !inside;}
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Set the zone of each of the stops (NO_ZONE for stops outside all the zones)
+     */
+    public void assignZones(Collection<Stop> stops) {
+        int outside = 0;
+        for (Stop stop : stops) {
+            stop.setZone(zoneOf(stop.getPoint()));
+            if (stop.getZone() == NO_ZONE) {outside++;}
+        }
+        System.out.println("Assigned fare zones to " + stops.size() + " stops (" + outside + " outside all zones)");
+    }
+
+}
@@ -23,6 +23,7 @@ public class Zoning {
     private double area;
 
     private Map<String, Shape> shapes = new HashMap<String, Shape>();
+    private ZoneIndex index = null;     // built when first needed
 
 
     // Construct Zoning object from a geojson file
@@ -83,8 +84,38 @@ public class Zoning {
     }
 
     // add polygon to the list of zones
-    public void addZone(String id, Shape zone) {
+    // (synchronized with getIndex(), so an index being built is not left in place with a zone missing)
+    public synchronized void addZone(String id, Shape zone) {
         this.shapes.put(id, zone);
+        this.index = null;
+    }
+
+    // get the spatial index over the zone polygons
+    // (each polygon is packed into an array of coordinates: lon, lat, lon, lat, ...)
+    public synchronized ZoneIndex getIndex() {
+        if (index == null) {
+            List<double[]> rings = new ArrayList<double[]>();
+            List<Integer> ringZones = new ArrayList<Integer>();
+            for (Shape zone : shapes.values()) {
+                for (GeoPoly poly : zone.getShapes()) {
+                    List<GisPoint> points = poly.getPoints();
+                    double[] ring = new double[points.size() * 2];
+                    for (int i = 0; i < points.size(); i++) {
+                        ring[2 * i] = points.get(i).getLon();
+                        ring[2 * i + 1] = points.get(i).getLat();
+                    }
+                    rings.add(ring);
+                    ringZones.add(zone.getZONE());
+                }
+            }
+            index = new ZoneIndex(rings, ringZones);
+        }
+        return index;
+    }
+
+    // get the number of the fare zone the point is in (ZoneIndex.NO_ZONE if none)
+    public int zoneOf(GisPoint point) {
+        return getIndex().zoneOf(point);
     }
 
     // get the collection of zones